@@ -7,9 +7,6 @@ import android.app.Service;
 import android.content.Intent;
 import android.content.res.Resources;
 import android.hardware.Sensor;
-import android.hardware.SensorEvent;
-import android.hardware.SensorEventListener;
-import android.hardware.SensorManager;
 import android.os.Environment;
 import android.os.Handler;
 import android.os.IBinder;
@@ -19,34 +16,52 @@ import android.support.v4.content.LocalBroadcastManager;
 import android.text.format.DateFormat;
 import android.util.Log;
 import android.widget.Toast;
+import at.jku.pci.lazybird.features.BinarySampleEncoder;
+import at.jku.pci.lazybird.features.BinarySampleReader;
+import at.jku.pci.lazybird.features.Decimator;
+import at.jku.pci.lazybird.features.RecordingSession;
+import at.jku.pci.lazybird.features.SampleSink;
+import at.jku.pci.lazybird.util.ARFFRowEncoder;
+import at.jku.pci.lazybird.util.RecordingWriter;
+import at.jku.pci.lazybird.util.SampleEncoder;
+import at.jku.pci.lazybird.util.SegmentedEncoder;
+import at.jku.pci.lazybird.util.TimeIndex;
+import at.jku.pci.lazybird.util.TimeIndexWriter;
+import java.io.BufferedOutputStream;
 import java.io.BufferedWriter;
+import java.io.Closeable;
 import java.io.File;
+import java.io.FileOutputStream;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
 import java.util.Date;
-import java.util.Locale;
+import java.util.LinkedHashMap;
 
-public class ARFFRecorderService extends Service implements SensorEventListener
+public class ARFFRecorderService extends Service implements SampleSink
 {
 	private static ARFFRecorderService sInstance = null;
 	
 	static final String LOGTAG = "ARFFRecorderService";
 	static final boolean LOCAL_LOGV = true;
+	private static final String DATE_FORMAT = "yyyy-MM-dd kk:mm";
+	
 	/**
-	 * Format string used to format the acceleration values written to the output file.
+	 * Recording format: text ARFF files.
 	 */
-	private static final String DATA_FORMAT = "%d,%.2f,%.2f,%.2f";
-	private static final String DATE_FORMAT = "yyyy-MM-dd kk:mm";
+	public static final String FORMAT_ARFF = "arff";
 	
 	/**
-	 * The attribute specification for the output ARFF file.<br>
-	 * Note that a class may also be specified, which is not part of this specification.
+	 * Recording format: binary recordings with values in hundredths where possible, see
+	 * {@link BinarySampleEncoder}.
 	 */
-	public static final String ATTRIBUTE_STRING =
-			"@ATTRIBUTE timestamp        NUMERIC\n" +
-					"@ATTRIBUTE accelerationx    NUMERIC\n" +
-					"@ATTRIBUTE accelerationy    NUMERIC\n" +
-					"@ATTRIBUTE accelerationz    NUMERIC\n";
+	public static final String FORMAT_BINARY = "binary";
+	
+	/**
+	 * Recording format: binary recordings with the exact values, see {@link BinarySampleEncoder}.
+	 */
+	public static final String FORMAT_BINARY_EXACT = "binaryExact";
 	
 	/**
 	 * UID for the ongoing notification.
@@ -69,7 +84,8 @@ public class ARFFRecorderService extends Service implements SensorEventListener
 	public static final String ARFF_SERVICE = "at.jku.pci.lazybird.ARFF_SERVICE";
 	
 	/**
-	 * Maximum number of values after which recording is stopped automatically.
+	 * Maximum number of values after which recording is stopped automatically, or a rolling recording
+	 * continues in the next segment.
 	 * <p>
 	 * Setting {@link SettingsActivity#KEY_VALUE_UPDATE_SPEED}
 	 */
@@ -87,18 +103,29 @@ public class ARFFRecorderService extends Service implements SensorEventListener
 	 */
 	private static int sStartDelay = 0;
 	
-	private final long mTimeOffset = System.currentTimeMillis() - System.nanoTime() / 1000000;
 	private NotificationManager mNotificationManager;
-	private SensorManager mSensorManager;
+	private SensorHub mSensorHub;
 	private PendingIntent mNotificationIntent;
 	private WaitingTimer mWaitingTimer;
 	private WakeLock mWakelock = null;
 	private long mNumValues;
 	private float[] mLastValues;
-	private BufferedWriter mOutfile;
 	private String mFilename;
 	private String mDirname;
 	private String mClass;
+	// Whether the recording is split into segments instead of stopping at the limit
+	private boolean mRolling;
+	// Writes the samples to the output file on a background thread once the header is written
+	private RecordingWriter mWriter;
+	// Needed to open the segments of a rolling recording
+	private String mFormat;
+	private String mDate;
+	private long mRelation;
+	private String[] mValues;
+	private int mClassIndex;
+	// Samples from the sensor hub go through the decimator, if any
+	private int mRate;
+	private SampleSink mSink;
 	private Date mStartTime;
 	
 	@Override
@@ -109,7 +136,7 @@ public class ARFFRecorderService extends Service implements SensorEventListener
 		if(LOCAL_LOGV) Log.v(LOGTAG, "Service created: " + this);
 		
 		mNotificationManager = (NotificationManager)getSystemService(NOTIFICATION_SERVICE);
-		mSensorManager = (SensorManager)getSystemService(SENSOR_SERVICE);
+		mSensorHub = SensorHub.getInstance(this);
 		sRunning = false;
 		
 		// Make the pending intent bring the app to the front rather than starting a new activity
@@ -151,6 +178,12 @@ public class ARFFRecorderService extends Service implements SensorEventListener
 			
 			final int clazz = intent.getIntExtra(RecorderFragment.EXTRA_CLASS, 0);
 			final String[] classes = intent.getStringArrayExtra(RecorderFragment.EXTRA_CLASSES);
+			String format = intent.getStringExtra(RecorderFragment.EXTRA_FORMAT);
+			if(format == null)
+				format = FORMAT_ARFF;
+			mRolling = intent.getBooleanExtra(RecorderFragment.EXTRA_ROLLING, false);
+			mRate = intent.getIntExtra(RecorderFragment.EXTRA_SAMPLE_RATE, 0);
+			mSink = mRate > 0 ? new Decimator(this, mRate) : this;
 			
 			if(mFilename == null)
 			{
@@ -162,29 +195,36 @@ public class ARFFRecorderService extends Service implements SensorEventListener
 			if(!directory.exists())
 				directory.mkdir();
 			
-			// Create ARFF-file and write header and data
+			// Create the file and write the header, the data is written as it is recorded
 			final File file = new File(directory, mFilename);
+			mDate = DateFormat.format(DATE_FORMAT, new Date()).toString();
+			mRelation = System.currentTimeMillis();
+			mFormat = format;
+			mClassIndex = clazz - 1;
+			
+			// The first class is "none", the remaining ones are the values of the class attribute
+			mValues = null;
+			if(clazz != 0 && classes != null)
+			{
+				mValues = Arrays.copyOfRange(classes, 1, classes.length);
+				mClass = classes[clazz];
+			}
 			
 			try
 			{
-				mOutfile = new BufferedWriter(new FileWriter(file, false));
-				
-				// Write the file header
-				mOutfile.write("% Group: Feichtinger, Hager\n% Date: ");
-				mOutfile.write(DateFormat.format(DATE_FORMAT, new Date()).toString());
-				mOutfile.write(String.format(
-						(Locale)null, "\n\n@RELATION lazybird-%d\n\n", System.currentTimeMillis()));
-				
-				mOutfile.write(ATTRIBUTE_STRING);
-				
-				if(clazz != 0 && classes != null)
+				final SampleEncoder encoder;
+				if(mRolling)
 				{
-					mOutfile.write("@ATTRIBUTE class            ");
-					mOutfile.write(ARFFRecorderService.getClassesString(classes) + "\n");
-					mClass = classes[clazz];
+					// The segments are opened by the writer thread, the limit of values applies to each one
+					final long duration = intent.getLongExtra(RecorderFragment.EXTRA_SEGMENT_DURATION, 0);
+					final long size = intent.getLongExtra(RecorderFragment.EXTRA_SEGMENT_SIZE, 0);
+					final RecordingSession session = new RecordingSession(file, mRelation);
+					session.getSegmentDirectory().mkdir();
+					encoder = new SegmentedEncoder(new SegmentFactory(session), sMaxNumValues, size, duration);
 				}
-				
-				mOutfile.write("\n@DATA\n");
+				else
+					encoder = openEncoder(file, -1);
+				mWriter = new RecordingWriter(encoder);
 			}
 			catch(IOException e)
 			{
@@ -210,8 +250,8 @@ public class ARFFRecorderService extends Service implements SensorEventListener
 		stopForeground(true);
 		if(mWakelock != null)
 			mWakelock.release();
-		if(mSensorManager != null)
-			mSensorManager.unregisterListener(this);
+		if(mSensorHub != null)
+			mSensorHub.unsubscribe(mSink);
 		if(mWaitingTimer != null)
 			mWaitingTimer.stop();
 		
@@ -221,10 +261,11 @@ public class ARFFRecorderService extends Service implements SensorEventListener
 		
 		try
 		{
-			if(mOutfile != null)
+			// The writer writes the remaining values and closes the file
+			if(mWriter != null)
 			{
-				mOutfile.flush();
-				mOutfile.close();
+				mWriter.close();
+				Log.i(LOGTAG, "Writer: " + mWriter.getStatistics());
 			}
 		}
 		catch(IOException ex)
@@ -233,7 +274,7 @@ public class ARFFRecorderService extends Service implements SensorEventListener
 		}
 		finally
 		{
-			mOutfile = null;
+			mWriter = null;
 		}
 		
 		Toast.makeText(this, R.string.service_stopped, Toast.LENGTH_SHORT)
@@ -320,21 +361,91 @@ public class ARFFRecorderService extends Service implements SensorEventListener
 	}
 	
 	/**
-	 * Constructs a string representation of the specified array.
+	 * Creates the specified file and its index, writes the header and opens the encoder for the recording
+	 * format.
 	 * 
-	 * @param c the array to construct the array string from.
-	 * @return a representation of the array in the form of <code>{ c[0], c[1], ... }</code>.
+	 * @param file the file to record to.
+	 * @param segment the number of the segment of a rolling recording, or {@code -1}.
+	 * @return the encoder to write the samples to.
+	 * @exception IOException if an error occurred creating the file or writing the header.
 	 */
-	private static String getClassesString(String[] c)
+	SampleEncoder openEncoder(File file, int segment) throws IOException
 	{
-		if(c.length < 2)
-			throw new IllegalArgumentException("classes array has too few entries!");
+		// The index next to the file allows reading only part of the recording later
+		Closeable out = null;
+		TimeIndexWriter index = null;
+		try
+		{
+			index = new TimeIndexWriter(
+					new BufferedOutputStream(new FileOutputStream(TimeIndex.getFile(file), false)));
+			
+			if(mFormat.equals(FORMAT_ARFF))
+			{
+				final BufferedWriter writer = new BufferedWriter(new FileWriter(file, false));
+				out = writer;
+				final long header = ARFFRowEncoder.writeHeader(writer, mDate, mRelation, mValues, mRate);
+				final ARFFRowEncoder arff = new ARFFRowEncoder(writer, mClass);
+				arff.setIndex(index, header);
+				return arff;
+			}
+			else
+			{
+				final OutputStream stream = new BufferedOutputStream(new FileOutputStream(file, false));
+				out = stream;
+				final BinarySampleEncoder binary = new BinarySampleEncoder(stream, mValues, mClassIndex,
+						getProperties(segment), !mFormat.equals(FORMAT_BINARY_EXACT));
+				binary.setIndex(index);
+				return binary;
+			}
+		}
+		catch(IOException ex)
+		{
+			try
+			{
+				if(out != null)
+					out.close();
+				if(index != null)
+					index.close();
+			}
+			catch(IOException e)
+			{
+				e.printStackTrace();
+			}
+			throw ex;
+		}
+	}
+	
+	/**
+	 * Gets the properties stored in the header of a binary recording: the date and relation of the ARFF header,
+	 * so the recording can be exported to the same ARFF file, the session of a segment, the rate of decimated
+	 * samples and information about the sensor.
+	 * 
+	 * @param segment the number of the segment of a rolling recording, or {@code -1}.
+	 */
+	private LinkedHashMap<String, String> getProperties(int segment)
+	{
+		final LinkedHashMap<String, String> properties = new LinkedHashMap<String, String>();
+		properties.put(BinarySampleReader.PROPERTY_DATE, mDate);
+		properties.put(BinarySampleReader.PROPERTY_RELATION, Long.toString(mRelation));
+		if(segment >= 0)
+		{
+			properties.put(BinarySampleReader.PROPERTY_SESSION, Long.toString(mRelation));
+			properties.put(BinarySampleReader.PROPERTY_SEGMENT, Integer.toString(segment));
+		}
+		if(mRate > 0)
+			properties.put(BinarySampleReader.PROPERTY_RATE, Integer.toString(mRate));
 		
-		StringBuilder sb = (new StringBuilder()).append("{ ").append(c[1]);
-		for(int j = 2; j < c.length; j++)
-			sb.append(", " + c[j]);
+		final Sensor s = mSensorHub.getSensor();
+		if(s != null)
+		{
+			properties.put(BinarySampleReader.PROPERTY_SENSOR, s.getName());
+			properties.put(BinarySampleReader.PROPERTY_VENDOR, s.getVendor());
+			properties.put(BinarySampleReader.PROPERTY_RESOLUTION, Float.toString(s.getResolution()));
+			properties.put(BinarySampleReader.PROPERTY_RANGE, Float.toString(s.getMaximumRange()));
+			properties.put(BinarySampleReader.PROPERTY_MIN_DELAY, Integer.toString(s.getMinDelay()));
+		}
 		
-		return sb.append(" }").toString();
+		return properties;
 	}
 	
 	/**
@@ -357,6 +468,17 @@ public class ARFFRecorderService extends Service implements SensorEventListener
 		return mNumValues;
 	}
 	
+	/**
+	 * Gets the statistics of writing the values to the output file.
+	 * 
+	 * @return the current statistics, or {@code null} if the output file hasn't been opened.
+	 */
+	public RecordingWriter.Statistics getWriterStatistics()
+	{
+		final RecordingWriter writer = mWriter;
+		return writer != null ? writer.getStatistics() : null;
+	}
+	
 	/**
 	 * Gets the filename the data is written to.
 	 * 
@@ -476,13 +598,12 @@ public class ARFFRecorderService extends Service implements SensorEventListener
 	}
 	
 	/**
-	 * Registers the sensor listener, starts this service as foreground service and sends a broadcast
+	 * Subscribes to the {@link SensorHub}, starts this service as foreground service and sends a broadcast
 	 * informing of the start.
 	 */
 	void startRecording()
 	{
-		Sensor s = mSensorManager.getDefaultSensor(Sensor.TYPE_ACCELEROMETER);
-		mSensorManager.registerListener(this, s, SensorManager.SENSOR_DELAY_FASTEST);
+		mSensorHub.subscribe(mSink);
 		
 		mNotificationManager.cancel(NOTIFICATION_WAITING);
 		startForeground(NOTIFICATION_RECORDING, makeOngoingNotification());
@@ -492,48 +613,85 @@ public class ARFFRecorderService extends Service implements SensorEventListener
 		LocalBroadcastManager.getInstance(this).sendBroadcast(new Intent(RecorderFragment.BCAST_SERVICE_STARTED));
 	}
 	
+	/**
+	 * Called by the {@link SensorHub} or the {@link Decimator} on the main thread, passes the sample on to the
+	 * writer.
+	 */
 	@Override
-	public void onSensorChanged(SensorEvent event)
+	public void onSample(long time, float x, float y, float z)
 	{
-		final Long timestamp = event.timestamp / 1000000 + mTimeOffset;
 		mNumValues++;
 		
-		// shouldn't happen, since outfile is only closed in onDestroy
-		if(mOutfile == null)
+		// shouldn't happen, since the writer is only closed in onDestroy
+		if(mWriter == null)
 		{
-			mSensorManager.unregisterListener(this);
+			mSensorHub.unsubscribe(mSink);
 			stopSelf();
 		}
 		else
 		{
-			mLastValues = event.values;
+			// The array is only used on the main thread
+			if(mLastValues == null)
+				mLastValues = new float[3];
+			mLastValues[0] = x;
+			mLastValues[1] = y;
+			mLastValues[2] = z;
 			try
 			{
-				mOutfile.write(String.format((Locale)null, DATA_FORMAT, timestamp,
-						event.values[0], event.values[1], event.values[2]));
-				if(mClass != null)
-					mOutfile.write("," + mClass);
-				mOutfile.write("\n");
+				mWriter.add(time, x, y, z);
 			}
 			catch(IOException ex)
 			{
 				ex.printStackTrace();
-				mSensorManager.unregisterListener(this);
+				mSensorHub.unsubscribe(mSink);
 				stopSelf();
 			}
 		}
 		
-		if(mNumValues > sMaxNumValues)
+		// A rolling recording continues in the next segment instead
+		if(!mRolling && mNumValues > sMaxNumValues)
 		{
-			mSensorManager.unregisterListener(this);
+			mSensorHub.unsubscribe(mSink);
 			notifyLimit();
 			stopSelf();
 		}
 	}
 	
-	@Override
-	public void onAccuracyChanged(Sensor sensor, int accuracy)
+	/**
+	 * Opens the segments of a rolling recording and adds them to the session manifest. Called on the thread
+	 * of the {@link RecordingWriter}.
+	 * 
+	 * @author Peter
+	 */
+	private class SegmentFactory implements SegmentedEncoder.Factory
 	{
+		private final RecordingSession mSession;
+		private final String mExtension;
+		
+		public SegmentFactory(RecordingSession session)
+		{
+			mSession = session;
+			mExtension = mFormat.equals(FORMAT_ARFF) ? RecorderFragment.EXTENSION : BinarySampleEncoder.EXTENSION;
+		}
+		
+		@Override
+		public SampleEncoder openSegment(int segment) throws IOException
+		{
+			final File file = mSession.newSegment(mExtension);
+			final SampleEncoder encoder = openEncoder(file, segment);
+			try
+			{
+				mSession.addSegment(file);
+			}
+			catch(IOException ex)
+			{
+				encoder.close();
+				throw ex;
+			}
+			
+			if(LOCAL_LOGV) Log.v(LOGTAG, "Opened segment " + file);
+			return encoder;
+		}
 	}
 	
 	/**
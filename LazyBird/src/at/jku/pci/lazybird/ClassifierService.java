@@ -6,10 +6,6 @@ import android.app.PendingIntent;
 import android.app.Service;
 import android.content.Intent;
 import android.content.res.Resources;
-import android.hardware.Sensor;
-import android.hardware.SensorEvent;
-import android.hardware.SensorEventListener;
-import android.hardware.SensorManager;
 import android.os.Environment;
 import android.os.Handler;
 import android.os.IBinder;
@@ -19,33 +15,41 @@ import android.speech.tts.TextToSpeech;
 import android.support.v4.content.LocalBroadcastManager;
 import android.util.Log;
 import android.widget.Toast;
+import at.jku.pci.lazybird.classifiers.ActivitySmoother;
+import at.jku.pci.lazybird.classifiers.ClassificationPipeline;
+import at.jku.pci.lazybird.classifiers.ClassificationPipeline.PipelineListener;
+import at.jku.pci.lazybird.classifiers.CompiledClassifier;
+import at.jku.pci.lazybird.classifiers.DetectionLatency;
+import at.jku.pci.lazybird.classifiers.SmoothingMethod;
+import at.jku.pci.lazybird.features.AdaptiveScheduler;
+import at.jku.pci.lazybird.features.Decimator;
 import at.jku.pci.lazybird.features.Feature;
-import at.jku.pci.lazybird.features.FeatureExtractor;
+import at.jku.pci.lazybird.features.SampleQueue;
+import at.jku.pci.lazybird.features.SampleQueue.OverflowPolicy;
+import at.jku.pci.lazybird.features.SampleSink;
 import at.jku.pci.lazybird.features.SlidingWindow;
 import at.jku.pci.lazybird.features.SlidingWindow.WindowListener;
-import at.jku.pci.lazybird.features.TimeInstance;
 import at.jku.pci.lazybird.features.UserActivities;
+import at.jku.pci.lazybird.util.PipelineMetrics;
 import at.jku.pervasive.sd12.actclient.ClassLabel;
 import at.jku.pervasive.sd12.actclient.CoordinatorClient;
 import at.jku.pervasive.sd12.actclient.CoordinatorClient.UserState;
 import at.jku.pervasive.sd12.actclient.GroupStateListener;
 import weka.classifiers.Classifier;
-import weka.core.Attribute;
-import weka.core.FastVector;
-import weka.core.Instance;
 import weka.core.Instances;
 import java.io.BufferedWriter;
 import java.io.File;
 import java.io.FileWriter;
 import java.io.IOException;
 import java.text.SimpleDateFormat;
+import java.util.Arrays;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Locale;
+import java.util.concurrent.atomic.AtomicInteger;
 
-public class ClassifierService extends Service implements SensorEventListener,
-		WindowListener<TimeInstance>, GroupStateListener
+public class ClassifierService extends Service implements SampleSink, PipelineListener, GroupStateListener
 {
 	private static ClassifierService sInstance = null;
 	
@@ -81,9 +85,24 @@ public class ClassifierService extends Service implements SensorEventListener,
 	 * The jump size of the {@link SlidingWindow} for the user activities.
 	 */
 	public static final int ACTIVITY_JUMP_SIZE = 5000;
+	/**
+	 * The capacity of the queue between the sensor callback and the processing thread, enough for a few
+	 * seconds at the fastest sensor rate of most devices.
+	 */
+	public static final int SAMPLE_QUEUE_CAPACITY = 1024;
+	/**
+	 * What to do when the processing thread falls behind and the sample queue is full. Old samples are
+	 * dropped, so the window stays current.
+	 */
+	public static final OverflowPolicy SAMPLE_QUEUE_POLICY = OverflowPolicy.DROP_OLDEST;
+	/**
+	 * The interval of the {@link ReportFragment#BCAST_METRICS} broadcast in milliseconds.
+	 */
+	public static final int METRICS_INTERVAL = 1000;
 	// Extras
 	public static final String EXTRA_ACTIVITY_NAME = "at.jku.pci.lazybird.ACTIVITY_NAME";
 	public static final String EXTRA_LOG_ENTRY = "at.jku.pci.lazybird.LOG_ENTRY";
+	public static final String EXTRA_METRICS = "at.jku.pci.lazybird.METRICS";
 	
 	/**
 	 * UID for the ongoing notification.
@@ -99,7 +118,9 @@ public class ClassifierService extends Service implements SensorEventListener,
 	
 	// Manage
 	private NotificationManager mNotificationManager;
-	private SensorManager mSensorManager;
+	private SensorHub mSensorHub;
+	// Samples from the sensor hub go through the decimator, if any
+	private SampleSink mSink;
 	private LocalBroadcastManager mBrodcastManager;
 	private PendingIntent mNotificationIntent;
 	private SimpleDateFormat mDateFormat;
@@ -130,15 +151,26 @@ public class ClassifierService extends Service implements SensorEventListener,
 			mHandler.postDelayed(this, 2000);
 		}
 	};
+	private Runnable mRunBroadcastMetrics = new Runnable() {
+		@Override
+		public void run()
+		{
+			mBrodcastManager.sendBroadcast(new Intent(ReportFragment.BCAST_METRICS)
+				.putExtra(EXTRA_METRICS, getMetrics()));
+			mHandler.postDelayed(this, METRICS_INTERVAL);
+		}
+	};
 	// State
 	private WakeLock mWakelock = null;
-	private int mLastActivity = -1;
-	private int mNewCount = 0;
-	private int mNewActivity = -2;
 	private Classifier mClassifier;
 	private Instances mHeader;
 	private int mFeatures;
-	private SlidingWindow<TimeInstance> mSlidingWindow;
+	// Only used by the processing thread, except for the statistics
+	private ClassificationPipeline mPipeline;
+	private SampleQueue mSampleQueue;
+	private ProcessingThread mProcessingThread = null;
+	// Activity changes posted to the main thread but not reported yet
+	private final AtomicInteger mPendingReports = new AtomicInteger();
 	private SlidingWindow<UserActivities> mUserSlidingWindow;
 	private HashSet<String> mUsersOnline;
 	private Date mStartTime;
@@ -151,7 +183,7 @@ public class ClassifierService extends Service implements SensorEventListener,
 		if(LOCAL_LOGV) Log.v(LOGTAG, "Service created: " + this);
 		
 		mNotificationManager = (NotificationManager)getSystemService(NOTIFICATION_SERVICE);
-		mSensorManager = (SensorManager)getSystemService(SENSOR_SERVICE);
+		mSensorHub = SensorHub.getInstance(this);
 		mBrodcastManager = LocalBroadcastManager.getInstance(this);
 		mDateFormat = new SimpleDateFormat(LOG_FORMAT, Locale.US);
 		sRunning = false;
@@ -193,11 +225,40 @@ public class ClassifierService extends Service implements SensorEventListener,
 			
 			// get information from the intent
 			mClassifier = (Classifier)intent.getSerializableExtra(ReportFragment.EXTRA_CLASSIFIER);
+			final CompiledClassifier compiled =
+					(CompiledClassifier)intent.getSerializableExtra(ReportFragment.EXTRA_COMPILED);
 			mFeatures = intent.getIntExtra(ReportFragment.EXTRA_FEATURES, 0x21);
 			mHeader = buildHeader(mFeatures);
 			int windowSize = intent.getIntExtra(ReportFragment.EXTRA_WINDOW, 1000);
 			int jumpSize = intent.getIntExtra(ReportFragment.EXTRA_JUMP, 100);
-			mSlidingWindow = new SlidingWindow<TimeInstance>(windowSize, jumpSize, this);
+			mSampleQueue = new SampleQueue(SAMPLE_QUEUE_CAPACITY, SAMPLE_QUEUE_POLICY);
+			final int rate = intent.getIntExtra(ReportFragment.EXTRA_SAMPLE_RATE, 0);
+			mSink = rate > 0 ? new Decimator(this, rate) : this;
+			AdaptiveScheduler scheduler = null;
+			if(intent.getBooleanExtra(ReportFragment.EXTRA_ADAPTIVE, false))
+			{
+				final int minInterval = intent.getIntExtra(ReportFragment.EXTRA_ADAPTIVE_MIN_INTERVAL, 0);
+				final int maxInterval = intent.getIntExtra(ReportFragment.EXTRA_ADAPTIVE_MAX_INTERVAL, 5000);
+				final double threshold = intent.getDoubleExtra(ReportFragment.EXTRA_ADAPTIVE_THRESHOLD, 0.05);
+				scheduler = new AdaptiveScheduler(minInterval, Math.max(minInterval, maxInterval), threshold);
+			}
+			SmoothingMethod smoothing = SmoothingMethod.HYSTERESIS;
+			final String smoothingName = intent.getStringExtra(ReportFragment.EXTRA_SMOOTHING);
+			if(smoothingName != null)
+			{
+				try
+				{
+					smoothing = SmoothingMethod.valueOf(smoothingName);
+				}
+				catch(IllegalArgumentException ex)
+				{
+					Log.w(LOGTAG, "Unknown smoothing method: " + smoothingName);
+				}
+			}
+			final int smoothingWindows = intent.getIntExtra(ReportFragment.EXTRA_SMOOTHING_WINDOWS, 14);
+			final ActivitySmoother smoother = smoothing.create(mHeader.numClasses(), Math.max(1, smoothingWindows));
+			mPipeline = new ClassificationPipeline(mClassifier, compiled, mHeader, mFeatures, windowSize, jumpSize,
+					smoother, scheduler, this);
 			mTextToSpeech = intent.getBooleanExtra(ReportFragment.EXTRA_TTS, false);
 			mWriteToFile = intent.getBooleanExtra(ReportFragment.EXTRA_LOG, false);
 			mReport = intent.getBooleanExtra(ReportFragment.EXTRA_REPORT, false);
@@ -253,9 +314,11 @@ public class ClassifierService extends Service implements SensorEventListener,
 		stopForeground(true);
 		if(mWakelock != null)
 			mWakelock.release();
-		if(mSensorManager != null)
-			mSensorManager.unregisterListener(this);
+		if(mSensorHub != null)
+			mSensorHub.unsubscribe(mSink);
+		stopProcessing();
 		mHandler.removeCallbacks(mRunReportActivity);
+		mHandler.removeCallbacks(mRunBroadcastMetrics);
 		
 		try
 		{
@@ -310,21 +373,9 @@ public class ClassifierService extends Service implements SensorEventListener,
 	 */
 	private Instances buildHeader(int flags)
 	{
-		final Feature[] features = Feature.getFeatures(flags);
 		final String[] classes = getResources().getStringArray(R.array.classes);
-		final FastVector attributes = new FastVector(features.length + 1);
-		final FastVector values = new FastVector(classes.length);
-		
-		for(Feature f : features)
-			attributes.addElement(new Attribute(f.getName()));
-		for(int j = 1; j < classes.length; j++)
-			values.addElement(classes[j]);
-		attributes.addElement(new Attribute("class", values));
-		
-		final Instances out = new Instances("header", attributes, 2);
-		out.setClassIndex(out.numAttributes() - 1);
-		
-		return out;
+		// The first entry is no class
+		return ClassificationPipeline.buildHeader(flags, Arrays.copyOfRange(classes, 1, classes.length));
 	}
 	
 	/**
@@ -448,9 +499,9 @@ public class ClassifierService extends Service implements SensorEventListener,
 	 */
 	public String getLastActivity()
 	{
-		if(mLastActivity < 0)
+		if(mPipeline == null || mPipeline.getActivity() < 0)
 			return null;
-		return mHeader.classAttribute().value(mLastActivity);
+		return mHeader.classAttribute().value(mPipeline.getActivity());
 	}
 	
 	/**
@@ -677,6 +728,45 @@ public class ClassifierService extends Service implements SensorEventListener,
 		return mFeatures;
 	}
 	
+	/**
+	 * Gets the number of sensor samples dropped because the processing thread could not keep up.
+	 */
+	public long getDroppedSamples()
+	{
+		return mSampleQueue != null ? mSampleQueue.getDropped() : 0;
+	}
+	
+	/**
+	 * Gets the number of windows that were not classified because the signal was stable.
+	 */
+	public long getSkippedWindows()
+	{
+		if(mPipeline == null || mPipeline.getScheduler() == null)
+			return 0;
+		return mPipeline.getScheduler().getSkipped();
+	}
+	
+	/**
+	 * Gets a snapshot of the performance of the classification pipeline.
+	 * 
+	 * @return the current metrics, or {@code null} if the service hasn't been started.
+	 */
+	public PipelineMetrics.Snapshot getMetrics()
+	{
+		if(mPipeline == null)
+			return null;
+		return mPipeline.getMetrics().getSnapshot(mSampleQueue.getDropped(), mSampleQueue.size(),
+				mPendingReports.get());
+	}
+	
+	/**
+	 * Gets the detection latency of activity changes, or {@code null} if the service hasn't been started.
+	 */
+	public DetectionLatency getDetectionLatency()
+	{
+		return mPipeline != null ? mPipeline.getDetectionLatency() : null;
+	}
+	
 	/**
 	 * Gets the start time of the service.
 	 * 
@@ -754,19 +844,52 @@ public class ClassifierService extends Service implements SensorEventListener,
 	}
 	
 	/**
-	 * Registers the sensor listener, starts this service as foreground service and sends a broadcast
-	 * informing of the start.
+	 * Starts the processing thread, subscribes to the {@link SensorHub}, starts this service as foreground
+	 * service and sends a broadcast informing of the start.
 	 */
 	private void startReporting()
 	{
-		Sensor s = mSensorManager.getDefaultSensor(Sensor.TYPE_ACCELEROMETER);
-		mSensorManager.registerListener(this, s, SensorManager.SENSOR_DELAY_FASTEST);
+		mProcessingThread = new ProcessingThread();
+		mProcessingThread.start();
+		
+		mSensorHub.subscribe(mSink);
 		
 		startForeground(NOTIFICATION_REPORTING, makeOngoingNotification());
 		if(mWakelock != null)
 			mWakelock.acquire();
 		
 		mBrodcastManager.sendBroadcast(new Intent(ReportFragment.BCAST_SERVICE_STARTED));
+		mHandler.postDelayed(mRunBroadcastMetrics, METRICS_INTERVAL);
+	}
+	
+	/**
+	 * Stops the processing thread and waits for it to finish, so no more windows are classified.
+	 */
+	private void stopProcessing()
+	{
+		if(mProcessingThread == null)
+			return;
+		
+		mProcessingThread.interrupt();
+		try
+		{
+			mProcessingThread.join();
+		}
+		catch(InterruptedException ex)
+		{
+			// Nothing is left to be done anyway
+		}
+		mProcessingThread = null;
+		
+		if(mSampleQueue.getDropped() > 0)
+			Log.i(LOGTAG, "Dropped samples: " + mSampleQueue.getDropped());
+		final AdaptiveScheduler scheduler = mPipeline.getScheduler();
+		if(scheduler != null)
+			Log.i(LOGTAG, "Classified windows: " + scheduler.getClassified() + ", skipped: " +
+					scheduler.getSkipped());
+		if(mPipeline.getDetectionLatency().getCount() > 0)
+			Log.i(LOGTAG, "Detection latency: " + mPipeline.getDetectionLatency());
+		Log.i(LOGTAG, "Pipeline metrics: " + getMetrics());
 	}
 	
 	/**
@@ -825,16 +948,14 @@ public class ClassifierService extends Service implements SensorEventListener,
 	}
 	
 	/**
-	 * Outputs the specified activity on all enabled channels.
+	 * Outputs the specified activity on all enabled channels. This has to be called on the main thread.
 	 * 
 	 * @param newActivity the index of the new activity in the {@code class} attribute of {@link #mHeader},
 	 *        see {@link #buildHeader(int)}.
 	 */
 	private void onActivityChanged(int newActivity)
 	{
-		mLastActivity = newActivity;
-		
-		final String activity = getLastActivity();
+		final String activity = mHeader.classAttribute().value(newActivity);
 		mBrodcastManager.sendBroadcast(new Intent(ReportFragment.BCAST_NEW_ACTIVITY)
 			.putExtra(EXTRA_ACTIVITY_NAME, activity));
 		
@@ -845,63 +966,39 @@ public class ClassifierService extends Service implements SensorEventListener,
 		reportActivity(activity);
 	}
 	
+	/**
+	 * Called by the {@link SensorHub} or the {@link Decimator} on the main thread, queues the sample for the
+	 * processing thread.
+	 */
 	@Override
-	public void onSensorChanged(SensorEvent event)
+	public void onSample(long time, float x, float y, float z)
 	{
-		// Add the new data to the sliding window
-		TimeInstance i = new TimeInstance(4, System.currentTimeMillis());
-		for(int j = 0; j < 3; j++)
-			i.setValue(j + 1, event.values[j]);
-		mSlidingWindow.add(i);
+		// Only queue the sample for the processing thread, this doesn't allocate anything
+		mPipeline.getMetrics().addSample();
+		mSampleQueue.offer(time, x, y, z);
 	}
 	
+	/**
+	 * Called on the processing thread when the smoothed activity changes, posts the change to the main thread.
+	 */
 	@Override
-	public void onAccuracyChanged(Sensor sensor, int accuracy)
+	public void onActivityChanged(final int activity, long time)
 	{
-		
+		mPendingReports.incrementAndGet();
+		mHandler.post(new Runnable() {
+			@Override
+			public void run()
+			{
+				mPendingReports.decrementAndGet();
+				onActivityChanged(activity);
+			}
+		});
 	}
 	
 	@Override
-	public void onWindowChanged(Iterable<TimeInstance> window)
+	public void onClassificationFailed(Exception ex)
 	{
-		// Extract features and save to a new instance with the right attributes
-		Instance i = FeatureExtractor.extractFeatures(window, mFeatures);
-		Instance add = new Instance(mHeader.numAttributes());
-		for(int j = 1; j < i.numValues(); j++)
-			add.setValue(j - 1, i.value(j));
-		mHeader.delete();
-		mHeader.add(add);
-		add.setDataset(mHeader);
-		
-		try
-		{
-			// Attempt to classify the instance, do nothing if classification fails
-			double tmp = mClassifier.classifyInstance(add);
-			if(tmp == Instance.missingValue())
-				throw new Exception("not classified.");
-			
-			// Require a few equal classifications to change activity
-			int clazz = (int)tmp;
-			if(mLastActivity != clazz)
-			{
-				if(mNewActivity == clazz)
-				{
-					if(++mNewCount > 13)
-						onActivityChanged(clazz);
-				}
-				else
-				{
-					mNewActivity = clazz;
-					mNewCount = 0;
-				}
-			}
-			else
-				mNewCount = 0;
-		}
-		catch(Exception ex)
-		{
-			Log.i(LOGTAG, "Classification failed: " + ex.getMessage());
-		}
+		Log.i(LOGTAG, "Classification failed: " + ex.getMessage());
 	}
 	
 	@Override
@@ -930,4 +1027,36 @@ public class ClassifierService extends Service implements SensorEventListener,
 	{
 		
 	}
+	
+	/**
+	 * Takes samples from the sample queue and adds them to the sliding window until interrupted, so feature
+	 * extraction and classification don't block the main thread and the sensor callback.
+	 * 
+	 * @author Peter
+	 */
+	private class ProcessingThread extends Thread
+	{
+		public ProcessingThread()
+		{
+			super("ClassifierService processing");
+		}
+		
+		@Override
+		public void run()
+		{
+			try
+			{
+				while(!isInterrupted())
+				{
+					mSampleQueue.take();
+					mPipeline.add(mSampleQueue.getTime(), mSampleQueue.getX(), mSampleQueue.getY(),
+							mSampleQueue.getZ());
+				}
+			}
+			catch(InterruptedException ex)
+			{
+				// Stopped
+			}
+		}
+	}
 }
@@ -30,7 +30,11 @@ import android.widget.SpinnerAdapter;
 import android.widget.Switch;
 import android.widget.TextView;
 import android.widget.Toast;
+import at.jku.pci.lazybird.features.BinarySampleEncoder;
+import at.jku.pci.lazybird.features.RecordingSession;
+import at.jku.pci.lazybird.util.RecordingWriter;
 import java.io.File;
+import java.io.IOException;
 import java.util.Date;
 import java.util.Locale;
 
@@ -42,6 +46,11 @@ public class RecorderFragment extends AbstractTabFragment
 	public static final String EXTRA_CLASSES = "at.jku.pci.lazybird.CLASSES";
 	public static final String EXTRA_DIRNAME = "at.jku.pci.lazybird.DIRNAME";
 	public static final String EXTRA_WAKELOCK = "at.jku.pci.lazybird.WAKELOCK";
+	public static final String EXTRA_FORMAT = "at.jku.pci.lazybird.FORMAT";
+	public static final String EXTRA_ROLLING = "at.jku.pci.lazybird.ROLLING";
+	public static final String EXTRA_SEGMENT_DURATION = "at.jku.pci.lazybird.SEGMENT_DURATION";
+	public static final String EXTRA_SEGMENT_SIZE = "at.jku.pci.lazybird.SEGMENT_SIZE";
+	public static final String EXTRA_SAMPLE_RATE = "at.jku.pci.lazybird.SAMPLE_RATE";
 	// Intents
 	public static final String BCAST_SERVICE_STOPPED = "at.jku.pci.lazybird.REC_SERVICE_STOPPED";
 	public static final String BCAST_SERVICE_STARTED = "at.jku.pci.lazybird.REC_SERVICE_STARTED";
@@ -82,6 +91,26 @@ public class RecorderFragment extends AbstractTabFragment
 	 * Setting: {@link SettingsActivity#KEY_USE_WAKELOCK}
 	 */
 	static boolean sWakelock;
+	/**
+	 * Setting: {@link SettingsActivity#KEY_RECORDING_FORMAT}
+	 */
+	static String sFormat;
+	/**
+	 * Setting: {@link SettingsActivity#KEY_ROLLING_RECORDING}
+	 */
+	static boolean sRolling;
+	/**
+	 * Setting: {@link SettingsActivity#KEY_SEGMENT_DURATION}, in ms.
+	 */
+	static long sSegmentDuration;
+	/**
+	 * Setting: {@link SettingsActivity#KEY_SEGMENT_SIZE}, in bytes.
+	 */
+	static long sSegmentSize;
+	/**
+	 * Setting: {@link SettingsActivity#KEY_SAMPLE_RATE}
+	 */
+	static int sSampleRate;
 	
 	private SharedPreferences mPrefs;
 	
@@ -95,10 +124,12 @@ public class RecorderFragment extends AbstractTabFragment
 	private TextView mTxtLastValues;
 	private TextView mTxtNumValues;
 	private TextView mTxtValsPerScond;
+	private TextView mTxtWriter;
 	private TextView mLabelStartTime;
 	private TextView mLabelNumValues;
 	private TextView mLabelLastValues;
 	private TextView mLabelValsPerSecond;
+	private TextView mLabelWriter;
 	private ImageButton mBtnDelete;
 	
 	// Fields
@@ -222,12 +253,14 @@ public class RecorderFragment extends AbstractTabFragment
 		mTxtLastValues = (TextView)v.findViewById(R.id.txtLastValues);
 		mTxtNumValues = (TextView)v.findViewById(R.id.txtNumValues);
 		mTxtValsPerScond = (TextView)v.findViewById(R.id.txtValsPerSecond);
+		mTxtWriter = (TextView)v.findViewById(R.id.txtWriter);
 		mTextColor = mTxtNumValues.getTextColors().getDefaultColor();
 		
 		mLabelNumValues = (TextView)v.findViewById(R.id.labelNumValues);
 		mLabelLastValues = (TextView)v.findViewById(R.id.labelLastValues);
 		mLabelStartTime = (TextView)v.findViewById(R.id.labelStartTime);
 		mLabelValsPerSecond = (TextView)v.findViewById(R.id.labelValsPerSecond);
+		mLabelWriter = (TextView)v.findViewById(R.id.labelWriter);
 	}
 	
 	@Override
@@ -242,6 +275,7 @@ public class RecorderFragment extends AbstractTabFragment
 		mTxtLastValues.setTextColor(mDisabledColor);
 		mTxtStartTime.setTextColor(mDisabledColor);
 		mTxtValsPerScond.setTextColor(mDisabledColor);
+		mTxtWriter.setTextColor(mDisabledColor);
 	}
 	
 	@Override
@@ -290,6 +324,13 @@ public class RecorderFragment extends AbstractTabFragment
 			if(runtime > 0)
 				mTxtValsPerScond.setText(String.valueOf(mService.getNumValues() / runtime));
 		}
+		
+		final RecordingWriter.Statistics s = mService.getWriterStatistics();
+		if(s != null)
+		{
+			mTxtWriter.setText(getString(R.string.txtWriter, s.getBytesPerSecond() / 1000, s.mPending,
+					s.mHighWater, s.mFlush.mMedian / 1000, s.mFlush.mPercentile95 / 1000, s.mDropped));
+		}
 	}
 	
 	/**
@@ -304,6 +345,7 @@ public class RecorderFragment extends AbstractTabFragment
 	{
 		sOutputDir = mPrefs.getString(SettingsActivity.KEY_OUTPUT_DIR, "");
 		sWakelock = mPrefs.getBoolean(SettingsActivity.KEY_USE_WAKELOCK, false);
+		sFormat = mPrefs.getString(SettingsActivity.KEY_RECORDING_FORMAT, ARFFRecorderService.FORMAT_ARFF);
 		ARFFRecorderService.setStartDelay(mPrefs.getInt(SettingsActivity.KEY_START_DELAY, 0));
 		try
 		{
@@ -331,6 +373,32 @@ public class RecorderFragment extends AbstractTabFragment
 			mPrefs.edit().putString(SettingsActivity.KEY_MAX_NUM_VALUES, "10000").apply();
 			ARFFRecorderService.setMaxNumValues(10000);
 		}
+		sRolling = mPrefs.getBoolean(SettingsActivity.KEY_ROLLING_RECORDING, false);
+		try
+		{
+			sSampleRate = Integer.parseInt(mPrefs.getString(SettingsActivity.KEY_SAMPLE_RATE, "0"));
+		}
+		catch(NumberFormatException ex)
+		{
+			sSampleRate = 0;
+		}
+		try
+		{
+			String s = mPrefs.getString(SettingsActivity.KEY_SEGMENT_DURATION, "900");
+			sSegmentDuration = Long.parseLong(s) * 1000;
+			s = mPrefs.getString(SettingsActivity.KEY_SEGMENT_SIZE, "0");
+			sSegmentSize = Long.parseLong(s) * 1024 * 1024;
+		}
+		catch(NumberFormatException ex)
+		{
+			// Should not happen, clean it up anyway
+			Log.e(LOGTAG, "Segment settings are screwed up: " + ex);
+			displayWarning(R.string.error, R.string.error_generic, "Parse segment settings");
+			mPrefs.edit().putString(SettingsActivity.KEY_SEGMENT_DURATION, "900")
+				.putString(SettingsActivity.KEY_SEGMENT_SIZE, "0").apply();
+			sSegmentDuration = 900 * 1000;
+			sSegmentSize = 0;
+		}
 	}
 	
 	/**
@@ -353,10 +421,12 @@ public class RecorderFragment extends AbstractTabFragment
 		mLabelStartTime.setTextColor(color);
 		mLabelLastValues.setTextColor(color);
 		mLabelValsPerSecond.setTextColor(color);
+		mLabelWriter.setTextColor(color);
 		mTxtNumValues.setTextColor(color);
 		mTxtStartTime.setTextColor(color);
 		mTxtLastValues.setTextColor(color);
 		mTxtValsPerScond.setTextColor(color);
+		mTxtWriter.setTextColor(color);
 		
 		if(running)
 		{
@@ -368,6 +438,7 @@ public class RecorderFragment extends AbstractTabFragment
 			mTxtLastValues.setText(R.string.nothing);
 			mTxtStartTime.setText(R.string.nothing);
 			mTxtValsPerScond.setText(R.string.nothing);
+			mTxtWriter.setText(R.string.nothing);
 		}
 	}
 	
@@ -383,6 +454,19 @@ public class RecorderFragment extends AbstractTabFragment
 		}
 	}
 	
+	/**
+	 * Removes the extension of a recording or session manifest from the specified filename, if any.
+	 */
+	private static String stripExtension(String filename)
+	{
+		for(String e : new String[] { EXTENSION, BinarySampleEncoder.EXTENSION, RecordingSession.EXTENSION })
+		{
+			if(filename.endsWith(e))
+				return filename.substring(0, filename.length() - e.length());
+		}
+		return filename;
+	}
+	
 	private OnClickListener onBtnDeleteClick = new OnClickListener() {
 		@Override
 		public void onClick(View v)
@@ -394,10 +478,24 @@ public class RecorderFragment extends AbstractTabFragment
 			
 			final File f = new File(new File(Environment.getExternalStorageDirectory(), sOutputDir), filename);
 			int text;
-			if(f.isFile())
-				text = (f.delete() ? R.string.fileDeleted : R.string.fileNotDeleted);
-			else
+			if(!f.isFile())
 				text = R.string.fileNotFound;
+			else if(RecordingSession.isSession(f))
+			{
+				// Delete the segments along with the manifest
+				boolean deleted;
+				try
+				{
+					deleted = RecordingSession.read(f).delete();
+				}
+				catch(IOException ex)
+				{
+					deleted = f.delete();
+				}
+				text = (deleted ? R.string.fileDeleted : R.string.fileNotDeleted);
+			}
+			else
+				text = (f.delete() ? R.string.fileDeleted : R.string.fileNotDeleted);
 			Toast.makeText(getActivity(), text, Toast.LENGTH_SHORT)
 				.show();
 		}
@@ -455,10 +553,30 @@ public class RecorderFragment extends AbstractTabFragment
 			else
 			{
 				updateSettings();
+				
+				// Binary recordings get their own extension, rolling recordings are named after the manifest
+				final String extension;
+				if(sRolling)
+					extension = RecordingSession.EXTENSION;
+				else if(!sFormat.equals(ARFFRecorderService.FORMAT_ARFF))
+					extension = BinarySampleEncoder.EXTENSION;
+				else
+					extension = EXTENSION;
+				if(!filename.endsWith(extension))
+				{
+					filename = stripExtension(filename) + extension;
+					mTxtFilename.setText(filename);
+				}
+				
 				Intent i = new Intent(ARFFRecorderService.ARFF_SERVICE);
 				i.putExtra(EXTRA_FILENAME, filename);
 				i.putExtra(EXTRA_DIRNAME, sOutputDir);
 				i.putExtra(EXTRA_WAKELOCK, sWakelock);
+				i.putExtra(EXTRA_FORMAT, sFormat);
+				i.putExtra(EXTRA_ROLLING, sRolling);
+				i.putExtra(EXTRA_SEGMENT_DURATION, sSegmentDuration);
+				i.putExtra(EXTRA_SEGMENT_SIZE, sSegmentSize);
+				i.putExtra(EXTRA_SAMPLE_RATE, sSampleRate);
 				
 				// TODO make classes customizable
 				i.putExtra(EXTRA_CLASSES, getResources().getStringArray(R.array.classes));
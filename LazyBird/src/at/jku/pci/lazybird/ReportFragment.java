@@ -22,7 +22,11 @@ import android.widget.ProgressBar;
 import android.widget.Switch;
 import android.widget.TextView;
 import android.widget.Toast;
+import at.jku.pci.lazybird.classifiers.ClassifierCompiler;
+import at.jku.pci.lazybird.classifiers.CompiledClassifier;
+import at.jku.pci.lazybird.classifiers.SmoothingMethod;
 import at.jku.pci.lazybird.util.LogListAdapter;
+import at.jku.pci.lazybird.util.PipelineMetrics;
 import at.jku.pci.lazybird.util.Storage;
 import weka.classifiers.Classifier;
 import java.io.FileNotFoundException;
@@ -35,6 +39,7 @@ public class ReportFragment extends AbstractTabFragment
 {
 	// Extras
 	public static final String EXTRA_CLASSIFIER = "at.jku.pci.lazybird.CLASSIFIER";
+	public static final String EXTRA_COMPILED = "at.jku.pci.lazybird.COMPILED";
 	public static final String EXTRA_WINDOW = "at.jku.pci.lazybird.WINDOW";
 	public static final String EXTRA_JUMP = "at.jku.pci.lazybird.JUMP";
 	public static final String EXTRA_FEATURES = "at.jku.pci.lazybird.FEATURES";
@@ -49,11 +54,19 @@ public class ReportFragment extends AbstractTabFragment
 	public static final String EXTRA_REPORT_SERVER = "at.jku.pci.lazybird.REPORT_SERVER";
 	public static final String EXTRA_REPORT_USER = "at.jku.pci.lazybird.REPORT_USER";
 	public static final String EXTRA_WAKELOCK = "at.jku.pci.lazybird.WAKELOCK";
+	public static final String EXTRA_ADAPTIVE = "at.jku.pci.lazybird.ADAPTIVE";
+	public static final String EXTRA_ADAPTIVE_MIN_INTERVAL = "at.jku.pci.lazybird.ADAPTIVE_MIN_INTERVAL";
+	public static final String EXTRA_ADAPTIVE_MAX_INTERVAL = "at.jku.pci.lazybird.ADAPTIVE_MAX_INTERVAL";
+	public static final String EXTRA_ADAPTIVE_THRESHOLD = "at.jku.pci.lazybird.ADAPTIVE_THRESHOLD";
+	public static final String EXTRA_SMOOTHING = "at.jku.pci.lazybird.SMOOTHING";
+	public static final String EXTRA_SMOOTHING_WINDOWS = "at.jku.pci.lazybird.SMOOTHING_WINDOWS";
+	public static final String EXTRA_SAMPLE_RATE = "at.jku.pci.lazybird.SAMPLE_RATE";
 	// Intents
 	public static final String BCAST_SERVICE_STOPPED = "at.jku.pci.lazybird.REP_SERVICE_STOPPED";
 	public static final String BCAST_SERVICE_STARTED = "at.jku.pci.lazybird.REP_SERVICE_STARTED";
 	public static final String BCAST_NEW_ACTIVITY = "at.jku.pci.lazybird.REP_NEW_ACTIVITY";
 	public static final String BCAST_NEW_CLASSIFIER = "at.jku.pci.lazybird.NEW_CLASSIFIER";
+	public static final String BCAST_METRICS = "at.jku.pci.lazybird.REP_METRICS";
 	// Constants
 	static final String LOGTAG = "ReportFragment";
 	static final boolean LOCAL_LOGV = true;
@@ -113,6 +126,38 @@ public class ReportFragment extends AbstractTabFragment
 	 * Setting: {@link SettingsActivity#KEY_USE_WAKELOCK}
 	 */
 	static boolean sWakelock;
+	/**
+	 * Setting: {@link SettingsActivity#KEY_USE_COMPILED}
+	 */
+	static boolean sUseCompiled;
+	/**
+	 * Setting: {@link SettingsActivity#KEY_ADAPTIVE_RATE}
+	 */
+	static boolean sAdaptiveRate;
+	/**
+	 * Setting: {@link SettingsActivity#KEY_ADAPTIVE_MIN_INTERVAL}, in milliseconds
+	 */
+	static int sAdaptiveMinInterval;
+	/**
+	 * Setting: {@link SettingsActivity#KEY_ADAPTIVE_MAX_INTERVAL}, in milliseconds
+	 */
+	static int sAdaptiveMaxInterval;
+	/**
+	 * Setting: {@link SettingsActivity#KEY_ADAPTIVE_THRESHOLD}
+	 */
+	static double sAdaptiveThreshold;
+	/**
+	 * Setting: {@link SettingsActivity#KEY_SMOOTHING}
+	 */
+	static String sSmoothing;
+	/**
+	 * Setting: {@link SettingsActivity#KEY_SMOOTHING_WINDOWS}
+	 */
+	static int sSmoothingWindows;
+	/**
+	 * Setting: {@link SettingsActivity#KEY_SAMPLE_RATE}
+	 */
+	static int sSampleRate;
 	
 	private SharedPreferences mPrefs;
 	SharedPreferences mPrefsClassifier;
@@ -123,10 +168,12 @@ public class ReportFragment extends AbstractTabFragment
 	ProgressBar mProgressSerialize;
 	private CheckBox mChkTts;
 	private CheckBox mChkReport;
+	private TextView mTxtMetrics;
 	private ListView mListLog;
 	
 	// Fields
 	Classifier mClassifier = null;
+	CompiledClassifier mCompiled = null;
 	private LogListAdapter mLogAdapter;
 	// Handlers
 	ClassifierService mService = null;
@@ -146,6 +193,8 @@ public class ReportFragment extends AbstractTabFragment
 				onNewActivity(intent);
 			else if(intent.getAction().equals(BCAST_NEW_CLASSIFIER))
 				checkForClassifier();
+			else if(intent.getAction().equals(BCAST_METRICS))
+				onMetrics(intent);
 		}
 	};
 	
@@ -170,6 +219,7 @@ public class ReportFragment extends AbstractTabFragment
 		mServiceIntentFilter.addAction(BCAST_SERVICE_STOPPED);
 		mServiceIntentFilter.addAction(BCAST_NEW_ACTIVITY);
 		mServiceIntentFilter.addAction(BCAST_NEW_CLASSIFIER);
+		mServiceIntentFilter.addAction(BCAST_METRICS);
 		
 		mPrefs = PreferenceManager.getDefaultSharedPreferences(getActivity());
 		mPrefsClassifier = Storage.getClassifierPreferences(getActivity());
@@ -253,6 +303,8 @@ public class ReportFragment extends AbstractTabFragment
 		mChkReport.setOnCheckedChangeListener(onChkReportCheckedChange);
 		mChkReport.setEnabled(!sReportUser.isEmpty());
 		
+		mTxtMetrics = (TextView)v.findViewById(R.id.txtMetrics);
+		
 		mLogAdapter = new LogListAdapter(getActivity());
 		mListLog = (ListView)v.findViewById(R.id.listLog);
 		mListLog.setAdapter(mLogAdapter);
@@ -319,6 +371,29 @@ public class ReportFragment extends AbstractTabFragment
 		sWriteLog = mPrefs.getBoolean(SettingsActivity.KEY_WRITE_LOG, false);
 		sLogFilename = mPrefs.getString(SettingsActivity.KEY_LOG_FILENAME, "");
 		sWakelock = mPrefs.getBoolean(SettingsActivity.KEY_USE_WAKELOCK, false);
+		sUseCompiled = mPrefs.getBoolean(SettingsActivity.KEY_USE_COMPILED, true);
+		sAdaptiveRate = mPrefs.getBoolean(SettingsActivity.KEY_ADAPTIVE_RATE, false);
+		sAdaptiveMinInterval = mPrefs.getInt(SettingsActivity.KEY_ADAPTIVE_MIN_INTERVAL, 0) * 100;
+		sAdaptiveMaxInterval = mPrefs.getInt(SettingsActivity.KEY_ADAPTIVE_MAX_INTERVAL, 5) * 1000;
+		try
+		{
+			sAdaptiveThreshold =
+					Double.parseDouble(mPrefs.getString(SettingsActivity.KEY_ADAPTIVE_THRESHOLD, "0.05"));
+		}
+		catch(NumberFormatException ex)
+		{
+			sAdaptiveThreshold = 0.05;
+		}
+		sSmoothing = mPrefs.getString(SettingsActivity.KEY_SMOOTHING, SmoothingMethod.HYSTERESIS.name());
+		sSmoothingWindows = mPrefs.getInt(SettingsActivity.KEY_SMOOTHING_WINDOWS, 14);
+		try
+		{
+			sSampleRate = Integer.parseInt(mPrefs.getString(SettingsActivity.KEY_SAMPLE_RATE, "0"));
+		}
+		catch(NumberFormatException ex)
+		{
+			sSampleRate = 0;
+		}
 	}
 	
 	/**
@@ -329,7 +404,10 @@ public class ReportFragment extends AbstractTabFragment
 		mLblNoClassifier.setVisibility(present ? View.GONE : View.VISIBLE);
 		mSwClassifiy.setEnabled(present);
 		if(!present)
+		{
 			mClassifier = null;
+			mCompiled = null;
+		}
 	}
 	
 	/**
@@ -395,9 +473,24 @@ public class ReportFragment extends AbstractTabFragment
 		mLogAdapter.add(getString(R.string.rservice_started));
 	}
 	
+	void onMetrics(Intent intent)
+	{
+		final PipelineMetrics.Snapshot m =
+				(PipelineMetrics.Snapshot)intent.getSerializableExtra(ClassifierService.EXTRA_METRICS);
+		if(m == null)
+			return;
+		
+		mTxtMetrics.setText(getString(R.string.txtMetrics, m.getSamplesPerSecond(), m.getWindowsPerSecond(),
+				m.mDropped, m.mExtraction.mMedian, m.mExtraction.mPercentile95, m.mClassification.mMedian,
+				m.mClassification.mPercentile95, m.mDecision.mMedian / 1000, m.mDecision.mPercentile95 / 1000,
+				m.mQueueDepth, m.mPendingReports));
+		mTxtMetrics.setVisibility(View.VISIBLE);
+	}
+	
 	void onServiceStopped()
 	{
 		mSwClassifiy.setChecked(false);
+		mTxtMetrics.setVisibility(View.GONE);
 		mLogAdapter.add(getString(R.string.rservice_stopped));
 		mService = null;
 	}
@@ -423,10 +516,19 @@ public class ReportFragment extends AbstractTabFragment
 		readSettings();
 		Intent i = new Intent(ClassifierService.CLASSIFIER_SERVICE);
 		i.putExtra(EXTRA_CLASSIFIER, mClassifier);
+		if(sUseCompiled && mCompiled != null)
+			i.putExtra(EXTRA_COMPILED, mCompiled);
 		i.putExtra(EXTRA_WINDOW, sWindowSize);
 		i.putExtra(EXTRA_JUMP, sJumpSize);
 		i.putExtra(EXTRA_FEATURES, sTrainedFeatures);
 		i.putExtra(EXTRA_WAKELOCK, sWakelock);
+		i.putExtra(EXTRA_ADAPTIVE, sAdaptiveRate);
+		i.putExtra(EXTRA_ADAPTIVE_MIN_INTERVAL, sAdaptiveMinInterval);
+		i.putExtra(EXTRA_ADAPTIVE_MAX_INTERVAL, Math.max(sAdaptiveMinInterval, sAdaptiveMaxInterval));
+		i.putExtra(EXTRA_ADAPTIVE_THRESHOLD, sAdaptiveThreshold);
+		i.putExtra(EXTRA_SMOOTHING, sSmoothing);
+		i.putExtra(EXTRA_SMOOTHING_WINDOWS, sSmoothingWindows);
+		i.putExtra(EXTRA_SAMPLE_RATE, sSampleRate);
 		
 		// This is a little complicated; the first value determines whether the feature should be enabled at
 		// all, the second one specifies whether it's actually activated
@@ -456,12 +558,15 @@ public class ReportFragment extends AbstractTabFragment
 	
 	/**
 	 * Attempts to deserialize the classifier from the file in the settings, see
-	 * {@link Storage#KEY_CLASSIFIER_FILE}.
+	 * {@link Storage#KEY_CLASSIFIER_FILE}. If there is a compiled classifier for it, that is deserialized as
+	 * well.
 	 * 
 	 * @author Peter
 	 */
 	class CheckForClassifierTask extends AsyncTask<Void, Void, Classifier>
 	{
+		private CompiledClassifier mCompiledResult = null;
+		
 		@Override
 		protected Classifier doInBackground(Void... params)
 		{
@@ -471,6 +576,8 @@ public class ReportFragment extends AbstractTabFragment
 				ObjectInputStream ois = new ObjectInputStream(is);
 				Classifier out = (Classifier)ois.readObject();
 				ois.close();
+				
+				mCompiledResult = readCompiled();
 				return out;
 			}
 			catch(FileNotFoundException ex)
@@ -501,6 +608,34 @@ public class ReportFragment extends AbstractTabFragment
 			}
 		}
 		
+		/**
+		 * Deserializes the compiled classifier for {@link #sClassifierFile}.
+		 * 
+		 * @return the compiled classifier, or {@code null} if there is none or it could not be read.
+		 */
+		private CompiledClassifier readCompiled()
+		{
+			try
+			{
+				InputStream is = getActivity().openFileInput(ClassifierCompiler.getFilename(sClassifierFile));
+				ObjectInputStream ois = new ObjectInputStream(is);
+				CompiledClassifier out = (CompiledClassifier)ois.readObject();
+				ois.close();
+				return out;
+			}
+			catch(FileNotFoundException ex)
+			{
+				// Not every classifier can be compiled
+				return null;
+			}
+			catch(Exception ex)
+			{
+				// The original classifier can still be used
+				Log.w(LOGTAG, "Could not read compiled classifier.", ex);
+				return null;
+			}
+		}
+		
 		@Override
 		protected void onPreExecute()
 		{
@@ -512,6 +647,7 @@ public class ReportFragment extends AbstractTabFragment
 		{
 			setClassifierPresent(result != null);
 			mClassifier = result;
+			mCompiled = result != null ? mCompiledResult : null;
 			mProgressSerialize.setVisibility(View.GONE);
 			if(LOCAL_LOGV) Log.v(LOGTAG, "CheckForClassifierTask finished");
 		}
@@ -0,0 +1,159 @@
+package at.jku.pci.lazybird;
+
+import android.content.Context;
+import android.hardware.Sensor;
+import android.hardware.SensorEvent;
+import android.hardware.SensorEventListener;
+import android.hardware.SensorManager;
+import android.util.Log;
+import at.jku.pci.lazybird.features.SampleSink;
+
+/**
+ * Owns the only registration of an accelerometer listener in the process and passes every event to any number
+ * of {@link SampleSink}s, e.g. to {@link ARFFRecorderService} and {@link ClassifierService} while recording
+ * ground truth during classification. This way the sensor delivers every event only once, and all sinks get
+ * the same timestamp, which is converted from the event time once.
+ * <p>
+ * The listener is registered at {@link SensorManager#SENSOR_DELAY_FASTEST} with the first sink and
+ * unregistered with the last one. Sinks are called on the main thread, in the order they subscribed, and are
+ * responsible for buffering samples and dropping them if they can't keep up.
+ * 
+ * @author Peter
+ */
+public class SensorHub implements SensorEventListener
+{
+	private static SensorHub sInstance = null;
+	
+	static final String LOGTAG = "SensorHub";
+	static final boolean LOCAL_LOGV = true;
+	
+	private final SensorManager mSensorManager;
+	private final Sensor mSensor;
+	// Replaced on every change, so events can be dispatched without locking or allocating
+	private volatile SampleSink[] mSinks = new SampleSink[0];
+	// Converts event timestamps, which use the clock of System.nanoTime(), to the wall clock
+	private volatile long mTimeOffset;
+	
+	private SensorHub(Context context)
+	{
+		mSensorManager = (SensorManager)context.getSystemService(Context.SENSOR_SERVICE);
+		mSensor = mSensorManager.getDefaultSensor(Sensor.TYPE_ACCELEROMETER);
+	}
+	
+	/**
+	 * Gets the sensor hub of the process, creating it if necessary.
+	 * 
+	 * @param context any context, only the application context is kept.
+	 * @return the sensor hub.
+	 */
+	public static synchronized SensorHub getInstance(Context context)
+	{
+		if(sInstance == null)
+			sInstance = new SensorHub(context.getApplicationContext());
+		return sInstance;
+	}
+	
+	/**
+	 * Gets the accelerometer the samples are from.
+	 * 
+	 * @return the default accelerometer, or {@code null} if the device has none.
+	 */
+	public Sensor getSensor()
+	{
+		return mSensor;
+	}
+	
+	/**
+	 * Gets the number of sinks currently receiving samples.
+	 */
+	public int getSubscribers()
+	{
+		return mSinks.length;
+	}
+	
+	/**
+	 * Starts passing samples to the specified sink, registering the sensor listener if it is the first one.
+	 * Has no effect if the sink is already subscribed.
+	 * <p>
+	 * This method has to be called on a thread with a looper, usually the main thread.
+	 * 
+	 * @param sink the sink to pass samples to.
+	 */
+	public synchronized void subscribe(SampleSink sink)
+	{
+		if(sink == null)
+			throw new NullPointerException("sink");
+		
+		final SampleSink[] sinks = mSinks;
+		for(SampleSink s : sinks)
+		{
+			if(s == sink)
+				return;
+		}
+		
+		final SampleSink[] newSinks = new SampleSink[sinks.length + 1];
+		System.arraycopy(sinks, 0, newSinks, 0, sinks.length);
+		newSinks[sinks.length] = sink;
+		mSinks = newSinks;
+		
+		if(sinks.length == 0)
+		{
+			// The clocks may drift apart, so the offset is determined every time the listener is registered
+			mTimeOffset = System.currentTimeMillis() - System.nanoTime() / 1000000;
+			mSensorManager.registerListener(this, mSensor, SensorManager.SENSOR_DELAY_FASTEST);
+			if(LOCAL_LOGV) Log.v(LOGTAG, "Sensor listener registered.");
+		}
+	}
+	
+	/**
+	 * Stops passing samples to the specified sink, unregistering the sensor listener if it was the last one.
+	 * Has no effect if the sink is not subscribed. The sink may still receive the sample currently being
+	 * dispatched.
+	 * 
+	 * @param sink the sink to stop passing samples to.
+	 */
+	public synchronized void unsubscribe(SampleSink sink)
+	{
+		final SampleSink[] sinks = mSinks;
+		int index = -1;
+		for(int j = 0; j < sinks.length; j++)
+		{
+			if(sinks[j] == sink)
+			{
+				index = j;
+				break;
+			}
+		}
+		if(index < 0)
+			return;
+		
+		final SampleSink[] newSinks = new SampleSink[sinks.length - 1];
+		System.arraycopy(sinks, 0, newSinks, 0, index);
+		System.arraycopy(sinks, index + 1, newSinks, index, newSinks.length - index);
+		mSinks = newSinks;
+		
+		if(newSinks.length == 0)
+		{
+			mSensorManager.unregisterListener(this);
+			if(LOCAL_LOGV) Log.v(LOGTAG, "Sensor listener unregistered.");
+		}
+	}
+	
+	@Override
+	public void onSensorChanged(SensorEvent event)
+	{
+		final long time = event.timestamp / 1000000 + mTimeOffset;
+		final float x = event.values[0];
+		final float y = event.values[1];
+		final float z = event.values[2];
+		
+		final SampleSink[] sinks = mSinks;
+		for(int j = 0; j < sinks.length; j++)
+			sinks[j].onSample(time, x, y, z);
+	}
+	
+	@Override
+	public void onAccuracyChanged(Sensor sensor, int accuracy)
+	{
+	}
+}
@@ -10,6 +10,7 @@ import android.preference.ListPreference;
 import android.preference.PreferenceFragment;
 import android.util.Log;
 import android.view.MenuItem;
+import at.jku.pci.lazybird.classifiers.SmoothingMethod;
 import at.jku.pci.lazybird.util.NumberPreference;
 import at.jku.pci.lazybird.util.Storage;
 
@@ -35,6 +36,14 @@ public class SettingsActivity extends Activity
 	 */
 	public static final String KEY_OUTPUT_DIR = "outputDir";
 	
+	/**
+	 * Shared preferences key: {@value}
+	 * <p>
+	 * The rate in Hz the samples are decimated to when recording and classifying, or {@code 0} to use the
+	 * rate of the sensor.
+	 */
+	public static final String KEY_SAMPLE_RATE = "sampleRate";
+	
 	/**
 	 * Shared preferences key: {@value}
 	 * <p>
@@ -49,6 +58,36 @@ public class SettingsActivity extends Activity
 	 */
 	public static final String KEY_START_DELAY = "startDelay";
 	
+	/**
+	 * Shared preferences key: {@value}
+	 * <p>
+	 * The format of recordings, one of {@link ARFFRecorderService#FORMAT_ARFF},
+	 * {@link ARFFRecorderService#FORMAT_BINARY} and {@link ARFFRecorderService#FORMAT_BINARY_EXACT}.
+	 */
+	public static final String KEY_RECORDING_FORMAT = "recordingFormat";
+	
+	/**
+	 * Shared preferences key: {@value}
+	 * <p>
+	 * Whether to continue recording in a new segment instead of stopping once {@link #KEY_MAX_NUM_VALUES},
+	 * {@link #KEY_SEGMENT_DURATION} or {@link #KEY_SEGMENT_SIZE} is reached.
+	 */
+	public static final String KEY_ROLLING_RECORDING = "rollingRecording";
+	
+	/**
+	 * Shared preferences key: {@value}
+	 * <p>
+	 * The duration of a segment in seconds, or {@code 0} for no limit.
+	 */
+	public static final String KEY_SEGMENT_DURATION = "segmentDuration";
+	
+	/**
+	 * Shared preferences key: {@value}
+	 * <p>
+	 * The size of a segment in MB, or {@code 0} for no limit.
+	 */
+	public static final String KEY_SEGMENT_SIZE = "segmentSize";
+	
 	/**
 	 * Shared preferences key: {@value}
 	 * <p>
@@ -56,6 +95,20 @@ public class SettingsActivity extends Activity
 	 */
 	public static final String KEY_NUM_FOLDS = "numFolds";
 	
+	/**
+	 * Shared preferences key: {@value}
+	 * <p>
+	 * The time in seconds at the start of every recording that is not used for training.
+	 */
+	public static final String KEY_TRIM_START = "trimStart";
+	
+	/**
+	 * Shared preferences key: {@value}
+	 * <p>
+	 * The time in seconds at the end of every recording that is not used for training.
+	 */
+	public static final String KEY_TRIM_END = "trimEnd";
+	
 	/**
 	 * Shared preferences key: {@value}
 	 * <p>
@@ -91,6 +144,55 @@ public class SettingsActivity extends Activity
 	 */
 	public static final String KEY_USE_WAKELOCK = "useWakelock";
 	
+	/**
+	 * Shared preferences key: {@value}
+	 * <p>
+	 * Whether to use the compiled classifier for classification, if there is one.
+	 */
+	public static final String KEY_USE_COMPILED = "useCompiled";
+	
+	/**
+	 * Shared preferences key: {@value}
+	 * <p>
+	 * Whether to lower the classification rate while the signal is stable.
+	 */
+	public static final String KEY_ADAPTIVE_RATE = "adaptiveRate";
+	
+	/**
+	 * Shared preferences key: {@value}
+	 * <p>
+	 * The minimum interval between classified windows in tenths of a second.
+	 */
+	public static final String KEY_ADAPTIVE_MIN_INTERVAL = "adaptiveMinInterval";
+	
+	/**
+	 * Shared preferences key: {@value}
+	 * <p>
+	 * The maximum interval between classified windows in seconds.
+	 */
+	public static final String KEY_ADAPTIVE_MAX_INTERVAL = "adaptiveMaxInterval";
+	
+	/**
+	 * Shared preferences key: {@value}
+	 * <p>
+	 * The variance of the acceleration magnitude up to which the signal is considered stable, as a string.
+	 */
+	public static final String KEY_ADAPTIVE_THRESHOLD = "adaptiveThreshold";
+	
+	/**
+	 * Shared preferences key: {@value}
+	 * <p>
+	 * The name of the {@link SmoothingMethod} used to smooth the classified activity.
+	 */
+	public static final String KEY_SMOOTHING = "smoothing";
+	
+	/**
+	 * Shared preferences key: {@value}
+	 * <p>
+	 * The number of windows of the smoothing method, see {@link SmoothingMethod#create(int, int)}.
+	 */
+	public static final String KEY_SMOOTHING_WINDOWS = "smoothingWindows";
+	
 	static final String LOGTAG = "SettingsActivity";
 	static final boolean LOCAL_LOGV = true;
 	
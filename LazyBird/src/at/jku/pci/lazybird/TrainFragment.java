@@ -35,14 +35,20 @@ import android.widget.ProgressBar;
 import android.widget.Spinner;
 import android.widget.TextView;
 import android.widget.Toast;
+import at.jku.pci.lazybird.classifiers.ClassifierCompiler;
+import at.jku.pci.lazybird.classifiers.CompiledClassifier;
+import at.jku.pci.lazybird.features.BinarySampleEncoder;
 import at.jku.pci.lazybird.features.Feature;
+import at.jku.pci.lazybird.features.FeatureCache;
 import at.jku.pci.lazybird.features.FeatureExtractor;
+import at.jku.pci.lazybird.features.RecordingSession;
 import at.jku.pci.lazybird.util.Storage;
 import weka.classifiers.Classifier;
 import weka.classifiers.Evaluation;
 import weka.classifiers.bayes.NaiveBayes;
 import weka.classifiers.lazy.IBk;
 import weka.classifiers.trees.J48;
+import weka.core.Instance;
 import weka.core.Instances;
 import weka.core.UnsupportedAttributeTypeException;
 import weka.core.Utils;
@@ -59,6 +65,11 @@ import java.io.OutputStreamWriter;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.zip.GZIPOutputStream;
 
 public class TrainFragment extends AbstractTabFragment
@@ -107,6 +118,14 @@ public class TrainFragment extends AbstractTabFragment
 	 * Jump size for the sliding window, maybe make this a setting someday.
 	 */
 	public static final int JUMP_SIZE = 100;
+	/**
+	 * Name of the directory for the {@link FeatureCache} in the cache directory of the application.
+	 */
+	public static final String FEATURE_CACHE_DIR = "features";
+	/**
+	 * Maximum size of the {@link FeatureCache} in bytes.
+	 */
+	public static final long FEATURE_CACHE_SIZE = 32 * 1024 * 1024;
 	// Settings
 	/**
 	 * Setting: {@link SettingsActivity#KEY_OUTPUT_DIR}
@@ -118,6 +137,14 @@ public class TrainFragment extends AbstractTabFragment
 	 * Setting {@link SettingsActivity#KEY_NUM_FOLDS}
 	 */
 	static int sNumFolds;
+	/**
+	 * Setting: {@link SettingsActivity#KEY_TRIM_START}
+	 */
+	static int sTrimStart;
+	/**
+	 * Setting: {@link SettingsActivity#KEY_TRIM_END}
+	 */
+	static int sTrimEnd;
 	/**
 	 * Setting: {@link Storage#KEY_CLASSIFIER_FILE}
 	 */
@@ -173,6 +200,7 @@ public class TrainFragment extends AbstractTabFragment
 	@SuppressWarnings("rawtypes")
 	AsyncTask mTask = null;
 	WakeLock mWakelock;
+	FeatureCache mFeatureCache;
 	
 	// Handlers
 	LocalBroadcastManager mBroadcastManager;
@@ -219,6 +247,9 @@ public class TrainFragment extends AbstractTabFragment
 		mPrefsClassifier = Storage.getClassifierPreferences(getActivity());
 		readSettings();
 		
+		final File cacheDir = new File(getActivity().getCacheDir(), FEATURE_CACHE_DIR);
+		mFeatureCache = new FeatureCache(cacheDir, FEATURE_CACHE_SIZE);
+		
 		getWidgets(getView());
 		
 		final Drawable check = getResources().getDrawable(android.R.drawable.checkbox_off_background);
@@ -231,7 +262,9 @@ public class TrainFragment extends AbstractTabFragment
 			{
 				if(!pathname.isFile())
 					return false;
-				return pathname.getName().endsWith(RecorderFragment.EXTENSION);
+				final String name = pathname.getName();
+				return name.endsWith(RecorderFragment.EXTENSION) || name.endsWith(BinarySampleEncoder.EXTENSION) ||
+						name.endsWith(RecordingSession.EXTENSION);
 			}
 		};
 	}
@@ -391,6 +424,8 @@ public class TrainFragment extends AbstractTabFragment
 	{
 		sOutputDir = mPrefs.getString(SettingsActivity.KEY_OUTPUT_DIR, "");
 		sNumFolds = mPrefs.getInt(SettingsActivity.KEY_NUM_FOLDS, 4);
+		sTrimStart = mPrefs.getInt(SettingsActivity.KEY_TRIM_START, 0);
+		sTrimEnd = mPrefs.getInt(SettingsActivity.KEY_TRIM_END, 0);
 		sClassifierFile = mPrefsClassifier.getString(Storage.KEY_CLASSIFIER_FILE, "");
 		sTrainingFile = mPrefsClassifier.getString(Storage.KEY_TRAINING_FILE, "");
 		sTrainedFeatures = mPrefsClassifier.getInt(Storage.KEY_FEATURES, 0);
@@ -710,6 +745,8 @@ public class TrainFragment extends AbstractTabFragment
 			{
 				int windowSize = Integer.parseInt((String)mSpinWindowSize.getSelectedItem());
 				FeatureExtractor fe = new FeatureExtractor(mFiles, mFeatures, windowSize, JUMP_SIZE);
+				fe.setCache(mFeatureCache);
+				fe.setTrim(sTrimStart * 1000L, sTrimEnd * 1000L);
 				
 				SaveFeaturesTask t = new SaveFeaturesTask();
 				mTask = t;
@@ -736,6 +773,8 @@ public class TrainFragment extends AbstractTabFragment
 					// User wants to train, so train
 					int windowSize = Integer.parseInt((String)mSpinWindowSize.getSelectedItem());
 					FeatureExtractor fe = new FeatureExtractor(mFiles, mFeatures, windowSize, JUMP_SIZE);
+					fe.setCache(mFeatureCache);
+					fe.setTrim(sTrimStart * 1000L, sTrimEnd * 1000L);
 					
 					TrainClassifierTask t = new TrainClassifierTask();
 					mTask = t;
@@ -1083,6 +1122,20 @@ public class TrainFragment extends AbstractTabFragment
 				oos.writeObject(out);
 				oos.close();
 				
+				if(isCancelled())
+					return null;
+				
+				// Compile the classifier if possible and serialize it next to the classifier
+				final CompiledClassifier compiled = ClassifierCompiler.compile(out, fe.getOutput());
+				if(compiled != null)
+				{
+					os = getActivity().openFileOutput(ClassifierCompiler.getFilename(sClassifierFile),
+							Context.MODE_PRIVATE);
+					final ObjectOutputStream coos = new ObjectOutputStream(os);
+					coos.writeObject(compiled);
+					coos.close();
+				}
+				
 				if(isCancelled())
 					return null;
 				
@@ -1096,7 +1149,10 @@ public class TrainFragment extends AbstractTabFragment
 				
 				// Delete old files
 				if(!oldClassifierFile.equals(sClassifierFile))
+				{
 					getActivity().deleteFile(oldClassifierFile);
+					getActivity().deleteFile(ClassifierCompiler.getFilename(oldClassifierFile));
+				}
 				if(!oldTrainingFile.equals(sTrainingFile))
 					getActivity().deleteFile(oldTrainingFile);
 				if(!oldValidationLogFile.isEmpty())
@@ -1110,7 +1166,10 @@ public class TrainFragment extends AbstractTabFragment
 				{
 					// In case of an exception after one of the new files was saved, remove it
 					if(!sClassifierFile.equals(oldClassifierFile))
+					{
 						getActivity().deleteFile(sClassifierFile);
+						getActivity().deleteFile(ClassifierCompiler.getFilename(sClassifierFile));
+					}
 					if(!sTrainingFile.equals(oldTrainingFile))
 						getActivity().deleteFile(sTrainingFile);
 				}
@@ -1251,20 +1310,34 @@ public class TrainFragment extends AbstractTabFragment
 				instances.stratify(numFolds);
 				Evaluation eval = new Evaluation(instances);
 				
-				// Validate
-				for(int fold = 0; fold < numFolds; fold++)
+				// Train and test the folds in parallel, the predictions are evaluated in fold order afterwards
+				// so the result is the same as when validating one fold after another
+				final int numThreads = Math.min(numFolds, Runtime.getRuntime().availableProcessors());
+				final ExecutorService executor = Executors.newFixedThreadPool(numThreads);
+				final List<Future<double[][]>> predictions = new ArrayList<Future<double[][]>>(numFolds);
+				
+				try
 				{
-					if(isCancelled())
-						return null;
+					for(int fold = 0; fold < numFolds; fold++)
+						predictions.add(executor.submit(new FoldTask(classifier, instances, numFolds, fold)));
 					
-					Instances train = instances.trainCV(numFolds, fold);
-					Instances test = instances.testCV(numFolds, fold);
-					Classifier run = Classifier.makeCopy(classifier);
-					
-					eval.setPriors(train);
-					run.buildClassifier(train);
-					for(int j = 0; j < test.numInstances(); j++)
-						eval.evaluateModelOnceAndRecordPrediction(run, test.instance(j));
+					// Validate
+					for(int fold = 0; fold < numFolds; fold++)
+					{
+						final double[][] dist = getPredictions(predictions.get(fold));
+						if(dist == null || isCancelled())
+							return null;
+						
+						final Instances test = instances.testCV(numFolds, fold);
+						eval.setPriors(instances.trainCV(numFolds, fold));
+						for(int j = 0; j < test.numInstances(); j++)
+							eval.evaluateModelOnceAndRecordPrediction(dist[j], test.instance(j));
+					}
+				}
+				finally
+				{
+					// Abandon remaining folds when cancelled or something went wrong
+					executor.shutdownNow();
 				}
 				
 				final String summary = getEvaluationSummary(eval);
@@ -1286,6 +1359,76 @@ public class TrainFragment extends AbstractTabFragment
 			}
 		}
 		
+		/**
+		 * Waits for the predictions of a fold, rethrowing any exception thrown by the fold.
+		 * 
+		 * @return the predictions, or {@code null} if the task was cancelled while waiting.
+		 */
+		private double[][] getPredictions(Future<double[][]> predictions) throws Exception
+		{
+			try
+			{
+				return predictions.get();
+			}
+			catch(InterruptedException ex)
+			{
+				// AsyncTask.cancel interrupts the thread
+				return null;
+			}
+			catch(ExecutionException ex)
+			{
+				if(ex.getCause() instanceof Exception)
+					throw (Exception)ex.getCause();
+				throw ex;
+			}
+		}
+		
+		/**
+		 * Trains a copy of the classifier on the training set of a fold and gets the predicted distributions
+		 * for the test set of the fold.
+		 * 
+		 * @author Peter
+		 */
+		private class FoldTask implements Callable<double[][]>
+		{
+			private final Classifier mClassifier;
+			private final Instances mInstances;
+			private final int mNumFolds;
+			private final int mFold;
+			
+			public FoldTask(Classifier classifier, Instances instances, int numFolds, int fold)
+			{
+				mClassifier = classifier;
+				mInstances = instances;
+				mNumFolds = numFolds;
+				mFold = fold;
+			}
+			
+			@Override
+			public double[][] call() throws Exception
+			{
+				final Instances train = mInstances.trainCV(mNumFolds, mFold);
+				final Instances test = mInstances.testCV(mNumFolds, mFold);
+				final Classifier run = Classifier.makeCopy(mClassifier);
+				run.buildClassifier(train);
+				
+				// Same as Evaluation.evaluateModelOnceAndRecordPrediction(Classifier, Instance)
+				final double[][] out = new double[test.numInstances()][];
+				for(int j = 0; j < out.length; j++)
+				{
+					if(Thread.interrupted())
+						throw new InterruptedException();
+					
+					final Instance classMissing = (Instance)test.instance(j).copy();
+					classMissing.setDataset(test);
+					classMissing.setClassMissing();
+					out[j] = run.distributionForInstance(classMissing);
+				}
+				
+				return out;
+			}
+		}
+		
 		@Override
 		protected void onPreExecute()
 		{
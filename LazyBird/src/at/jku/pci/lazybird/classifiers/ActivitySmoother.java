@@ -0,0 +1,35 @@
+package at.jku.pci.lazybird.classifiers;
+
+/**
+ * Interface for temporal smoothing of the classes predicted for consecutive windows, so single
+ * misclassifications don't change the reported activity.
+ * <p>
+ * Implementations keep their state in fixed arrays allocated in the constructor, so adding a prediction does
+ * not allocate anything.
+ * 
+ * @author Peter
+ * @see SmoothingMethod
+ */
+public interface ActivitySmoother
+{
+	/**
+	 * Gets whether this smoother uses class probabilities. If not, {@code null} can always be passed as
+	 * distribution to {@link #add(int, double[])}, so the classifier doesn't need to calculate them.
+	 */
+	public boolean usesDistribution();
+	
+	/**
+	 * Adds the prediction for the next window.
+	 * 
+	 * @param clazz the index of the predicted class.
+	 * @param distribution the class probabilities of the window, or {@code null} if they are not available.
+	 *        The array is not kept by the smoother.
+	 * @return the index of the smoothed class, or {@code -1} if no class has been decided on yet.
+	 */
+	public int add(int clazz, double[] distribution);
+	
+	/**
+	 * Discards all previous predictions.
+	 */
+	public void reset();
+}
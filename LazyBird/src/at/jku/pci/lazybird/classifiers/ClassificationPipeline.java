@@ -0,0 +1,293 @@
+package at.jku.pci.lazybird.classifiers;
+
+import at.jku.pci.lazybird.features.AccelerationWindow;
+import at.jku.pci.lazybird.features.AccelerationWindow.AccelerationListener;
+import at.jku.pci.lazybird.features.AdaptiveScheduler;
+import at.jku.pci.lazybird.features.Feature;
+import at.jku.pci.lazybird.features.FeatureExtractor;
+import at.jku.pci.lazybird.features.FeatureLayout;
+import at.jku.pci.lazybird.util.PipelineMetrics;
+import weka.classifiers.Classifier;
+import weka.core.Attribute;
+import weka.core.FastVector;
+import weka.core.Instance;
+import weka.core.Instances;
+import weka.core.Utils;
+
+/**
+ * The live classification of acceleration samples: a sliding window, feature extraction, classification and
+ * temporal smoothing of the predictions. Samples are added one at a time, and the listener is notified when
+ * the smoothed activity changes.
+ * <p>
+ * This class does not depend on Android, so the same code that classifies samples from the sensor can also
+ * classify recordings, see {@link ReplayEngine}. All methods except the getters of the statistics have to be
+ * called on the same thread, and the listener is notified on that thread.
+ * 
+ * @author Peter
+ */
+public class ClassificationPipeline implements AccelerationListener
+{
+	/**
+	 * Interface definition for callbacks of a {@link ClassificationPipeline}.
+	 * 
+	 * @author Peter
+	 */
+	public interface PipelineListener
+	{
+		/**
+		 * Called when the smoothed activity changes.
+		 * 
+		 * @param activity the index of the new activity in the class attribute of the header.
+		 * @param time the timestamp of the last sample of the window that changed the activity in ms.
+		 */
+		public void onActivityChanged(int activity, long time);
+		
+		/**
+		 * Called when a window could not be classified. The window is skipped.
+		 * 
+		 * @param ex the exception thrown by the classifier.
+		 */
+		public void onClassificationFailed(Exception ex);
+	}
+	
+	private final Classifier mClassifier;
+	private final CompiledClassifier mCompiled;
+	private final Instances mHeader;
+	private final FeatureLayout mLayout;
+	// Values of mInstance, features are extracted into this array directly
+	private final double[] mValues;
+	private final Instance mInstance;
+	private final AccelerationWindow mWindow;
+	private final ActivitySmoother mSmoother;
+	// Decides which windows to classify, null to classify every window
+	private final AdaptiveScheduler mScheduler;
+	private final PipelineListener mListener;
+	
+	private final DetectionLatency mLatency;
+	private final PipelineMetrics mMetrics = new PipelineMetrics();
+	
+	// Written by the pipeline thread, may be read by others
+	private volatile int mActivity = -1;
+	// When the last sample was received, in the time base of System.currentTimeMillis()
+	private long mReceived;
+	
+	/**
+	 * Initializes a new instance of the {@link ClassificationPipeline} class.
+	 * 
+	 * @param classifier the classifier, trained with the attributes of {@code header}.
+	 * @param compiled the compiled version of {@code classifier}, or {@code null}.
+	 * @param header the header with the features of {@code features} and a class, see
+	 *        {@link #buildHeader(int, String[])}.
+	 * @param features a mask of the features to extract, see {@link Feature#getMask(Feature[])}.
+	 * @param windowSize the window size in ms.
+	 * @param jumpSize the jump size in ms.
+	 * @param smoother the smoother for the predictions.
+	 * @param scheduler the scheduler deciding which windows to classify, or {@code null} to classify every
+	 *        window.
+	 * @param listener the listener to notify.
+	 * @exception IllegalArgumentException if the window or jump size are invalid, see
+	 *            {@link AccelerationWindow#AccelerationWindow(int, int)}.
+	 */
+	public ClassificationPipeline(Classifier classifier, CompiledClassifier compiled, Instances header,
+			int features, int windowSize, int jumpSize, ActivitySmoother smoother, AdaptiveScheduler scheduler,
+			PipelineListener listener)
+	{
+		if(classifier == null || header == null || smoother == null || listener == null)
+			throw new NullPointerException();
+		
+		mClassifier = classifier;
+		mCompiled = compiled;
+		mHeader = header;
+		mLayout = FeatureLayout.get(features);
+		mValues = new double[header.numAttributes()];
+		mValues[header.classIndex()] = Instance.missingValue();
+		mInstance = new Instance(1.0, mValues);
+		mInstance.setDataset(header);
+		// Separate the gravity exactly like FeatureExtractor does for training
+		mWindow = new AccelerationWindow(windowSize, jumpSize, true, mLayout.isSeparated());
+		mWindow.setWindowListener(this);
+		mSmoother = smoother;
+		mScheduler = scheduler;
+		mListener = listener;
+		mLatency = new DetectionLatency(header.numClasses());
+	}
+	
+	/**
+	 * Builds an {@link Instances} object with the specified feature attributes and a class.
+	 * 
+	 * @param features a mask of selected features, see {@link Feature#getMask(Feature[])}.
+	 * @param classes the values of the class attribute.
+	 * @return an {@link Instances} object with attributes for the specified features, a class attribute with
+	 *         the specified values, and a capacity of {@code 2}.
+	 */
+	public static Instances buildHeader(int features, String[] classes)
+	{
+		final Feature[] f = Feature.getFeatures(features);
+		final FastVector attributes = new FastVector(f.length + 1);
+		final FastVector values = new FastVector(classes.length);
+		
+		for(Feature feature : f)
+			attributes.addElement(new Attribute(feature.getName()));
+		for(String c : classes)
+			values.addElement(c);
+		attributes.addElement(new Attribute("class", values));
+		
+		final Instances out = new Instances("header", attributes, 2);
+		out.setClassIndex(out.numAttributes() - 1);
+		
+		return out;
+	}
+	
+	/**
+	 * Gets the header of the instances that are classified.
+	 */
+	public Instances getHeader()
+	{
+		return mHeader;
+	}
+	
+	/**
+	 * Gets the smoothed activity as index into the class attribute of the header, or {@code -1} if there is
+	 * none yet.
+	 */
+	public int getActivity()
+	{
+		return mActivity;
+	}
+	
+	/**
+	 * Gets the scheduler deciding which windows to classify, or {@code null} if every window is classified.
+	 */
+	public AdaptiveScheduler getScheduler()
+	{
+		return mScheduler;
+	}
+	
+	/**
+	 * Gets the detection latency of activity changes.
+	 */
+	public DetectionLatency getDetectionLatency()
+	{
+		return mLatency;
+	}
+	
+	/**
+	 * Gets the performance metrics of this pipeline. Samples have to be counted by the receiving thread with
+	 * {@link PipelineMetrics#addSample()}, since they might be received by another thread.
+	 */
+	public PipelineMetrics getMetrics()
+	{
+		return mMetrics;
+	}
+	
+	/**
+	 * Adds a sample that was received at the time of its timestamp.
+	 * 
+	 * @param time the timestamp of the sample in ms, in the time base of {@link System#currentTimeMillis()}.
+	 * @param x the X-axis value.
+	 * @param y the Y-axis value.
+	 * @param z the Z-axis value.
+	 * @see #add(long, float, float, float, long)
+	 */
+	public void add(long time, float x, float y, float z)
+	{
+		add(time, x, y, z, time);
+	}
+	
+	/**
+	 * Adds a sample. Samples need to be added in ascending order of their timestamps.
+	 * 
+	 * @param time the timestamp of the sample in ms.
+	 * @param x the X-axis value.
+	 * @param y the Y-axis value.
+	 * @param z the Z-axis value.
+	 * @param received when the sample was received in the time base of {@link System#currentTimeMillis()},
+	 *        for measuring the time to the decision.
+	 */
+	public void add(long time, float x, float y, float z, long received)
+	{
+		mReceived = received;
+		mWindow.add(time, x, y, z);
+	}
+	
+	/**
+	 * Discards the samples in the window and the previous predictions, e.g. before starting with a new
+	 * recording. Statistics are kept.
+	 */
+	public void reset()
+	{
+		mWindow.clear();
+		mSmoother.reset();
+		mLatency.reset();
+		if(mScheduler != null)
+			mScheduler.reset();
+		mActivity = -1;
+	}
+	
+	/**
+	 * Called when the window jumps, classifies the window.
+	 */
+	@Override
+	public void onWindowChanged(AccelerationWindow window)
+	{
+		mMetrics.addWindow();
+		if(mScheduler != null && !mScheduler.shouldClassify(window))
+			return;
+		
+		// Extract features directly into the values of the instance, the class stays missing
+		final long start = System.nanoTime();
+		FeatureExtractor.extractFeatures(window, mLayout, mValues, 0);
+		final long extracted = System.nanoTime();
+		
+		try
+		{
+			// Attempt to classify the instance, do nothing if classification fails. Use the compiled classifier
+			// if there is one, unless it can't classify this instance or the smoother needs probabilities.
+			double[] distribution = null;
+			double tmp = -1;
+			if(mSmoother.usesDistribution())
+			{
+				distribution = mClassifier.distributionForInstance(mInstance);
+				if(Utils.sum(distribution) > 0)
+					tmp = Utils.maxIndex(distribution);
+				else
+					tmp = Instance.missingValue();
+			}
+			else
+			{
+				if(mCompiled != null)
+					tmp = mCompiled.classify(mValues);
+				if(tmp < 0)
+					tmp = mClassifier.classifyInstance(mInstance);
+			}
+			// The missing value is NaN, which is not equal to anything
+			if(Instance.isMissingValue(tmp))
+				throw new Exception("not classified.");
+			
+			final int clazz = (int)tmp;
+			final long classified = System.nanoTime();
+			if(mScheduler != null)
+				mScheduler.setResult(clazz);
+			
+			// Smooth the predictions over time to change the activity
+			final long time = window.getLastTime();
+			mLatency.addPrediction(time, clazz);
+			final int activity = mSmoother.add(clazz, distribution);
+			if(activity >= 0 && activity != mActivity)
+			{
+				mActivity = activity;
+				mLatency.addChange(time, activity);
+				mListener.onActivityChanged(activity, time);
+			}
+			
+			mMetrics.addClassified(extracted - start, classified - extracted,
+					System.currentTimeMillis() - mReceived);
+		}
+		catch(Exception ex)
+		{
+			if(mScheduler != null)
+				mScheduler.setResult(-1);
+			mListener.onClassificationFailed(ex);
+		}
+	}
+}
@@ -0,0 +1,100 @@
+package at.jku.pci.lazybird.classifiers;
+
+import weka.classifiers.Classifier;
+import weka.classifiers.bayes.NaiveBayes;
+import weka.classifiers.lazy.IBk;
+import weka.classifiers.trees.J48;
+import weka.core.Instance;
+import weka.core.Instances;
+
+/**
+ * Compiles trained Weka classifiers into {@link CompiledClassifier} objects, if the classifier type is
+ * supported.
+ * <p>
+ * Every compiled classifier is verified against the original classifier on the whole training set. Only
+ * nearest neighbour classifiers are verified on up to {@link #VERIFY_INSTANCES} instances spread over it,
+ * since classifying every training instance takes quadratic time for them. If the predictions differ for a
+ * single instance, the classifier is not compiled, so a compiled classifier can always be used in place of
+ * the original one.
+ * 
+ * @author Peter
+ */
+public final class ClassifierCompiler
+{
+	/**
+	 * The file extension for serialized compiled classifiers.
+	 * 
+	 * @see #getFilename(String)
+	 */
+	public static final String EXTENSION = ".compiled";
+	
+	/**
+	 * The maximum number of training instances a compiled nearest neighbour classifier is verified on.
+	 */
+	public static final int VERIFY_INSTANCES = 2000;
+	
+	private ClassifierCompiler()
+	{
+	}
+	
+	/**
+	 * Compiles the specified classifier and verifies the compiled classifier on the training set.
+	 * 
+	 * @param classifier the trained classifier to compile.
+	 * @param train the data set {@code classifier} was trained with.
+	 * @return the compiled classifier, or {@code null} if the type of {@code classifier} is not supported or
+	 *         the compiled classifier does not make the same predictions.
+	 * @exception Exception if {@code classifier} throws an exception when classifying an instance.
+	 */
+	public static CompiledClassifier compile(Classifier classifier, Instances train) throws Exception
+	{
+		CompiledClassifier out = null;
+		if(classifier instanceof J48)
+			out = CompiledJ48.compile((J48)classifier, train);
+		else if(classifier instanceof IBk)
+			out = CompiledIBk.compile((IBk)classifier);
+		else if(classifier instanceof NaiveBayes)
+			out = CompiledNaiveBayes.compile((NaiveBayes)classifier, train);
+		
+		// Verifying IBk on the whole training set is too expensive, the others need to match exactly
+		final int count = classifier instanceof IBk ? VERIFY_INSTANCES : Integer.MAX_VALUE;
+		if(out == null || !verify(classifier, out, train, count))
+			return null;
+		return out;
+	}
+	
+	/**
+	 * Gets the filename for the compiled classifier belonging to the specified classifier file, by replacing
+	 * the extension with {@link #EXTENSION}.
+	 * 
+	 * @param classifierFile the filename of the serialized classifier.
+	 */
+	public static String getFilename(String classifierFile)
+	{
+		final int dot = classifierFile.lastIndexOf('.');
+		if(dot < 0)
+			return classifierFile + EXTENSION;
+		return classifierFile.substring(0, dot) + EXTENSION;
+	}
+	
+	/**
+	 * Checks whether the compiled classifier predicts the same class as the original for every instance of
+	 * the specified data set it can classify, or for {@code maxCount} instances evenly spread over it.
+	 */
+	private static boolean verify(Classifier classifier, CompiledClassifier compiled, Instances data,
+			int maxCount) throws Exception
+	{
+		final int count = Math.min(data.numInstances(), maxCount);
+		for(int j = 0; j < count; j++)
+		{
+			final Instance i = data.instance((int)((long)j * data.numInstances() / count));
+			final int result = compiled.classify(i.toDoubleArray());
+			
+			// Instances the compiled classifier cannot classify are classified by the original anyway
+			if(result >= 0 && result != classifier.classifyInstance(i))
+				return false;
+		}
+		
+		return true;
+	}
+}
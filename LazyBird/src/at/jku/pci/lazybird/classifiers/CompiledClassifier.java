@@ -0,0 +1,29 @@
+package at.jku.pci.lazybird.classifiers;
+
+import weka.classifiers.Classifier;
+import java.io.Serializable;
+
+/**
+ * Defines the interface for a trained classifier that has been compiled into a representation that can
+ * classify a plain feature vector, without building an {@link weka.core.Instance} or going through the object
+ * graph of a Weka {@link Classifier}.
+ * <p>
+ * Compiled classifiers are created by {@link ClassifierCompiler}, which makes sure they predict the same
+ * classes as the original classifier.
+ * 
+ * @see ClassifierCompiler#compile(Classifier, weka.core.Instances)
+ * @author Peter
+ */
+public interface CompiledClassifier extends Serializable
+{
+	/**
+	 * Classifies the specified feature vector.
+	 * 
+	 * @param values the feature values, in the order of the attributes of the training set. The value for
+	 *        the class attribute is ignored.
+	 * @return the index of the predicted class, or {@code -1} if the vector cannot be classified by the
+	 *         compiled classifier (e.g. because of missing values). The original classifier should be used
+	 *         in that case.
+	 */
+	public int classify(double[] values);
+}
@@ -0,0 +1,462 @@
+package at.jku.pci.lazybird.classifiers;
+
+import weka.classifiers.lazy.IBk;
+import weka.core.DistanceFunction;
+import weka.core.EuclideanDistance;
+import weka.core.Instance;
+import weka.core.Instances;
+import weka.core.neighboursearch.LinearNNSearch;
+import weka.core.neighboursearch.NearestNeighbourSearch;
+import java.util.Arrays;
+
+/**
+ * A {@link CompiledClassifier} for {@link IBk} nearest neighbour classifiers. The training instances are
+ * stored in a KD-tree, so only a small part of them has to be looked at for every query, instead of all of
+ * them as with the {@link LinearNNSearch} used by {@code IBk}.
+ * <p>
+ * The results are exactly the same as those of {@code IBk} with a {@link LinearNNSearch} and a normalized
+ * {@link EuclideanDistance}: All training instances with a distance less than or equal to the distance of the
+ * k-th nearest neighbour vote for their class, and ties are won by the first class.<br>
+ * Note that {@code IBk} extends the ranges used for normalization with every instance it classifies. This
+ * class does the same, which is why the tree is built on the original feature values and the values are
+ * normalized while searching. Normalization does not change the order of values, so the tree stays valid.
+ * <p>
+ * Only {@code IBk} classifiers without distance weighting, window size and cross-validation of {@code k},
+ * with a nominal class and without missing values or weights in the training set are supported.
+ * <p>
+ * This class is not thread safe, since classifying changes the normalization ranges.
+ * 
+ * @author Peter
+ */
+public class CompiledIBk implements CompiledClassifier
+{
+	private static final long serialVersionUID = 4815009254622871263L;
+	
+	// Maximum number of instances in a leaf of the tree
+	private static final int LEAF_SIZE = 8;
+	
+	private final int mK;
+	private final int mNumAttributes;
+	private final int mClassIndex;
+	private final int mNumInstances;
+	
+	// Training instances in tree order, row by row without the class, and their classes
+	private final double[] mPoints;
+	private final int[] mClasses;
+	
+	// Tree nodes, the children of node j are 2j+1 and 2j+2. Split attribute is -1 for leaves.
+	private final int[] mSplitAttribute;
+	private final double[] mSplitValue;
+	private final int[] mBegin;
+	private final int[] mEnd;
+	
+	// Normalization ranges, indexed like the attributes of the training set
+	private final double[] mMin;
+	private final double[] mMax;
+	private final double[] mWidth;
+	
+	// State of the current query, a max heap of the k nearest neighbours and classes of ties with the k-th
+	private final double[] mHeapDistance;
+	private final int[] mHeapClass;
+	private int mHeapSize;
+	private final int[] mTies;
+	private final int[] mVotes;
+	private final double[] mQuery;
+	private final double[] mOffset;
+	
+	private CompiledIBk(int k, Instances train, double[][] ranges)
+	{
+		mK = k;
+		mClassIndex = train.classIndex();
+		mNumAttributes = train.numAttributes() - 1;
+		mNumInstances = train.numInstances();
+		
+		mPoints = new double[mNumInstances * mNumAttributes];
+		mClasses = new int[mNumInstances];
+		for(int j = 0; j < mNumInstances; j++)
+		{
+			final Instance i = train.instance(j);
+			for(int a = 0, p = 0; a < train.numAttributes(); a++)
+			{
+				if(a != mClassIndex)
+					mPoints[j * mNumAttributes + p++] = i.value(a);
+			}
+			mClasses[j] = (int)i.classValue();
+		}
+		
+		int numNodes = 1;
+		while(numNodes * LEAF_SIZE < mNumInstances)
+			numNodes = numNodes * 2 + 1;
+		mSplitAttribute = new int[numNodes];
+		mSplitValue = new double[numNodes];
+		mBegin = new int[numNodes];
+		mEnd = new int[numNodes];
+		build(0, 0, mNumInstances);
+		
+		mMin = new double[mNumAttributes];
+		mMax = new double[mNumAttributes];
+		mWidth = new double[mNumAttributes];
+		for(int a = 0, p = 0; a < train.numAttributes(); a++)
+		{
+			if(a != mClassIndex)
+			{
+				mMin[p] = ranges[a][EuclideanDistance.R_MIN];
+				mMax[p] = ranges[a][EuclideanDistance.R_MAX];
+				mWidth[p] = ranges[a][EuclideanDistance.R_WIDTH];
+				p++;
+			}
+		}
+		
+		mHeapDistance = new double[k];
+		mHeapClass = new int[k];
+		mTies = new int[train.numClasses()];
+		mVotes = new int[train.numClasses()];
+		mQuery = new double[mNumAttributes];
+		mOffset = new double[mNumAttributes];
+	}
+	
+	/**
+	 * Compiles the specified nearest neighbour classifier.
+	 * 
+	 * @param ibk the trained classifier to compile.
+	 * @return the compiled classifier, or {@code null} if the options of {@code ibk} or its training set are
+	 *         not supported.
+	 * @exception Exception if the training set or normalization ranges of {@code ibk} cannot be read.
+	 */
+	public static CompiledIBk compile(IBk ibk) throws Exception
+	{
+		if(ibk.getDistanceWeighting().getSelectedTag().getID() != IBk.WEIGHT_NONE ||
+				ibk.getWindowSize() != 0 || ibk.getCrossValidate() || ibk.getKNN() < 1)
+			return null;
+		
+		final NearestNeighbourSearch search = ibk.getNearestNeighbourSearchAlgorithm();
+		if(search.getClass() != LinearNNSearch.class || ((LinearNNSearch)search).getSkipIdentical())
+			return null;
+		
+		final DistanceFunction df = search.getDistanceFunction();
+		if(df.getClass() != EuclideanDistance.class)
+			return null;
+		final EuclideanDistance distance = (EuclideanDistance)df;
+		if(distance.getDontNormalize() || distance.getInvertSelection() ||
+				!distance.getAttributeIndices().equals("first-last"))
+			return null;
+		
+		final Instances train = search.getInstances();
+		if(train == null || train.numInstances() == 0 || !train.classAttribute().isNominal())
+			return null;
+		for(int a = 0; a < train.numAttributes(); a++)
+		{
+			if(a != train.classIndex() && !train.attribute(a).isNumeric())
+				return null;
+		}
+		for(int j = 0; j < train.numInstances(); j++)
+		{
+			final Instance i = train.instance(j);
+			if(i.weight() != 1.0 || i.hasMissingValue())
+				return null;
+		}
+		
+		return new CompiledIBk(ibk.getKNN(), train, distance.getRanges());
+	}
+	
+	/**
+	 * Gets the number of training instances of this classifier.
+	 */
+	public int size()
+	{
+		return mNumInstances;
+	}
+	
+	@Override
+	public int classify(double[] values)
+	{
+		for(int a = 0, p = 0; a < values.length; a++)
+		{
+			if(a == mClassIndex)
+				continue;
+			if(Double.isNaN(values[a]))
+				return -1;
+			mQuery[p++] = values[a];
+		}
+		
+		// Same as NormalizableDistance.updateRanges, called by IBk for every instance
+		for(int p = 0; p < mNumAttributes; p++)
+		{
+			final double value = mQuery[p];
+			if(value < mMin[p])
+			{
+				mMin[p] = value;
+				mWidth[p] = mMax[p] - mMin[p];
+			}
+			else if(value > mMax[p])
+			{
+				mMax[p] = value;
+				mWidth[p] = mMax[p] - mMin[p];
+			}
+		}
+		
+		mHeapSize = 0;
+		Arrays.fill(mTies, 0);
+		Arrays.fill(mOffset, 0);
+		search(0);
+		
+		Arrays.fill(mVotes, 0);
+		for(int j = 0; j < mHeapSize; j++)
+			mVotes[mHeapClass[j]]++;
+		
+		// Same as the first maximum of the distribution of IBk, every class gets the same correction
+		int maxIndex = 0;
+		for(int j = 0; j < mVotes.length; j++)
+		{
+			mVotes[j] += mTies[j];
+			if(mVotes[j] > mVotes[maxIndex])
+				maxIndex = j;
+		}
+		
+		return maxIndex;
+	}
+	
+	/**
+	 * Builds the tree node with the specified index for the specified range of instances, by splitting at the
+	 * median of the attribute with the largest spread.
+	 */
+	private void build(int node, int begin, int end)
+	{
+		mBegin[node] = begin;
+		mEnd[node] = end;
+		if(2 * node + 2 >= mSplitAttribute.length || end - begin <= LEAF_SIZE)
+		{
+			mSplitAttribute[node] = -1;
+			return;
+		}
+		
+		int attribute = 0;
+		double maxSpread = -1;
+		for(int p = 0; p < mNumAttributes; p++)
+		{
+			double min = Double.POSITIVE_INFINITY;
+			double max = Double.NEGATIVE_INFINITY;
+			for(int j = begin; j < end; j++)
+			{
+				final double value = mPoints[j * mNumAttributes + p];
+				if(value < min)
+					min = value;
+				if(value > max)
+					max = value;
+			}
+			if(max - min > maxSpread)
+			{
+				maxSpread = max - min;
+				attribute = p;
+			}
+		}
+		
+		final int mid = (begin + end) >>> 1;
+		select(attribute, begin, end, mid);
+		mSplitAttribute[node] = attribute;
+		mSplitValue[node] = mPoints[mid * mNumAttributes + attribute];
+		
+		build(2 * node + 1, begin, mid);
+		build(2 * node + 2, mid, end);
+	}
+	
+	/**
+	 * Reorders the specified range of instances so that the instance at index {@code k} is the one that would
+	 * be there if the range was sorted by the specified attribute, all instances before it have smaller or
+	 * equal values and all instances after it have greater or equal values.
+	 */
+	private void select(int attribute, int begin, int end, int k)
+	{
+		int lo = begin;
+		int hi = end - 1;
+		while(lo < hi)
+		{
+			final double pivot = mPoints[((lo + hi) >>> 1) * mNumAttributes + attribute];
+			int l = lo;
+			int h = hi;
+			while(l <= h)
+			{
+				while(mPoints[l * mNumAttributes + attribute] < pivot)
+					l++;
+				while(mPoints[h * mNumAttributes + attribute] > pivot)
+					h--;
+				if(l <= h)
+					swap(l++, h--);
+			}
+			
+			if(k <= h)
+				hi = h;
+			else if(k >= l)
+				lo = l;
+			else
+				return;
+		}
+	}
+	
+	/**
+	 * Swaps the instances at the specified indices.
+	 */
+	private void swap(int i, int j)
+	{
+		final int rowI = i * mNumAttributes;
+		final int rowJ = j * mNumAttributes;
+		for(int p = 0; p < mNumAttributes; p++)
+		{
+			final double d = mPoints[rowI + p];
+			mPoints[rowI + p] = mPoints[rowJ + p];
+			mPoints[rowJ + p] = d;
+		}
+		
+		final int c = mClasses[i];
+		mClasses[i] = mClasses[j];
+		mClasses[j] = c;
+	}
+	
+	/**
+	 * Searches the nearest neighbours of the current query in the specified tree node.
+	 */
+	private void search(int node)
+	{
+		final int attribute = mSplitAttribute[node];
+		if(attribute < 0)
+		{
+			for(int j = mBegin[node]; j < mEnd[node]; j++)
+				add(j);
+			return;
+		}
+		
+		final boolean left = mQuery[attribute] < mSplitValue[node];
+		search(left ? 2 * node + 1 : 2 * node + 2);
+		
+		// Search the other side only if it can contain a neighbour. Values on the other side are at least as far
+		// away as the split value after normalization, also with rounding.
+		final double diff = norm(mQuery[attribute], attribute) - norm(mSplitValue[node], attribute);
+		final double oldOffset = mOffset[attribute];
+		mOffset[attribute] = diff * diff;
+		if(mHeapSize < mK || !(bound() > mHeapDistance[0]))
+			search(left ? 2 * node + 2 : 2 * node + 1);
+		mOffset[attribute] = oldOffset;
+	}
+	
+	/**
+	 * Gets a lower bound of the squared distance of the query to every instance in the current node, from the
+	 * squared distances to the splits of the node and its parents.
+	 * <p>
+	 * The bound is summed in the same order as the distances, so every term, and therefore the sum, is less
+	 * than or equal to that of the distance also with rounding.
+	 */
+	private double bound()
+	{
+		double bound = 0;
+		for(int p = 0; p < mNumAttributes; p++)
+			bound += mOffset[p];
+		return bound;
+	}
+	
+	/**
+	 * Adds the training instance with the specified index if it is one of the nearest neighbours of the
+	 * current query. Same as {@code LinearNNSearch.kNearestNeighbours} with the heap of Weka, which includes
+	 * all instances with the same distance as the k-th nearest neighbour.
+	 */
+	private void add(int index)
+	{
+		final double cutOff = mHeapSize < mK ? Double.POSITIVE_INFINITY : mHeapDistance[0];
+		final double distance = distance(index, cutOff);
+		
+		if(mHeapSize < mK)
+		{
+			push(distance, mClasses[index]);
+		}
+		else if(distance < mHeapDistance[0])
+		{
+			final double oldDistance = mHeapDistance[0];
+			final int oldClass = mHeapClass[0];
+			pop();
+			push(distance, mClasses[index]);
+			
+			if(mHeapDistance[0] == oldDistance)
+				mTies[oldClass]++;
+			else
+				Arrays.fill(mTies, 0);
+		}
+		else if(distance == mHeapDistance[0])
+		{
+			mTies[mClasses[index]]++;
+		}
+	}
+	
+	/**
+	 * Calculates the squared distance between the current query and the training instance with the specified
+	 * index, the same way as {@link EuclideanDistance}.
+	 * 
+	 * @return the squared distance, or {@link Double#POSITIVE_INFINITY} if it is greater than {@code cutOff}.
+	 */
+	private double distance(int index, double cutOff)
+	{
+		final int row = index * mNumAttributes;
+		double distance = 0;
+		for(int p = 0; p < mNumAttributes; p++)
+		{
+			final double diff = norm(mQuery[p], p) - norm(mPoints[row + p], p);
+			distance += diff * diff;
+			if(distance > cutOff)
+				return Double.POSITIVE_INFINITY;
+		}
+		
+		return distance;
+	}
+	
+	/**
+	 * Normalizes the specified value of the specified attribute, same as {@code NormalizableDistance.norm}.
+	 */
+	private double norm(double x, int p)
+	{
+		if(Double.isNaN(mMin[p]) || mMax[p] == mMin[p])
+			return 0;
+		return (x - mMin[p]) / mWidth[p];
+	}
+	
+	/**
+	 * Adds an element to the heap of neighbours.
+	 */
+	private void push(double distance, int clazz)
+	{
+		int j = mHeapSize++;
+		while(j > 0)
+		{
+			final int parent = (j - 1) >>> 1;
+			if(!(mHeapDistance[parent] < distance))
+				break;
+			mHeapDistance[j] = mHeapDistance[parent];
+			mHeapClass[j] = mHeapClass[parent];
+			j = parent;
+		}
+		mHeapDistance[j] = distance;
+		mHeapClass[j] = clazz;
+	}
+	
+	/**
+	 * Removes the neighbour with the largest distance from the heap.
+	 */
+	private void pop()
+	{
+		final double distance = mHeapDistance[--mHeapSize];
+		final int clazz = mHeapClass[mHeapSize];
+		int j = 0;
+		while(true)
+		{
+			int child = 2 * j + 1;
+			if(child >= mHeapSize)
+				break;
+			if(child + 1 < mHeapSize && mHeapDistance[child + 1] > mHeapDistance[child])
+				child++;
+			if(!(mHeapDistance[child] > distance))
+				break;
+			mHeapDistance[j] = mHeapDistance[child];
+			mHeapClass[j] = mHeapClass[child];
+			j = child;
+		}
+		mHeapDistance[j] = distance;
+		mHeapClass[j] = clazz;
+	}
+}
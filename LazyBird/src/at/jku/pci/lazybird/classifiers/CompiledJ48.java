@@ -0,0 +1,268 @@
+package at.jku.pci.lazybird.classifiers;
+
+import weka.classifiers.trees.J48;
+import weka.classifiers.trees.j48.BinC45Split;
+import weka.classifiers.trees.j48.C45Split;
+import weka.classifiers.trees.j48.ClassifierSplitModel;
+import weka.classifiers.trees.j48.ClassifierTree;
+import weka.classifiers.trees.j48.Distribution;
+import weka.core.Instances;
+import weka.core.Utils;
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+
+/**
+ * A {@link CompiledClassifier} for {@link J48} decision trees with numeric splits. The tree is flattened into
+ * parallel arrays, every node has a split attribute, a threshold and two child indices, or a class index for
+ * leaves.
+ * <p>
+ * The tree structure of a {@code J48} is not accessible, so it is read by reflection. Only trees with
+ * {@link C45Split} or {@link BinC45Split} nodes on numeric attributes are supported, which is what
+ * {@code J48} builds for the numeric features of this application.
+ * <p>
+ * Splits and leaves are evaluated the same way as by {@link ClassifierTree#classifyInstance(weka.core.Instance)
+ * ClassifierTree.classifyInstance}: a value goes to the first subset if it is less than or equal to the
+ * threshold according to {@link Utils#smOrEq(double, double)}, and the class with the highest probability
+ * in a leaf is determined using {@link Utils#gr(double, double)}. Missing values are not supported.
+ * 
+ * @author Peter
+ */
+public class CompiledJ48 implements CompiledClassifier
+{
+	private static final long serialVersionUID = -2617338427066542270L;
+	
+	// Attribute is -1 for leaves, the class is only valid for leaves
+	private final int[] mAttribute;
+	private final double[] mThreshold;
+	private final int[] mLeft;
+	private final int[] mRight;
+	private final int[] mClass;
+	
+	private CompiledJ48(Builder b)
+	{
+		final int size = b.attribute.size();
+		mAttribute = new int[size];
+		mThreshold = new double[size];
+		mLeft = new int[size];
+		mRight = new int[size];
+		mClass = new int[size];
+		
+		for(int j = 0; j < size; j++)
+		{
+			mAttribute[j] = b.attribute.get(j);
+			mThreshold[j] = b.threshold.get(j);
+			mLeft[j] = b.left.get(j);
+			mRight[j] = b.right.get(j);
+			mClass[j] = b.clazz.get(j);
+		}
+	}
+	
+	/**
+	 * Compiles the specified decision tree.
+	 * 
+	 * @param tree the trained tree to compile.
+	 * @param header the header of the training set of {@code tree}.
+	 * @return the compiled tree, or {@code null} if the tree cannot be compiled.
+	 */
+	public static CompiledJ48 compile(J48 tree, Instances header)
+	{
+		try
+		{
+			final ClassifierTree root = (ClassifierTree)getField(J48.class, "m_root").get(tree);
+			if(root == null)
+				return null;
+			
+			final Builder b = new Builder(header);
+			if(b.add(root) < 0)
+				return null;
+			
+			return new CompiledJ48(b);
+		}
+		catch(NoSuchFieldException ex)
+		{
+			return null;
+		}
+		catch(IllegalAccessException ex)
+		{
+			return null;
+		}
+	}
+	
+	/**
+	 * Gets the number of nodes, including leaves, of this tree.
+	 */
+	public int size()
+	{
+		return mAttribute.length;
+	}
+	
+	@Override
+	public int classify(double[] values)
+	{
+		int node = 0;
+		while(mAttribute[node] >= 0)
+		{
+			final double value = values[mAttribute[node]];
+			if(Double.isNaN(value))
+				return -1;
+			
+			// Same as Utils.smOrEq(value, threshold)
+			node = value - mThreshold[node] < Utils.SMALL ? mLeft[node] : mRight[node];
+		}
+		
+		return mClass[node];
+	}
+	
+	/**
+	 * Gets the specified declared field of the specified class or one of its superclasses and makes it
+	 * accessible.
+	 */
+	static Field getField(Class<?> c, String name) throws NoSuchFieldException
+	{
+		for(Class<?> k = c; k != null; k = k.getSuperclass())
+		{
+			try
+			{
+				final Field f = k.getDeclaredField(name);
+				f.setAccessible(true);
+				return f;
+			}
+			catch(NoSuchFieldException ex)
+			{
+				// Try the superclass
+			}
+		}
+		
+		throw new NoSuchFieldException(name);
+	}
+	
+	/**
+	 * Collects the nodes of a tree while walking it.
+	 * 
+	 * @author Peter
+	 */
+	private static class Builder
+	{
+		private final Instances mHeader;
+		private final Field mIsLeaf;
+		private final Field mIsEmpty;
+		private final Field mSons;
+		private final Field mLocalModel;
+		private final Field mAttIndex;
+		private final Field mSplitPoint;
+		private final Field mBinAttIndex;
+		private final Field mBinSplitPoint;
+		
+		public final ArrayList<Integer> attribute = new ArrayList<Integer>();
+		public final ArrayList<Double> threshold = new ArrayList<Double>();
+		public final ArrayList<Integer> left = new ArrayList<Integer>();
+		public final ArrayList<Integer> right = new ArrayList<Integer>();
+		public final ArrayList<Integer> clazz = new ArrayList<Integer>();
+		
+		public Builder(Instances header) throws NoSuchFieldException
+		{
+			mHeader = header;
+			mIsLeaf = getField(ClassifierTree.class, "m_isLeaf");
+			mIsEmpty = getField(ClassifierTree.class, "m_isEmpty");
+			mSons = getField(ClassifierTree.class, "m_sons");
+			mLocalModel = getField(ClassifierTree.class, "m_localModel");
+			mAttIndex = getField(C45Split.class, "m_attIndex");
+			mSplitPoint = getField(C45Split.class, "m_splitPoint");
+			mBinAttIndex = getField(BinC45Split.class, "m_attIndex");
+			mBinSplitPoint = getField(BinC45Split.class, "m_splitPoint");
+		}
+		
+		/**
+		 * Adds the specified node and all of its children.
+		 * 
+		 * @return the index of the node, or {@code -1} if the node cannot be compiled.
+		 */
+		public int add(ClassifierTree node) throws IllegalAccessException
+		{
+			final ClassifierSplitModel model = (ClassifierSplitModel)mLocalModel.get(node);
+			final Distribution dist = model.distribution();
+			
+			if(mIsLeaf.getBoolean(node))
+				return addLeaf(dist, -1);
+			
+			// Only binary splits on numeric attributes, both split types work the same for those
+			final int attIndex;
+			final double splitPoint;
+			if(model.getClass() == C45Split.class)
+			{
+				attIndex = mAttIndex.getInt(model);
+				splitPoint = mSplitPoint.getDouble(model);
+			}
+			else if(model.getClass() == BinC45Split.class)
+			{
+				attIndex = mBinAttIndex.getInt(model);
+				splitPoint = mBinSplitPoint.getDouble(model);
+			}
+			else
+				return -1;
+			
+			if(model.numSubsets() != 2 || attIndex == mHeader.classIndex() ||
+					!mHeader.attribute(attIndex).isNumeric())
+				return -1;
+			
+			final int index = attribute.size();
+			attribute.add(attIndex);
+			threshold.add(splitPoint);
+			left.add(-1);
+			right.add(-1);
+			clazz.add(-1);
+			
+			final ClassifierTree[] sons = (ClassifierTree[])mSons.get(node);
+			for(int j = 0; j < 2; j++)
+			{
+				// Empty sons use the distribution of the split, see ClassifierTree.getProbs
+				final int son;
+				if(mIsEmpty.getBoolean(sons[j]))
+					son = addLeaf(dist, j);
+				else
+					son = add(sons[j]);
+				
+				if(son < 0)
+					return -1;
+				if(j == 0)
+					left.set(index, son);
+				else
+					right.set(index, son);
+			}
+			
+			return index;
+		}
+		
+		/**
+		 * Adds a leaf with the class of the highest probability in the specified distribution.
+		 * 
+		 * @param subset the subset of the distribution to use, or {@code -1} to use all of it.
+		 * @return the index of the leaf.
+		 */
+		private int addLeaf(Distribution dist, int subset)
+		{
+			// Same as C45Split.classProb and BinC45Split.classProb for subsets without weight
+			final boolean useSubset = subset >= 0 && Utils.gr(dist.perBag(subset), 0);
+			
+			double maxProb = -1;
+			int maxIndex = 0;
+			for(int j = 0; j < dist.numClasses(); j++)
+			{
+				final double prob = useSubset ? dist.prob(j, subset) : dist.prob(j);
+				if(Utils.gr(prob, maxProb))
+				{
+					maxIndex = j;
+					maxProb = prob;
+				}
+			}
+			
+			final int index = attribute.size();
+			attribute.add(-1);
+			threshold.add(0.0);
+			left.add(-1);
+			right.add(-1);
+			clazz.add(maxIndex);
+			return index;
+		}
+	}
+}
@@ -0,0 +1,210 @@
+package at.jku.pci.lazybird.classifiers;
+
+import weka.classifiers.bayes.NaiveBayes;
+import weka.estimators.DiscreteEstimator;
+import weka.estimators.Estimator;
+import weka.estimators.NormalEstimator;
+import weka.core.Instances;
+
+/**
+ * A {@link CompiledClassifier} for {@link NaiveBayes} classifiers with normal distributions for numeric
+ * attributes. The parameters of every distribution are stored as constants in log space, so a feature vector
+ * is scored by a sum of squares for every class, without allocating anything.
+ * <p>
+ * {@code NaiveBayes} uses the probability of the interval of the estimator precision around a value, which is
+ * the difference of two values of the normal distribution function. The compiled classifier uses the density
+ * at the center of the interval times its width instead, and keeps a bound of the error for every class.<br>
+ * For values far above the mean, the difference computed by {@code NaiveBayes} is mostly rounding error, and
+ * it is limited to at least {@code 1e-75} anyway. Probabilities below {@code 1e-10} are therefore only known
+ * to be somewhere between those limits.
+ * <p>
+ * A class is only predicted if its lowest possible score is higher than the highest possible score of every
+ * other class by at least {@link #MARGIN}, so the prediction is the same as that of {@code NaiveBayes}.
+ * Otherwise the original classifier has to be used.
+ * <p>
+ * Only {@code NaiveBayes} without kernel estimators and discretization, with a nominal class, numeric
+ * attributes and attribute weights of 1 are supported.
+ * 
+ * @author Peter
+ */
+public class CompiledNaiveBayes implements CompiledClassifier
+{
+	private static final long serialVersionUID = -3590815279564136584L;
+	
+	/**
+	 * The minimum difference of the log scores of the predicted class and every other class, to allow for
+	 * rounding errors of {@code NaiveBayes}.
+	 */
+	public static final double MARGIN = 1e-3;
+	
+	// Lower limit for probabilities, same as NaiveBayes.distributionForInstance
+	private static final double LOG_MIN_PROBABILITY = Math.log(1e-75);
+	// Probabilities below this are not calculated accurately by NaiveBayes
+	private static final double LOG_TAIL_PROBABILITY = Math.log(1e-10);
+	private static final double LOG_SQRT_2PI = 0.5 * Math.log(2 * Math.PI);
+	
+	private final int mClassIndex;
+	private final int mNumClasses;
+	private final int mNumAttributes;
+	
+	// Log prior probabilities by class
+	private final double[] mLogPrior;
+	// Precision of the estimators by attribute, the same for all classes
+	private final double[] mPrecision;
+	// Distribution parameters by attribute and class, attribute-major
+	private final double[] mMean;
+	private final double[] mInvStdDev;
+	private final double[] mLogNorm;
+	// Squared precision in standard deviations, for the error bounds
+	private final double[] mWidthSq;
+	
+	private CompiledNaiveBayes(Instances header, double[] logPrior, double[] precision, double[] mean,
+			double[] invStdDev, double[] logNorm, double[] widthSq)
+	{
+		mClassIndex = header.classIndex();
+		mNumClasses = header.numClasses();
+		mNumAttributes = header.numAttributes() - 1;
+		mLogPrior = logPrior;
+		mPrecision = precision;
+		mMean = mean;
+		mInvStdDev = invStdDev;
+		mLogNorm = logNorm;
+		mWidthSq = widthSq;
+	}
+	
+	/**
+	 * Compiles the specified naive Bayes classifier.
+	 * 
+	 * @param nb the trained classifier to compile.
+	 * @param header the header of the training set of {@code nb}.
+	 * @return the compiled classifier, or {@code null} if the options of {@code nb} or the attributes are not
+	 *         supported.
+	 */
+	public static CompiledNaiveBayes compile(NaiveBayes nb, Instances header)
+	{
+		if(nb.getUseKernelEstimator() || nb.getUseSupervisedDiscretization() ||
+				!header.classAttribute().isNominal())
+			return null;
+		for(int a = 0; a < header.numAttributes(); a++)
+		{
+			if(a != header.classIndex() &&
+					(!header.attribute(a).isNumeric() || header.attribute(a).weight() != 1.0))
+				return null;
+		}
+		
+		try
+		{
+			final Estimator[][] distributions =
+					(Estimator[][])CompiledJ48.getField(NaiveBayes.class, "m_Distributions").get(nb);
+			final Estimator classDistribution =
+					(Estimator)CompiledJ48.getField(NaiveBayes.class, "m_ClassDistribution").get(nb);
+			if(distributions == null || !(classDistribution instanceof DiscreteEstimator))
+				return null;
+			
+			final int numClasses = header.numClasses();
+			final int numAttributes = header.numAttributes() - 1;
+			final double[] logPrior = new double[numClasses];
+			for(int j = 0; j < numClasses; j++)
+				logPrior[j] = Math.log(classDistribution.getProbability(j));
+			
+			final double[] precision = new double[numAttributes];
+			final double[] mean = new double[numAttributes * numClasses];
+			final double[] invStdDev = new double[numAttributes * numClasses];
+			final double[] logNorm = new double[numAttributes * numClasses];
+			final double[] widthSq = new double[numAttributes * numClasses];
+			for(int a = 0; a < numAttributes; a++)
+			{
+				for(int j = 0; j < numClasses; j++)
+				{
+					if(!(distributions[a][j] instanceof NormalEstimator))
+						return null;
+					
+					final NormalEstimator e = (NormalEstimator)distributions[a][j];
+					final int k = a * numClasses + j;
+					precision[a] = e.getPrecision();
+					mean[k] = e.getMean();
+					invStdDev[k] = 1 / e.getStdDev();
+					// Log of the width of the interval times the density at its center
+					final double width = e.getPrecision() / e.getStdDev();
+					logNorm[k] = Math.log(width) - LOG_SQRT_2PI;
+					widthSq[k] = width * width;
+				}
+			}
+			
+			return new CompiledNaiveBayes(header, logPrior, precision, mean, invStdDev, logNorm, widthSq);
+		}
+		catch(NoSuchFieldException ex)
+		{
+			return null;
+		}
+		catch(IllegalAccessException ex)
+		{
+			return null;
+		}
+	}
+	
+	@Override
+	public int classify(double[] values)
+	{
+		// Class with the highest lower bound and the two highest upper bounds, kept in locals so nothing is
+		// allocated
+		int best = -1;
+		double bestLower = Double.NEGATIVE_INFINITY;
+		int maxUpperIndex = -1;
+		double maxUpper = Double.NEGATIVE_INFINITY;
+		double secondUpper = Double.NEGATIVE_INFINITY;
+		
+		for(int j = 0; j < mNumClasses; j++)
+		{
+			double lower = mLogPrior[j];
+			double upper = mLogPrior[j];
+			for(int a = 0, v = 0; a < mNumAttributes; a++, v++)
+			{
+				if(v == mClassIndex)
+					v++;
+				
+				// Same rounding as NormalEstimator.getProbability
+				final double x = Math.rint(values[v] / mPrecision[a]) * mPrecision[a];
+				final int k = a * mNumClasses + j;
+				final double z = (x - mMean[k]) * mInvStdDev[k];
+				final double logProb = mLogNorm[k] - 0.5 * z * z;
+				
+				// With the width w of the interval in standard deviations, the log of its probability differs
+				// from logProb by at least -w^2/8 and at most log(sinh(u)/u) <= u^2/6 with u = zw/2
+				final double errorUpper = z * z * mWidthSq[k] / 24;
+				final double errorLower = mWidthSq[k] / 8;
+				if(logProb + errorUpper < LOG_TAIL_PROBABILITY)
+				{
+					lower += LOG_MIN_PROBABILITY;
+					upper += LOG_TAIL_PROBABILITY;
+				}
+				else
+				{
+					lower += Math.max(logProb - errorLower, LOG_MIN_PROBABILITY);
+					upper += logProb + errorUpper;
+				}
+			}
+			
+			if(Double.isNaN(lower) || Double.isNaN(upper))
+				return -1;
+			if(lower > bestLower)
+			{
+				bestLower = lower;
+				best = j;
+			}
+			if(upper > maxUpper)
+			{
+				secondUpper = maxUpper;
+				maxUpper = upper;
+				maxUpperIndex = j;
+			}
+			else if(upper > secondUpper)
+				secondUpper = upper;
+		}
+		
+		final double otherUpper = maxUpperIndex == best ? secondUpper : maxUpper;
+		if(best < 0 || bestLower - otherUpper < MARGIN)
+			return -1;
+		return best;
+	}
+}
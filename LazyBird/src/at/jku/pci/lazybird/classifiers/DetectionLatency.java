@@ -0,0 +1,141 @@
+package at.jku.pci.lazybird.classifiers;
+
+/**
+ * Measures the detection latency of a smoothed classification, that is the time between the first window
+ * predicting a new class and the smoothed class changing to it.
+ * <p>
+ * A new class counts as starting with the first window predicting it after the last window predicting the
+ * current smoothed class, so predictions of a class interrupted by the current class again don't count.
+ * <p>
+ * Predictions and changes are added by one thread, the statistics may be read from any thread.
+ * 
+ * @author Peter
+ */
+public class DetectionLatency
+{
+	private static final long NONE = Long.MIN_VALUE;
+	
+	// Time of the first prediction of every class since the current class was last predicted
+	private final long[] mOnsets;
+	private int mCurrent = -1;
+	
+	private long mCount = 0;
+	private long mSum = 0;
+	private long mMin = Long.MAX_VALUE;
+	private long mMax = 0;
+	private long mLast = 0;
+	
+	/**
+	 * Initializes a new instance of the {@link DetectionLatency} class.
+	 * 
+	 * @param numClasses the number of classes.
+	 */
+	public DetectionLatency(int numClasses)
+	{
+		mOnsets = new long[numClasses];
+		clearOnsets();
+	}
+	
+	private void clearOnsets()
+	{
+		for(int j = 0; j < mOnsets.length; j++)
+			mOnsets[j] = NONE;
+	}
+	
+	/**
+	 * Adds the unsmoothed prediction of a window.
+	 * 
+	 * @param time the time of the window in milliseconds.
+	 * @param clazz the index of the predicted class.
+	 */
+	public void addPrediction(long time, int clazz)
+	{
+		if(clazz == mCurrent)
+			clearOnsets();
+		else if(mOnsets[clazz] == NONE)
+			mOnsets[clazz] = time;
+	}
+	
+	/**
+	 * Adds a change of the smoothed class. The first change is not counted, since there is no previous class
+	 * to begin with.
+	 * 
+	 * @param time the time of the window that changed the smoothed class in milliseconds.
+	 * @param clazz the index of the new smoothed class.
+	 */
+	public void addChange(long time, int clazz)
+	{
+		if(mCurrent >= 0 && mOnsets[clazz] != NONE)
+		{
+			final long latency = time - mOnsets[clazz];
+			synchronized(this)
+			{
+				mCount++;
+				mSum += latency;
+				mMin = Math.min(mMin, latency);
+				mMax = Math.max(mMax, latency);
+				mLast = latency;
+			}
+		}
+		
+		mCurrent = clazz;
+		clearOnsets();
+	}
+	
+	/**
+	 * Forgets the current class and the predictions so far, e.g. when the timestamps start over. The
+	 * statistics are kept.
+	 */
+	public void reset()
+	{
+		mCurrent = -1;
+		clearOnsets();
+	}
+	
+	/**
+	 * Gets the number of changes measured.
+	 */
+	public synchronized long getCount()
+	{
+		return mCount;
+	}
+	
+	/**
+	 * Gets the mean latency in milliseconds, or {@code 0} if no change was measured.
+	 */
+	public synchronized long getMean()
+	{
+		return mCount > 0 ? mSum / mCount : 0;
+	}
+	
+	/**
+	 * Gets the minimum latency in milliseconds, or {@code 0} if no change was measured.
+	 */
+	public synchronized long getMin()
+	{
+		return mCount > 0 ? mMin : 0;
+	}
+	
+	/**
+	 * Gets the maximum latency in milliseconds.
+	 */
+	public synchronized long getMax()
+	{
+		return mMax;
+	}
+	
+	/**
+	 * Gets the latency of the last change measured in milliseconds.
+	 */
+	public synchronized long getLast()
+	{
+		return mLast;
+	}
+	
+	@Override
+	public synchronized String toString()
+	{
+		return "mean " + getMean() + " ms, min " + getMin() + " ms, max " + mMax + " ms, last " + mLast +
+				" ms, " + mCount + " changes";
+	}
+}
@@ -0,0 +1,83 @@
+package at.jku.pci.lazybird.classifiers;
+
+/**
+ * An {@link ActivitySmoother} that keeps an exponential moving average of the class probabilities and reports
+ * the class with the highest average. Predictions without probabilities are counted as probability {@code 1}
+ * for the predicted class. If several classes have the highest average, the previous class is kept.
+ * 
+ * @author Peter
+ */
+public class ExponentialSmoother implements ActivitySmoother
+{
+	private final double mAlpha;
+	private final double[] mAverage;
+	
+	private boolean mEmpty = true;
+	private int mCurrent = -1;
+	
+	/**
+	 * Initializes a new instance of the {@link ExponentialSmoother} class.
+	 * 
+	 * @param numClasses the number of classes.
+	 * @param alpha the weight of the newest prediction, between {@code 0} exclusive and {@code 1} inclusive.
+	 * @exception IllegalArgumentException if {@code numClasses} is less than {@code 1} or {@code alpha} is out
+	 *            of range.
+	 */
+	public ExponentialSmoother(int numClasses, double alpha)
+	{
+		if(numClasses < 1)
+			throw new IllegalArgumentException("numClasses must be at least 1.");
+		if(!(alpha > 0 && alpha <= 1))
+			throw new IllegalArgumentException("alpha must be greater than 0 and at most 1.");
+		
+		mAlpha = alpha;
+		mAverage = new double[numClasses];
+	}
+	
+	/**
+	 * Gets the weight of the newest prediction.
+	 */
+	public double getAlpha()
+	{
+		return mAlpha;
+	}
+	
+	@Override
+	public boolean usesDistribution()
+	{
+		return true;
+	}
+	
+	@Override
+	public int add(int clazz, double[] distribution)
+	{
+		// The first prediction is taken as it is, instead of averaging with zeros
+		final double alpha = mEmpty ? 1.0 : mAlpha;
+		mEmpty = false;
+		
+		for(int j = 0; j < mAverage.length; j++)
+		{
+			final double p = distribution != null ? distribution[j] : (j == clazz ? 1.0 : 0.0);
+			mAverage[j] += alpha * (p - mAverage[j]);
+		}
+		
+		int best = mCurrent;
+		for(int j = 0; j < mAverage.length; j++)
+		{
+			if(best < 0 || mAverage[j] > mAverage[best])
+				best = j;
+		}
+		
+		mCurrent = best;
+		return mCurrent;
+	}
+	
+	@Override
+	public void reset()
+	{
+		for(int j = 0; j < mAverage.length; j++)
+			mAverage[j] = 0;
+		mEmpty = true;
+		mCurrent = -1;
+	}
+}
@@ -0,0 +1,99 @@
+package at.jku.pci.lazybird.classifiers;
+
+/**
+ * An {@link ActivitySmoother} that treats the activity as the hidden state of a Markov chain and reports the
+ * last state of the most likely state sequence, like an online Viterbi decoder.
+ * <p>
+ * Staying in the same state is free, while every change of state costs a fixed amount in log-likelihood, the
+ * switch cost. The class probabilities of a window are used as the likelihood of every state, limited to at
+ * least {@link #MIN_PROBABILITY}, so a single confident misclassification can't outweigh the switch cost.
+ * Predictions without probabilities are counted as probability {@code 1} for the predicted class.<br>
+ * Because the switch cost is the same for all pairs of classes, a step of the decoder only needs the best
+ * score of the previous step, so it takes linear time in the number of classes.
+ * 
+ * @author Peter
+ */
+public class ForwardFilterSmoother implements ActivitySmoother
+{
+	/**
+	 * The lower limit of the likelihood of a state.
+	 */
+	public static final double MIN_PROBABILITY = 0.01;
+	
+	private static final double LOG_MIN_PROBABILITY = Math.log(MIN_PROBABILITY);
+	
+	private final double mSwitchCost;
+	// Log-likelihood of the best sequence ending in each state, relative to the best sequence overall
+	private final double[] mScores;
+	
+	private int mCurrent = -1;
+	
+	/**
+	 * Initializes a new instance of the {@link ForwardFilterSmoother} class.
+	 * 
+	 * @param numClasses the number of classes.
+	 * @param switchCost the cost of a change of state in log-likelihood, at least {@code 0}.
+	 * @exception IllegalArgumentException if {@code numClasses} is less than {@code 1} or {@code switchCost}
+	 *            is negative.
+	 */
+	public ForwardFilterSmoother(int numClasses, double switchCost)
+	{
+		if(numClasses < 1)
+			throw new IllegalArgumentException("numClasses must be at least 1.");
+		if(!(switchCost >= 0))
+			throw new IllegalArgumentException("switchCost cannot be negative.");
+		
+		mSwitchCost = switchCost;
+		mScores = new double[numClasses];
+	}
+	
+	/**
+	 * Gets the cost of a change of state in log-likelihood.
+	 */
+	public double getSwitchCost()
+	{
+		return mSwitchCost;
+	}
+	
+	@Override
+	public boolean usesDistribution()
+	{
+		return true;
+	}
+	
+	@Override
+	public int add(int clazz, double[] distribution)
+	{
+		// Scores are relative to the previous best, so the best score is 0 and switching to a state starts at
+		// -mSwitchCost. Before the first prediction, all scores are 0 so any state may be the first.
+		final double switched = mCurrent < 0 ? 0.0 : -mSwitchCost;
+		int best = -1;
+		for(int j = 0; j < mScores.length; j++)
+		{
+			final double p = distribution != null ? distribution[j] : (j == clazz ? 1.0 : 0.0);
+			final double logP = p > MIN_PROBABILITY ? Math.log(p) : LOG_MIN_PROBABILITY;
+			mScores[j] = Math.max(mScores[j], switched) + logP;
+			if(best < 0 || mScores[j] > mScores[best])
+				best = j;
+		}
+		
+		// Keep the previous state on ties
+		if(mCurrent >= 0 && mScores[mCurrent] >= mScores[best])
+			best = mCurrent;
+		
+		final double max = mScores[best];
+		for(int j = 0; j < mScores.length; j++)
+			mScores[j] -= max;
+		
+		mCurrent = best;
+		return mCurrent;
+	}
+	
+	@Override
+	public void reset()
+	{
+		for(int j = 0; j < mScores.length; j++)
+			mScores[j] = 0;
+		mCurrent = -1;
+	}
+}
@@ -0,0 +1,75 @@
+package at.jku.pci.lazybird.classifiers;
+
+/**
+ * An {@link ActivitySmoother} that only changes the class if a different class has been predicted for a number
+ * of consecutive windows. A single prediction of any other class starts the count over.
+ * 
+ * @author Peter
+ */
+public class HysteresisSmoother implements ActivitySmoother
+{
+	private final int mRequired;
+	
+	private int mCurrent = -1;
+	private int mCandidate = -1;
+	private int mCount = 0;
+	
+	/**
+	 * Initializes a new instance of the {@link HysteresisSmoother} class.
+	 * 
+	 * @param required the number of equal predictions following the first prediction of a different class
+	 *        that are required to change the class.
+	 * @exception IllegalArgumentException if {@code required} is negative.
+	 */
+	public HysteresisSmoother(int required)
+	{
+		if(required < 0)
+			throw new IllegalArgumentException("required cannot be negative.");
+		
+		mRequired = required;
+	}
+	
+	/**
+	 * Gets the number of equal predictions following the first prediction of a different class that are
+	 * required to change the class.
+	 */
+	public int getRequired()
+	{
+		return mRequired;
+	}
+	
+	@Override
+	public boolean usesDistribution()
+	{
+		return false;
+	}
+	
+	@Override
+	public int add(int clazz, double[] distribution)
+	{
+		if(clazz == mCurrent)
+			mCount = 0;
+		else if(clazz == mCandidate)
+		{
+			if(++mCount >= mRequired)
+				mCurrent = clazz;
+		}
+		else
+		{
+			mCandidate = clazz;
+			mCount = 0;
+			if(mRequired == 0)
+				mCurrent = clazz;
+		}
+		
+		return mCurrent;
+	}
+	
+	@Override
+	public void reset()
+	{
+		mCurrent = -1;
+		mCandidate = -1;
+		mCount = 0;
+	}
+}
@@ -0,0 +1,79 @@
+package at.jku.pci.lazybird.classifiers;
+
+/**
+ * An {@link ActivitySmoother} that reports the class predicted for more than half of the last windows. The
+ * predictions are kept in a ring buffer together with the number of votes for every class, so adding a
+ * prediction only updates two counts. If no class has the majority, the previous class is kept.
+ * 
+ * @author Peter
+ */
+public class MajorityVoteSmoother implements ActivitySmoother
+{
+	private final int[] mRing;
+	private final int[] mVotes;
+	
+	private int mNext = 0;
+	private int mSize = 0;
+	private int mCurrent = -1;
+	
+	/**
+	 * Initializes a new instance of the {@link MajorityVoteSmoother} class.
+	 * 
+	 * @param numClasses the number of classes.
+	 * @param windows the number of windows to vote over.
+	 * @exception IllegalArgumentException if {@code numClasses} or {@code windows} is less than {@code 1}.
+	 */
+	public MajorityVoteSmoother(int numClasses, int windows)
+	{
+		if(numClasses < 1)
+			throw new IllegalArgumentException("numClasses must be at least 1.");
+		if(windows < 1)
+			throw new IllegalArgumentException("windows must be at least 1.");
+		
+		mRing = new int[windows];
+		mVotes = new int[numClasses];
+	}
+	
+	/**
+	 * Gets the number of windows to vote over.
+	 */
+	public int getWindows()
+	{
+		return mRing.length;
+	}
+	
+	@Override
+	public boolean usesDistribution()
+	{
+		return false;
+	}
+	
+	@Override
+	public int add(int clazz, double[] distribution)
+	{
+		if(mSize == mRing.length)
+			mVotes[mRing[mNext]]--;
+		else
+			mSize++;
+		mRing[mNext] = clazz;
+		mVotes[clazz]++;
+		if(++mNext == mRing.length)
+			mNext = 0;
+		
+		// Only the class just added can have gained the majority
+		if(mVotes[clazz] * 2 > mRing.length)
+			mCurrent = clazz;
+		
+		return mCurrent;
+	}
+	
+	@Override
+	public void reset()
+	{
+		for(int j = 0; j < mVotes.length; j++)
+			mVotes[j] = 0;
+		mNext = 0;
+		mSize = 0;
+		mCurrent = -1;
+	}
+}
@@ -0,0 +1,444 @@
+package at.jku.pci.lazybird.classifiers;
+
+import at.jku.pci.lazybird.classifiers.ClassificationPipeline.PipelineListener;
+import at.jku.pci.lazybird.features.AdaptiveScheduler;
+import at.jku.pci.lazybird.features.BinarySampleEncoder;
+import at.jku.pci.lazybird.features.FeatureExtractor;
+import at.jku.pci.lazybird.features.RecordingSession;
+import at.jku.pci.lazybird.features.SampleReader;
+import weka.classifiers.Classifier;
+import weka.core.Attribute;
+import weka.core.Instance;
+import weka.core.Instances;
+import weka.core.Utils;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Replays recordings through a {@link ClassificationPipeline}, as fast as possible or at a multiple of the
+ * recorded speed, to measure the throughput and accuracy of the live classification without a device.
+ * <p>
+ * The predicted activity changes are printed as they happen. If a recording has a class, every sample whose
+ * class equals the smoothed activity at that time counts as correct, so the accuracy includes the detection
+ * latency.
+ * <p>
+ * This class can be run from the command line on a JVM, see {@link #main(String[])} for the options.
+ * 
+ * @author Peter
+ */
+public class ReplayEngine implements PipelineListener
+{
+	private final ClassificationPipeline mPipeline;
+	private double mSpeed = 0;
+	private PrintStream mOutput = null;
+	
+	// State of the current recording
+	private String mName;
+	private long mStartTime;
+	private long mChanges;
+	
+	// Totals over all recordings
+	private long mSamples = 0;
+	private long mDuration = 0;
+	private long mNanos = 0;
+	private long mLabeled = 0;
+	private long mCorrect = 0;
+	private long mFailed = 0;
+	
+	/**
+	 * Initializes a new instance of the {@link ReplayEngine} class. The parameters are the same as for the
+	 * {@link ClassificationPipeline} constructor, except for the listener.
+	 */
+	public ReplayEngine(Classifier classifier, CompiledClassifier compiled, Instances header, int features,
+			int windowSize, int jumpSize, ActivitySmoother smoother, AdaptiveScheduler scheduler)
+	{
+		mPipeline = new ClassificationPipeline(classifier, compiled, header, features, windowSize, jumpSize,
+				smoother, scheduler, this);
+	}
+	
+	/**
+	 * Gets the pipeline the recordings are replayed through.
+	 */
+	public ClassificationPipeline getPipeline()
+	{
+		return mPipeline;
+	}
+	
+	/**
+	 * Gets the replay speed as a multiple of the recorded speed, {@code 0} means as fast as possible.
+	 */
+	public double getSpeed()
+	{
+		return mSpeed;
+	}
+	
+	/**
+	 * Sets the replay speed as a multiple of the recorded speed.
+	 * 
+	 * @param speed the speed, or {@code 0} to replay as fast as possible.
+	 * @exception IllegalArgumentException if {@code speed} is negative.
+	 */
+	public void setSpeed(double speed)
+	{
+		if(!(speed >= 0))
+			throw new IllegalArgumentException("speed cannot be negative.");
+		mSpeed = speed;
+	}
+	
+	/**
+	 * Sets the stream the activity changes are printed to.
+	 * 
+	 * @param output the stream, or {@code null} to not print changes.
+	 */
+	public void setOutput(PrintStream output)
+	{
+		mOutput = output;
+	}
+	
+	/**
+	 * Gets the number of samples replayed.
+	 */
+	public long getSamples()
+	{
+		return mSamples;
+	}
+	
+	/**
+	 * Gets the recorded duration of all replayed recordings in ms.
+	 */
+	public long getDuration()
+	{
+		return mDuration;
+	}
+	
+	/**
+	 * Gets the time taken to replay all recordings in nanoseconds.
+	 */
+	public long getNanos()
+	{
+		return mNanos;
+	}
+	
+	/**
+	 * Gets the number of samples with a class.
+	 */
+	public long getLabeled()
+	{
+		return mLabeled;
+	}
+	
+	/**
+	 * Gets the number of samples with a class equal to the smoothed activity.
+	 */
+	public long getCorrect()
+	{
+		return mCorrect;
+	}
+	
+	/**
+	 * Gets the number of windows that could not be classified.
+	 */
+	public long getFailed()
+	{
+		return mFailed;
+	}
+	
+	/**
+	 * Replays a recording through the pipeline. The pipeline is reset before, so every recording starts
+	 * without an activity.
+	 * 
+	 * @param reader the recording to replay, it is not closed.
+	 * @param name the name of the recording for the output.
+	 * @return the number of activity changes.
+	 * @exception IOException if an error occurred reading the recording.
+	 * @exception InterruptedException if the thread was interrupted while waiting for the next sample.
+	 */
+	public long replay(SampleReader reader, String name) throws IOException, InterruptedException
+	{
+		mPipeline.reset();
+		mName = name;
+		mChanges = 0;
+		
+		// Map classes of the recording to those of the pipeline by name
+		final Instances structure = reader.getStructure();
+		final Attribute classes = mPipeline.getHeader().classAttribute();
+		int[] classMap = null;
+		if(structure.classIndex() >= 0)
+		{
+			final Attribute recorded = structure.classAttribute();
+			classMap = new int[recorded.numValues()];
+			for(int j = 0; j < classMap.length; j++)
+				classMap[j] = classes.indexOfValue(recorded.value(j));
+		}
+		
+		final long start = System.nanoTime();
+		final long startMillis = System.currentTimeMillis();
+		boolean first = true;
+		long lastTime = 0;
+		while(reader.next())
+		{
+			final long time = reader.getTime();
+			if(first)
+			{
+				mStartTime = time;
+				first = false;
+			}
+			lastTime = time;
+			
+			if(mSpeed > 0)
+			{
+				final long wait = startMillis + (long)((time - mStartTime) / mSpeed) - System.currentTimeMillis();
+				if(wait > 0)
+					Thread.sleep(wait);
+			}
+			
+			mPipeline.getMetrics().addSample();
+			mPipeline.add(time, reader.getX(), reader.getY(), reader.getZ(), System.currentTimeMillis());
+			mSamples++;
+			
+			final double clazz = reader.getClassValue();
+			if(classMap != null && !Instance.isMissingValue(clazz))
+			{
+				mLabeled++;
+				if(classMap[(int)clazz] >= 0 && classMap[(int)clazz] == mPipeline.getActivity())
+					mCorrect++;
+			}
+		}
+		
+		mNanos += System.nanoTime() - start;
+		if(!first)
+			mDuration += lastTime - mStartTime;
+		
+		return mChanges;
+	}
+	
+	@Override
+	public void onActivityChanged(int activity, long time)
+	{
+		mChanges++;
+		if(mOutput != null)
+		{
+			mOutput.println(mName + "\t" + (time - mStartTime) + "\t" +
+					mPipeline.getHeader().classAttribute().value(activity));
+		}
+	}
+	
+	@Override
+	public void onClassificationFailed(Exception ex)
+	{
+		mFailed++;
+	}
+	
+	/**
+	 * Prints the command line options.
+	 */
+	private static void printUsage()
+	{
+		System.err.println("Usage: ReplayEngine -t <classifier> [options] <recording or directory>...\n" +
+				"\n" +
+				"Options:\n" +
+				"-t <file>\tThe serialized classifier.\n" +
+				"-C <file>\tThe serialized compiled classifier. Default: the classifier file with\n" +
+				"\t\t" + ClassifierCompiler.EXTENSION + " extension, if it exists.\n" +
+				"-no-compiled\tDon't use a compiled classifier.\n" +
+				"-F <mask>\tThe features the classifier was trained with. Default: 0x21\n" +
+				"-c <classes>\tComma separated class values. Default: those of the first recording.\n" +
+				"-W <ms>\t\tThe window size. Default: 1000\n" +
+				"-J <ms>\t\tThe jump size. Default: 100\n" +
+				"-S <method>\tThe smoothing method, one of " + Arrays.toString(SmoothingMethod.values()) +
+				".\n\t\tDefault: HYSTERESIS\n" +
+				"-N <windows>\tThe number of smoothing windows. Default: 14\n" +
+				"-A <min,max,threshold>\tLower the classification rate while the signal is stable, with\n" +
+				"\t\tthe minimum and maximum interval in ms and the variance threshold.\n" +
+				"-x <speed>\tReplay at a multiple of the recorded speed. Default: 0, as fast as possible\n" +
+				"-T <start,end>\tSkip the first and last ms of every recording. Default: 0,0\n" +
+				"-q\t\tDon't print activity changes.");
+	}
+	
+	/**
+	 * Reads a serialized object from the specified file.
+	 */
+	private static Object deserialize(File file) throws IOException, ClassNotFoundException
+	{
+		final ObjectInputStream ois = new ObjectInputStream(new FileInputStream(file));
+		try
+		{
+			return ois.readObject();
+		}
+		finally
+		{
+			ois.close();
+		}
+	}
+	
+	/**
+	 * Replays recordings from the command line and prints the activity changes, the throughput and the
+	 * metrics of the pipeline. Run without arguments to print the options.
+	 * 
+	 * @param args the command line arguments.
+	 */
+	public static void main(String[] args)
+	{
+		try
+		{
+			final String classifierFile = Utils.getOption('t', args);
+			if(classifierFile.length() == 0)
+			{
+				printUsage();
+				System.exit(1);
+			}
+			
+			final Classifier classifier = (Classifier)deserialize(new File(classifierFile));
+			CompiledClassifier compiled = null;
+			if(!Utils.getFlag("no-compiled", args))
+			{
+				String compiledFile = Utils.getOption('C', args);
+				if(compiledFile.length() == 0)
+					compiledFile = ClassifierCompiler.getFilename(classifierFile);
+				if(new File(compiledFile).isFile())
+					compiled = (CompiledClassifier)deserialize(new File(compiledFile));
+			}
+			
+			final String features = Utils.getOption('F', args);
+			final String classes = Utils.getOption('c', args);
+			final String window = Utils.getOption('W', args);
+			final String jump = Utils.getOption('J', args);
+			final String smoothing = Utils.getOption('S', args);
+			final String windows = Utils.getOption('N', args);
+			final String adaptive = Utils.getOption('A', args);
+			final String speed = Utils.getOption('x', args);
+			final String trim = Utils.getOption('T', args);
+			final boolean quiet = Utils.getFlag('q', args);
+			
+			// Everything left are recordings or directories of recordings
+			final List<File> files = new ArrayList<File>();
+			for(String arg : args)
+			{
+				if(arg.length() == 0)
+					continue;
+				final File f = new File(arg);
+				if(f.isDirectory())
+				{
+					final File[] children = f.listFiles();
+					Arrays.sort(children);
+					for(File child : children)
+					{
+						final String name = child.getName().toLowerCase(Locale.US);
+						if(name.endsWith(".arff") || name.endsWith(BinarySampleEncoder.EXTENSION) ||
+								name.endsWith(RecordingSession.EXTENSION))
+							files.add(child);
+					}
+				}
+				else
+					files.add(f);
+			}
+			if(files.isEmpty())
+			{
+				printUsage();
+				System.exit(1);
+			}
+			
+			// Class values from the option or the first recording with a class
+			String[] classValues = null;
+			if(classes.length() > 0)
+				classValues = classes.split(",");
+			for(int j = 0; classValues == null && j < files.size(); j++)
+			{
+				final SampleReader reader = FeatureExtractor.openReader(files.get(j));
+				if(reader.getStructure().classIndex() >= 0)
+				{
+					final Attribute c = reader.getStructure().classAttribute();
+					classValues = new String[c.numValues()];
+					for(int k = 0; k < classValues.length; k++)
+						classValues[k] = c.value(k);
+				}
+				reader.close();
+			}
+			if(classValues == null)
+				throw new Exception("No recording has a class, the classes have to be specified with -c.");
+			
+			final int featureMask = features.length() > 0 ? Integer.decode(features) : 0x21;
+			final Instances header = ClassificationPipeline.buildHeader(featureMask, classValues);
+			final SmoothingMethod method =
+					smoothing.length() > 0 ? SmoothingMethod.valueOf(smoothing.toUpperCase(Locale.US)) :
+						SmoothingMethod.HYSTERESIS;
+			final ActivitySmoother smoother =
+					method.create(header.numClasses(), windows.length() > 0 ? Integer.parseInt(windows) : 14);
+			AdaptiveScheduler scheduler = null;
+			if(adaptive.length() > 0)
+			{
+				final String[] parts = adaptive.split(",");
+				if(parts.length != 3)
+					throw new Exception("-A needs the minimum interval, maximum interval and threshold.");
+				scheduler = new AdaptiveScheduler(Long.parseLong(parts[0]), Long.parseLong(parts[1]),
+						Double.parseDouble(parts[2]));
+			}
+			
+			final ReplayEngine engine = new ReplayEngine(classifier, compiled, header, featureMask,
+					window.length() > 0 ? Integer.parseInt(window) : 1000,
+					jump.length() > 0 ? Integer.parseInt(jump) : 100, smoother, scheduler);
+			if(speed.length() > 0)
+				engine.setSpeed(Double.parseDouble(speed));
+			if(!quiet)
+				engine.setOutput(System.out);
+			
+			long trimStart = 0;
+			long trimEnd = 0;
+			if(trim.length() > 0)
+			{
+				final String[] parts = trim.split(",");
+				if(parts.length != 2)
+					throw new Exception("-T needs the time to skip at the start and at the end.");
+				trimStart = Long.parseLong(parts[0]);
+				trimEnd = Long.parseLong(parts[1]);
+			}
+			
+			for(File f : files)
+			{
+				final SampleReader reader = FeatureExtractor.openTrimmedReader(f, trimStart, trimEnd);
+				try
+				{
+					engine.replay(reader, f.getName());
+				}
+				finally
+				{
+					reader.close();
+				}
+			}
+			
+			final double seconds = engine.getNanos() / 1e9;
+			System.out.println();
+			System.out.println(String.format(Locale.US, "Replayed %d samples (%.1f s recorded) in %.3f s: " +
+					"%.0f samples/s, %.1fx real time", engine.getSamples(), engine.getDuration() / 1000.0, seconds,
+					engine.getSamples() / seconds, engine.getDuration() / 1000.0 / seconds));
+			System.out.println("Classifier: " + classifier.getClass().getName() +
+					(compiled != null ? ", compiled" : "") + ", smoothing: " + method);
+			if(engine.getLabeled() > 0)
+			{
+				System.out.println(String.format(Locale.US, "Accuracy: %.2f%% of %d samples with a class",
+						engine.getCorrect() * 100.0 / engine.getLabeled(), engine.getLabeled()));
+			}
+			if(engine.getFailed() > 0)
+				System.out.println("Failed windows: " + engine.getFailed());
+			System.out.println("Detection latency: " + engine.getPipeline().getDetectionLatency());
+			if(scheduler != null)
+			{
+				System.out.println("Classified windows: " + scheduler.getClassified() + ", skipped: " +
+						scheduler.getSkipped());
+			}
+			System.out.println("Metrics: " + engine.getPipeline().getMetrics().getSnapshot(0, 0, 0));
+		}
+		catch(Exception ex)
+		{
+			ex.printStackTrace();
+			System.exit(1);
+		}
+	}
+}
@@ -0,0 +1,73 @@
+package at.jku.pci.lazybird.classifiers;
+
+/**
+ * Enum with the available {@link ActivitySmoother} implementations. All of them are configured by a single
+ * number of windows, which roughly determines how many windows of a new class it takes to change the smoothed
+ * class.
+ * 
+ * @author Peter
+ */
+public enum SmoothingMethod
+{
+	/**
+	 * Change the class after a number of consecutive equal predictions, see {@link HysteresisSmoother}.
+	 */
+	HYSTERESIS
+	{
+		@Override
+		public ActivitySmoother create(int numClasses, int windows)
+		{
+			return new HysteresisSmoother(windows);
+		}
+	},
+	
+	/**
+	 * Use the majority of the predictions of the last windows, see {@link MajorityVoteSmoother}.
+	 */
+	MAJORITY_VOTE
+	{
+		@Override
+		public ActivitySmoother create(int numClasses, int windows)
+		{
+			return new MajorityVoteSmoother(numClasses, windows);
+		}
+	},
+	
+	/**
+	 * Average the class probabilities with an exponential moving average with a span of the number of
+	 * windows, that is {@code alpha = 2 / (windows + 1)}, see {@link ExponentialSmoother}.
+	 */
+	EXPONENTIAL
+	{
+		@Override
+		public ActivitySmoother create(int numClasses, int windows)
+		{
+			return new ExponentialSmoother(numClasses, 2.0 / (windows + 1));
+		}
+	},
+	
+	/**
+	 * Decode the most likely sequence of classes, see {@link ForwardFilterSmoother}. The switch cost is that
+	 * of half the number of windows confidently predicting another class, so it takes about as long as
+	 * {@link #MAJORITY_VOTE} to change the class.
+	 */
+	FORWARD_FILTER
+	{
+		@Override
+		public ActivitySmoother create(int numClasses, int windows)
+		{
+			return new ForwardFilterSmoother(numClasses,
+					windows * -Math.log(ForwardFilterSmoother.MIN_PROBABILITY) / 2);
+		}
+	};
+	
+	/**
+	 * Creates a new smoother of this type.
+	 * 
+	 * @param numClasses the number of classes.
+	 * @param windows the number of windows, at least {@code 1}.
+	 * @return a new {@link ActivitySmoother}.
+	 * @exception IllegalArgumentException if {@code numClasses} or {@code windows} is less than {@code 1}.
+	 */
+	public abstract ActivitySmoother create(int numClasses, int windows);
+}
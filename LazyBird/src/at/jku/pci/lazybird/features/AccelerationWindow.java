@@ -0,0 +1,471 @@
+package at.jku.pci.lazybird.features;
+
+/**
+ * Represents a sliding window over acceleration samples with a defined window and jump size. This is a
+ * primitive specialization of {@link SlidingWindow}: samples are stored in parallel {@code long} and
+ * {@code float} arrays of a growable circular buffer instead of a list of {@link TimeInstance} objects, so
+ * that adding a sample does not allocate anything once the buffer has grown to the size needed for a
+ * window.
+ * <p>
+ * The window and jump semantics are the same as those of {@link SlidingWindow}, a listener can be
+ * registered to be notified when the window jumps as samples are added.
+ * <p>
+ * The window also maintains {@link RunningStatistics} of its samples, which are updated as samples enter
+ * and leave the window. Mean and variance features can therefore be calculated without iterating over the
+ * window.
+ * <p>
+ * Optionally, every sample is also passed through a {@link GravityFilter} before it enters the window, and
+ * separate statistics of the gravity and the magnitude of the body acceleration are maintained, see
+ * {@link #getSeparatedStatistics()}. Since training and classification both use this class, the features
+ * calculated from them are the same in both cases.
+ * 
+ * @see AccelerationListener
+ * @see SlidingWindow
+ * @see RunningStatistics
+ * @see GravityFilter
+ * @author Peter
+ */
+public class AccelerationWindow
+{
+	/**
+	 * Defines the interface that can be registered to be notified of window changes as samples are added to
+	 * an {@link AccelerationWindow}.
+	 * 
+	 * @author Peter
+	 */
+	public interface AccelerationListener
+	{
+		/**
+		 * Called, when the window changes.
+		 * <p>
+		 * The window should not be changed or kept after this method returns, its contents change with the
+		 * next sample added.
+		 * 
+		 * @param window the window that changed.
+		 */
+		public void onWindowChanged(AccelerationWindow window);
+	}
+	
+	/**
+	 * The initial capacity of the buffer, enough for a window of about one second at the fastest sensor
+	 * rate of most devices.
+	 */
+	private static final int INITIAL_CAPACITY = 256;
+	
+	private final int mWindowSize;
+	private final int mJumpSize;
+	private AccelerationListener mListener = null;
+	private long mNextJump;
+	
+	// Circular buffer, mHead is the index of the oldest sample
+	private long[] mTimes;
+	private float[] mX;
+	private float[] mY;
+	private float[] mZ;
+	private double[] mMagnitude;
+	// Only allocated if the gravity is separated
+	private float[] mGravityX;
+	private float[] mGravityY;
+	private float[] mGravityZ;
+	private double[] mBodyMagnitude;
+	private int mHead = 0;
+	private int mSize = 0;
+	private final RunningStatistics mStatistics;
+	private final GravityFilter mFilter;
+	private final RunningStatistics mSeparatedStatistics;
+	
+	/**
+	 * Initializes a new instance of the {@link AccelerationWindow} class with default window size (1000ms)
+	 * and jump size (100ms).
+	 */
+	public AccelerationWindow()
+	{
+		this(1000, 100);
+	}
+	
+	/**
+	 * Initializes a new instance of the {@link AccelerationWindow} class with the specified window and jump
+	 * size.
+	 * 
+	 * @param windowSize the window size in ms, needs to be greater than {@code 1}.
+	 * @param jumpSize the jump size in ms, needs to be at least {@code 1} and less than {@code windowSize}.
+	 * @exception IllegalArgumentException if {@code windowSize} is less than {@code 2}, {@code jumpSize} is
+	 *            less than {@code 1} or {@code windowSize} is less than {@code jumpSize}.
+	 */
+	public AccelerationWindow(int windowSize, int jumpSize)
+	{
+		this(windowSize, jumpSize, true);
+	}
+	
+	/**
+	 * Initializes a new instance of the {@link AccelerationWindow} class with the specified window and jump
+	 * size.
+	 * 
+	 * @param windowSize the window size in ms, needs to be greater than {@code 1}.
+	 * @param jumpSize the jump size in ms, needs to be at least {@code 1} and less than {@code windowSize}.
+	 * @param compensated whether the {@link RunningStatistics} of this window use compensated summation.
+	 * @exception IllegalArgumentException if {@code windowSize} is less than {@code 2}, {@code jumpSize} is
+	 *            less than {@code 1} or {@code windowSize} is less than {@code jumpSize}.
+	 */
+	public AccelerationWindow(int windowSize, int jumpSize, boolean compensated)
+	{
+		this(windowSize, jumpSize, compensated, false);
+	}
+	
+	/**
+	 * Initializes a new instance of the {@link AccelerationWindow} class with the specified window and jump
+	 * size.
+	 * 
+	 * @param windowSize the window size in ms, needs to be greater than {@code 1}.
+	 * @param jumpSize the jump size in ms, needs to be at least {@code 1} and less than {@code windowSize}.
+	 * @param compensated whether the {@link RunningStatistics} of this window use compensated summation.
+	 * @param separated whether to separate the gravity from the body acceleration, see
+	 *        {@link #getSeparatedStatistics()}.
+	 * @exception IllegalArgumentException if {@code windowSize} is less than {@code 2}, {@code jumpSize} is
+	 *            less than {@code 1} or {@code windowSize} is less than {@code jumpSize}.
+	 */
+	public AccelerationWindow(int windowSize, int jumpSize, boolean compensated, boolean separated)
+	{
+		if(windowSize < 2 || jumpSize < 1)
+			throw new IllegalArgumentException("Window and jump size need to be positive.");
+		if(windowSize < jumpSize)
+			throw new IllegalArgumentException("Jump size cannot be larger than window size.");
+		
+		mJumpSize = jumpSize;
+		mWindowSize = windowSize;
+		mTimes = new long[INITIAL_CAPACITY];
+		mX = new float[INITIAL_CAPACITY];
+		mY = new float[INITIAL_CAPACITY];
+		mZ = new float[INITIAL_CAPACITY];
+		mMagnitude = new double[INITIAL_CAPACITY];
+		mStatistics = new RunningStatistics(compensated);
+		
+		if(separated)
+		{
+			mGravityX = new float[INITIAL_CAPACITY];
+			mGravityY = new float[INITIAL_CAPACITY];
+			mGravityZ = new float[INITIAL_CAPACITY];
+			mBodyMagnitude = new double[INITIAL_CAPACITY];
+			mFilter = new GravityFilter();
+			mSeparatedStatistics = new RunningStatistics(compensated);
+		}
+		else
+		{
+			mFilter = null;
+			mSeparatedStatistics = null;
+		}
+	}
+	
+	/**
+	 * Initializes a new instance of the {@link AccelerationWindow} class with the specified window size, jump
+	 * size and listener.
+	 * 
+	 * @param windowSize the window size in ms, needs to be greater than {@code 1}.
+	 * @param jumpSize the jump size in ms, needs to be at least {@code 1} and less than {@code windowSize}.
+	 * @param listener the {@link AccelerationListener} to be registered, or {@code null}.
+	 * @exception IllegalArgumentException if {@code windowSize} is less than {@code 2}, {@code jumpSize} is
+	 *            less than {@code 1} or {@code windowSize} is less than {@code jumpSize}.
+	 */
+	public AccelerationWindow(int windowSize, int jumpSize, AccelerationListener listener)
+	{
+		this(windowSize, jumpSize);
+		mListener = listener;
+	}
+	
+	/**
+	 * Sets the {@link AccelerationListener} to be notified of changes to this {@code AccelerationWindow}.
+	 * 
+	 * @param listener the listener to set, or {@code null} to remove the listener.
+	 */
+	public void setWindowListener(AccelerationListener listener)
+	{
+		mListener = listener;
+	}
+	
+	/**
+	 * Gets the listener that will be notified of changes to this {@code AccelerationWindow}.
+	 */
+	public AccelerationListener getWindowListener()
+	{
+		return mListener;
+	}
+	
+	/**
+	 * Gets the window size of this {@code AccelerationWindow} in ms.
+	 */
+	public int getWindowSize()
+	{
+		return mWindowSize;
+	}
+	
+	/**
+	 * Gets the jump size of this {@code AccelerationWindow} in ms.
+	 */
+	public int getJumpSize()
+	{
+		return mJumpSize;
+	}
+	
+	/**
+	 * Gets the number of samples currently in this window.
+	 */
+	public int size()
+	{
+		return mSize;
+	}
+	
+	/**
+	 * Gets the timestamp of the sample with the specified index.
+	 * 
+	 * @param index the index of the sample, {@code 0} being the oldest one.
+	 * @exception IndexOutOfBoundsException if {@code index} is negative or not less than {@link #size()}.
+	 */
+	public long getTime(int index)
+	{
+		return mTimes[physicalIndex(index)];
+	}
+	
+	/**
+	 * Gets the X-axis value of the sample with the specified index.
+	 * 
+	 * @param index the index of the sample, {@code 0} being the oldest one.
+	 * @exception IndexOutOfBoundsException if {@code index} is negative or not less than {@link #size()}.
+	 */
+	public float getX(int index)
+	{
+		return mX[physicalIndex(index)];
+	}
+	
+	/**
+	 * Gets the Y-axis value of the sample with the specified index.
+	 * 
+	 * @param index the index of the sample, {@code 0} being the oldest one.
+	 * @exception IndexOutOfBoundsException if {@code index} is negative or not less than {@link #size()}.
+	 */
+	public float getY(int index)
+	{
+		return mY[physicalIndex(index)];
+	}
+	
+	/**
+	 * Gets the Z-axis value of the sample with the specified index.
+	 * 
+	 * @param index the index of the sample, {@code 0} being the oldest one.
+	 * @exception IndexOutOfBoundsException if {@code index} is negative or not less than {@link #size()}.
+	 */
+	public float getZ(int index)
+	{
+		return mZ[physicalIndex(index)];
+	}
+	
+	/**
+	 * Gets the magnitude of the sample with the specified index.
+	 * 
+	 * @param index the index of the sample, {@code 0} being the oldest one.
+	 * @exception IndexOutOfBoundsException if {@code index} is negative or not less than {@link #size()}.
+	 */
+	public double getMagnitude(int index)
+	{
+		return mMagnitude[physicalIndex(index)];
+	}
+	
+	/**
+	 * Gets the statistics of the samples currently in this window.<br>
+	 * The returned object is updated as samples are added and should not be changed.
+	 */
+	public RunningStatistics getStatistics()
+	{
+		return mStatistics;
+	}
+	
+	/**
+	 * Determines whether this window separates the gravity from the body acceleration.
+	 */
+	public boolean isSeparated()
+	{
+		return mFilter != null;
+	}
+	
+	/**
+	 * Gets the statistics of the gravity and body acceleration of the samples currently in this window. The
+	 * values {@link RunningStatistics#X}, {@link RunningStatistics#Y} and {@link RunningStatistics#Z} are the
+	 * axes of the gravity, {@link RunningStatistics#MAGNITUDE} is the magnitude of the body acceleration.<br>
+	 * The returned object is updated as samples are added and should not be changed.
+	 * 
+	 * @return the statistics, or {@code null} if this window doesn't separate the gravity.
+	 * @see GravityFilter
+	 */
+	public RunningStatistics getSeparatedStatistics()
+	{
+		return mSeparatedStatistics;
+	}
+	
+	/**
+	 * Gets the timestamp of the newest sample in this window.
+	 * 
+	 * @exception IllegalStateException if this window is empty.
+	 */
+	public long getLastTime()
+	{
+		if(mSize == 0)
+			throw new IllegalStateException();
+		return mTimes[(mHead + mSize - 1) % mTimes.length];
+	}
+	
+	/**
+	 * Removes all samples from this {@code AccelerationWindow}, leaving it empty. The buffer is kept and the
+	 * gravity filter starts over.
+	 */
+	public void clear()
+	{
+		mHead = 0;
+		mSize = 0;
+		mStatistics.clear();
+		if(mFilter != null)
+		{
+			mFilter.reset();
+			mSeparatedStatistics.clear();
+		}
+	}
+	
+	/**
+	 * Adds a sample to this sliding window.
+	 * 
+	 * @param time the timestamp of the sample in ms, samples need to be added in ascending order.
+	 * @param x the X-axis value.
+	 * @param y the Y-axis value.
+	 * @param z the Z-axis value.
+	 * @return {@code true} if the window changed after adding this sample, {@code false} otherwise.
+	 */
+	public boolean add(long time, float x, float y, float z)
+	{
+		if(mSize == 0)
+			mNextJump = time + mWindowSize;
+		if(mSize == mTimes.length)
+			grow();
+		
+		final int idx = (mHead + mSize) % mTimes.length;
+		final double mag = Math.sqrt((double)x * x + (double)y * y + (double)z * z);
+		mTimes[idx] = time;
+		mX[idx] = x;
+		mY[idx] = y;
+		mZ[idx] = z;
+		mMagnitude[idx] = mag;
+		mSize++;
+		mStatistics.add(x, y, z, mag);
+		if(mFilter != null)
+			separate(idx, time, x, y, z);
+		
+		if(time > mNextJump)
+		{
+			mNextJump += mJumpSize;
+			final long cut = time - mWindowSize;
+			while(mSize > 0 && mTimes[mHead] < cut)
+			{
+				mStatistics.remove(mX[mHead], mY[mHead], mZ[mHead], mMagnitude[mHead]);
+				if(mFilter != null)
+				{
+					mSeparatedStatistics.remove(mGravityX[mHead], mGravityY[mHead], mGravityZ[mHead],
+							mBodyMagnitude[mHead]);
+				}
+				mHead = (mHead + 1) % mTimes.length;
+				mSize--;
+			}
+			if(mListener != null)
+				mListener.onWindowChanged(this);
+			
+			return true;
+		}
+		
+		return false;
+	}
+	
+	/**
+	 * Filters the sample just stored at the specified index and adds its gravity and body acceleration.
+	 */
+	private void separate(int idx, long time, float x, float y, float z)
+	{
+		mFilter.add(time, x, y, z);
+		// Store the gravity as float, so the same values are removed from the statistics later
+		final float gx = (float)mFilter.getGravityX();
+		final float gy = (float)mFilter.getGravityY();
+		final float gz = (float)mFilter.getGravityZ();
+		final double bx = (double)x - gx;
+		final double by = (double)y - gy;
+		final double bz = (double)z - gz;
+		final double body = Math.sqrt(bx * bx + by * by + bz * bz);
+		
+		mGravityX[idx] = gx;
+		mGravityY[idx] = gy;
+		mGravityZ[idx] = gz;
+		mBodyMagnitude[idx] = body;
+		mSeparatedStatistics.add(gx, gy, gz, body);
+	}
+	
+	/**
+	 * Doubles the capacity of the buffer and moves the samples to the beginning of the new arrays.
+	 */
+	private void grow()
+	{
+		mTimes = grow(mTimes);
+		mX = grow(mX);
+		mY = grow(mY);
+		mZ = grow(mZ);
+		mMagnitude = grow(mMagnitude);
+		if(mFilter != null)
+		{
+			mGravityX = grow(mGravityX);
+			mGravityY = grow(mGravityY);
+			mGravityZ = grow(mGravityZ);
+			mBodyMagnitude = grow(mBodyMagnitude);
+		}
+		mHead = 0;
+	}
+	
+	/**
+	 * Copies a full buffer array into a new array of twice the size, the oldest sample first.
+	 */
+	private long[] grow(long[] values)
+	{
+		// The buffer is full, so the samples wrap around at the end unless mHead is 0
+		final int first = values.length - mHead;
+		final long[] out = new long[values.length * 2];
+		System.arraycopy(values, mHead, out, 0, first);
+		System.arraycopy(values, 0, out, first, mHead);
+		return out;
+	}
+	
+	/**
+	 * Copies a full buffer array into a new array of twice the size, the oldest sample first.
+	 */
+	private float[] grow(float[] values)
+	{
+		final int first = values.length - mHead;
+		final float[] out = new float[values.length * 2];
+		System.arraycopy(values, mHead, out, 0, first);
+		System.arraycopy(values, 0, out, first, mHead);
+		return out;
+	}
+	
+	/**
+	 * Copies a full buffer array into a new array of twice the size, the oldest sample first.
+	 */
+	private double[] grow(double[] values)
+	{
+		final int first = values.length - mHead;
+		final double[] out = new double[values.length * 2];
+		System.arraycopy(values, mHead, out, 0, first);
+		System.arraycopy(values, 0, out, first, mHead);
+		return out;
+	}
+	
+	/**
+	 * Converts the specified logical index into an index of the buffer arrays.
+	 */
+	private int physicalIndex(int index)
+	{
+		if(index < 0 || index >= mSize)
+			throw new IndexOutOfBoundsException();
+		return (mHead + index) % mTimes.length;
+	}
+}
@@ -0,0 +1,158 @@
+package at.jku.pci.lazybird.features;
+
+/**
+ * Decides which windows of an {@link AccelerationWindow} need to be classified, so that the classification
+ * rate can be lowered while the signal is stable.
+ * <p>
+ * As long as the variance of the magnitude in the window stays below a threshold and the classifier keeps
+ * predicting the same class, the interval between classified windows is doubled after every classification,
+ * up to a maximum interval. As soon as the variance exceeds the threshold or the prediction changes, the
+ * interval is reset to the minimum, so with a minimum of {@code 0} every window is classified again.
+ * <p>
+ * Checking the variance does not iterate over the window, it is read from the {@link RunningStatistics} of
+ * the window.
+ * 
+ * @author Peter
+ */
+public class AdaptiveScheduler
+{
+	private final long mMinInterval;
+	private final long mMaxInterval;
+	private final double mVarianceThreshold;
+	
+	private long mInterval;
+	private long mLastTime = Long.MIN_VALUE;
+	private int mLastClass = -1;
+	private boolean mStable = false;
+	private int mJumpSize = 0;
+	
+	// Written by the processing thread only, read by the service
+	private volatile long mClassified = 0;
+	private volatile long mSkipped = 0;
+	
+	/**
+	 * Initializes a new instance of the {@link AdaptiveScheduler} class.
+	 * 
+	 * @param minInterval the minimum interval between classified windows in milliseconds, {@code 0} to
+	 *        classify every window when the signal is not stable.
+	 * @param maxInterval the maximum interval between classified windows in milliseconds.
+	 * @param varianceThreshold the variance of the magnitude up to which the signal is considered stable.
+	 * @exception IllegalArgumentException if {@code minInterval} is negative or greater than
+	 *            {@code maxInterval}, or {@code varianceThreshold} is negative.
+	 */
+	public AdaptiveScheduler(long minInterval, long maxInterval, double varianceThreshold)
+	{
+		if(minInterval < 0 || minInterval > maxInterval)
+			throw new IllegalArgumentException("minInterval must be between 0 and maxInterval.");
+		if(!(varianceThreshold >= 0))
+			throw new IllegalArgumentException("varianceThreshold cannot be negative.");
+		
+		mMinInterval = minInterval;
+		mMaxInterval = maxInterval;
+		mVarianceThreshold = varianceThreshold;
+		mInterval = minInterval;
+	}
+	
+	/**
+	 * Gets the minimum interval between classified windows in milliseconds.
+	 */
+	public long getMinInterval()
+	{
+		return mMinInterval;
+	}
+	
+	/**
+	 * Gets the maximum interval between classified windows in milliseconds.
+	 */
+	public long getMaxInterval()
+	{
+		return mMaxInterval;
+	}
+	
+	/**
+	 * Gets the variance of the magnitude up to which the signal is considered stable.
+	 */
+	public double getVarianceThreshold()
+	{
+		return mVarianceThreshold;
+	}
+	
+	/**
+	 * Gets the current interval between classified windows in milliseconds.
+	 */
+	public long getInterval()
+	{
+		return mInterval;
+	}
+	
+	/**
+	 * Gets the number of windows that should be classified so far.
+	 */
+	public long getClassified()
+	{
+		return mClassified;
+	}
+	
+	/**
+	 * Gets the number of windows that were skipped so far.
+	 */
+	public long getSkipped()
+	{
+		return mSkipped;
+	}
+	
+	/**
+	 * Resets the interval and the last prediction, but not the counters.
+	 */
+	public void reset()
+	{
+		mInterval = mMinInterval;
+		mLastTime = Long.MIN_VALUE;
+		mLastClass = -1;
+		mStable = false;
+	}
+	
+	/**
+	 * Checks whether the specified window should be classified. If it is classified, the result has to be
+	 * passed to {@link #setResult(int)}.
+	 * 
+	 * @param window the window that changed.
+	 * @return {@code true} if the window should be classified, {@code false} if it can be skipped.
+	 */
+	public boolean shouldClassify(AccelerationWindow window)
+	{
+		final long time = window.getLastTime();
+		mJumpSize = window.getJumpSize();
+		mStable = window.getStatistics().getVariance(RunningStatistics.MAGNITUDE) <= mVarianceThreshold;
+		
+		// Snap back to the full rate as soon as the signal changes
+		if(!mStable)
+			mInterval = mMinInterval;
+		
+		// Allow half a jump of jitter, windows don't jump at exact multiples of the jump size
+		if(mLastTime == Long.MIN_VALUE || time - mLastTime + mJumpSize / 2 >= mInterval)
+		{
+			mLastTime = time;
+			mClassified++;
+			return true;
+		}
+		
+		mSkipped++;
+		return false;
+	}
+	
+	/**
+	 * Sets the class predicted for the window last passed to {@link #shouldClassify(AccelerationWindow)}.
+	 * 
+	 * @param clazz the index of the predicted class, or {@code -1} if the window could not be classified.
+	 */
+	public void setResult(int clazz)
+	{
+		if(mStable && clazz >= 0 && clazz == mLastClass)
+			mInterval = Math.min(mMaxInterval, Math.max(mInterval * 2, (long)mJumpSize * 2));
+		else
+			mInterval = mMinInterval;
+		
+		mLastClass = clazz;
+	}
+}
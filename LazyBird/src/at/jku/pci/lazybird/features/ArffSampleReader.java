@@ -0,0 +1,139 @@
+package at.jku.pci.lazybird.features;
+
+import at.jku.pci.lazybird.features.SlidingWindow.AttributeOrder;
+import weka.core.Instance;
+import weka.core.Instances;
+import weka.core.UnsupportedAttributeTypeException;
+import weka.core.converters.ArffLoader.ArffReader;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileReader;
+import java.io.IOException;
+
+/**
+ * A {@link SampleReader} for ARFF files with acceleration data. Only the header is read when the reader is
+ * created, the rows of the {@code @DATA} section are read one at a time as {@link #next()} is called.
+ * <p>
+ * The header is validated the same way as for
+ * {@link SlidingWindow#slide(Instances, int, int, SlidingWindow.WindowListener) SlidingWindow.slide}, see the
+ * {@link FeatureExtractor class documentation} for the expected attributes.
+ * 
+ * @author Peter
+ */
+public class ArffSampleReader implements SampleReader
+{
+	private final BufferedReader mReader;
+	private final ArffReader mArff;
+	private final Instances mStructure;
+	private final boolean mHasClass;
+	
+	private long mTime;
+	private float mX;
+	private float mY;
+	private float mZ;
+	private double mClass = Instance.missingValue();
+	
+	/**
+	 * Initializes a new instance of the {@link ArffSampleReader} class and reads the header of the specified
+	 * file.
+	 * 
+	 * @param file the ARFF file to read.
+	 * @exception FileNotFoundException if {@code file} does not exist.
+	 * @exception IOException if an error occurred reading the header.
+	 * @exception UnsupportedAttributeTypeException if the attributes of the file are not valid.
+	 */
+	public ArffSampleReader(File file) throws IOException, UnsupportedAttributeTypeException
+	{
+		mReader = new BufferedReader(new FileReader(file));
+		boolean success = false;
+		
+		try
+		{
+			mArff = new ArffReader(mReader, 0);
+			mStructure = mArff.getStructure();
+			
+			@SuppressWarnings("unchecked")
+			final AttributeOrder order = SlidingWindow.getAttributeOrder(mStructure.enumerateAttributes());
+			if(order == AttributeOrder.INVALID)
+				throw new UnsupportedAttributeTypeException(file.toString());
+			
+			mHasClass = order == AttributeOrder.HAS_CLASS;
+			if(mHasClass)
+				mStructure.setClassIndex(mStructure.numAttributes() - 1);
+			success = true;
+		}
+		finally
+		{
+			if(!success)
+				mReader.close();
+		}
+	}
+	
+	@Override
+	public Instances getStructure()
+	{
+		return mStructure;
+	}
+	
+	/**
+	 * Gets a value indicating whether the file has a class attribute.
+	 */
+	public boolean hasClass()
+	{
+		return mHasClass;
+	}
+	
+	@Override
+	public boolean next() throws IOException
+	{
+		final Instance i = mArff.readInstance(mStructure);
+		if(i == null)
+			return false;
+		
+		mTime = (long)i.value(0);
+		mX = (float)i.value(1);
+		mY = (float)i.value(2);
+		mZ = (float)i.value(3);
+		if(mHasClass)
+			mClass = i.value(4);
+		
+		return true;
+	}
+	
+	@Override
+	public long getTime()
+	{
+		return mTime;
+	}
+	
+	@Override
+	public float getX()
+	{
+		return mX;
+	}
+	
+	@Override
+	public float getY()
+	{
+		return mY;
+	}
+	
+	@Override
+	public float getZ()
+	{
+		return mZ;
+	}
+	
+	@Override
+	public double getClassValue()
+	{
+		return mClass;
+	}
+	
+	@Override
+	public void close() throws IOException
+	{
+		mReader.close();
+	}
+}
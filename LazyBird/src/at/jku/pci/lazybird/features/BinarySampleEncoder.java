@@ -0,0 +1,375 @@
+package at.jku.pci.lazybird.features;
+
+import at.jku.pci.lazybird.util.ARFFRowEncoder;
+import at.jku.pci.lazybird.util.SampleEncoder;
+import at.jku.pci.lazybird.util.TimeIndexWriter;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Map;
+
+/**
+ * Writes acceleration samples in the compact binary recording format, which takes less than a third of the
+ * space of an ARFF file and can be read much faster, see {@link BinarySampleReader}.
+ * <p>
+ * The file starts with a header:
+ * <ul>
+ * <li>The magic number {@link #MAGIC} and the format version as {@code byte}.
+ * <li>The number of class values as {@code short}, followed by the values in modified UTF-8, see
+ * {@link DataOutputStream#writeUTF(String)}.
+ * <li>The index of the class of all samples as {@code short}, or {@code -1} if there is none.
+ * <li>The number of properties as {@code short}, followed by pairs of key and value in modified UTF-8, e.g.
+ * the sensor the samples were recorded with.
+ * </ul>
+ * The samples follow in blocks of up to {@link #BLOCK_SIZE} samples. Every block starts with the length of the
+ * rest of the block in bytes as varint, followed by the encoding of the values as {@code byte}, the number of
+ * samples as varint and the timestamps as varints of the zigzag encoded difference to the previous timestamp,
+ * starting from {@code 0} in every block, so a block can be read without the ones before it. Then come the
+ * X-axis, Y-axis and Z-axis values of all samples in turn, either as {@code float} ({@link #ENCODING_FLOAT}) or
+ * as {@code short} in hundredths ({@link #ENCODING_HUNDREDTHS}).
+ * <p>
+ * When quantizing, values are rounded to two decimals like {@link ARFFRowEncoder} does, since ARFF recordings
+ * have two decimals anyway, and stored in hundredths if all values of a block fit. So the values read back are
+ * the same as if the recording had been an ARFF file, and a recording exported to ARFF is exactly the same as
+ * if it had been recorded to ARFF. All numbers are big-endian.
+ * <p>
+ * If an index is set with {@link #setIndex(TimeIndexWriter)}, the first timestamp and the offset of every
+ * block are added to it.
+ * 
+ * @author Peter
+ */
+public class BinarySampleEncoder implements SampleEncoder
+{
+	/**
+	 * Standard extension for binary recordings.
+	 * <p> {@value}
+	 */
+	public static final String EXTENSION = ".lbr";
+	/**
+	 * The magic number at the start of every binary recording, {@code "LBR"} and a zero byte.
+	 */
+	public static final int MAGIC = 0x4C425200;
+	/**
+	 * The version of the format written.
+	 */
+	public static final int VERSION = 2;
+	/**
+	 * The maximum number of samples in a block.
+	 */
+	public static final int BLOCK_SIZE = 256;
+	
+	/**
+	 * Block encoding: the values are stored as {@code float}.
+	 */
+	static final int ENCODING_FLOAT = 0;
+	/**
+	 * Block encoding: the values are stored as {@code short} in hundredths.
+	 */
+	static final int ENCODING_HUNDREDTHS = 1;
+	/**
+	 * The value in hundredths that stands for a negative value rounding to zero, written as {@code -0.00} to
+	 * ARFF files.
+	 */
+	static final short NEGATIVE_ZERO = Short.MIN_VALUE;
+	
+	// Values with an absolute value of at least this in hundredths are not rounded
+	private static final double MAX_QUANTIZE = 1e15;
+	// Encoding, count and length varints, a timestamp varint and three floats per sample
+	private static final int MAX_BLOCK_LENGTH = 1 + 5 + BLOCK_SIZE * (10 + 12);
+	
+	private final OutputStream mOut;
+	private final boolean mQuantize;
+	
+	private final long[] mTimes = new long[BLOCK_SIZE];
+	private final float[] mX = new float[BLOCK_SIZE];
+	private final float[] mY = new float[BLOCK_SIZE];
+	private final float[] mZ = new float[BLOCK_SIZE];
+	private final short[] mHundredthsX = new short[BLOCK_SIZE];
+	private final short[] mHundredthsY = new short[BLOCK_SIZE];
+	private final short[] mHundredthsZ = new short[BLOCK_SIZE];
+	// Whether all values of the current block fit in hundredths
+	private boolean mFitsHundredths = true;
+	private int mSize = 0;
+	private long mBytes = 0;
+	private final long mHeaderBytes;
+	
+	private TimeIndexWriter mIndex = null;
+	private long mLastTime;
+	
+	private final byte[] mBlock = new byte[MAX_BLOCK_LENGTH + 5];
+	
+	/**
+	 * Initializes a new instance of the {@link BinarySampleEncoder} class and writes the header.
+	 * 
+	 * @param out the stream to write to, should be buffered.
+	 * @param classes the values of the class attribute, or {@code null} if the samples have no class.
+	 * @param clazz the index of the class of all samples in {@code classes}, ignored if {@code classes} is
+	 *        {@code null}.
+	 * @param properties additional information stored in the header, or {@code null}.
+	 * @param quantize {@code true} to round values to two decimals and store them in hundredths where possible,
+	 *        {@code false} to store the exact values.
+	 * @exception IOException if an I/O error occurs.
+	 */
+	public BinarySampleEncoder(OutputStream out, String[] classes, int clazz, Map<String, String> properties,
+			boolean quantize) throws IOException
+	{
+		if(out == null)
+			throw new NullPointerException("out");
+		if(classes != null && (clazz < 0 || clazz >= classes.length))
+			throw new IllegalArgumentException("clazz is not a valid index.");
+		
+		mOut = out;
+		mQuantize = quantize;
+		
+		final DataOutputStream data = new DataOutputStream(out);
+		data.writeInt(MAGIC);
+		data.writeByte(VERSION);
+		if(classes != null)
+		{
+			data.writeShort(classes.length);
+			for(String c : classes)
+				data.writeUTF(c);
+			data.writeShort(clazz);
+		}
+		else
+		{
+			data.writeShort(0);
+			data.writeShort(-1);
+		}
+		if(properties != null)
+		{
+			data.writeShort(properties.size());
+			for(Map.Entry<String, String> e : properties.entrySet())
+			{
+				data.writeUTF(e.getKey());
+				data.writeUTF(e.getValue());
+			}
+		}
+		else
+			data.writeShort(0);
+		mHeaderBytes = data.size();
+	}
+	
+	/**
+	 * Sets the index to add an entry to for every block. The index is flushed and closed with the stream.
+	 * 
+	 * @param index the index to write to.
+	 */
+	public void setIndex(TimeIndexWriter index)
+	{
+		mIndex = index;
+	}
+	
+	/**
+	 * Adds a sample to the current block and writes the block if it is full.
+	 */
+	@Override
+	public void write(long time, float x, float y, float z) throws IOException
+	{
+		final int index = mSize;
+		if(mQuantize)
+		{
+			x = quantize(x);
+			y = quantize(y);
+			z = quantize(z);
+		}
+		mTimes[index] = time;
+		mX[index] = x;
+		mY[index] = y;
+		mZ[index] = z;
+		if(mFitsHundredths)
+		{
+			mFitsHundredths = mQuantize && toHundredths(x, mHundredthsX, index) &&
+					toHundredths(y, mHundredthsY, index) && toHundredths(z, mHundredthsZ, index);
+		}
+		mSize = index + 1;
+		
+		if(mSize == BLOCK_SIZE)
+			writeBlock();
+	}
+	
+	/**
+	 * Writes the current block, even if it is not full, and flushes the stream and the index, if any.
+	 */
+	@Override
+	public void flush() throws IOException
+	{
+		writeBlock();
+		mOut.flush();
+		if(mIndex != null)
+			mIndex.flush();
+	}
+	
+	/**
+	 * Writes the current block and closes the stream and the index, if any.
+	 */
+	@Override
+	public void close() throws IOException
+	{
+		try
+		{
+			writeBlock();
+		}
+		finally
+		{
+			try
+			{
+				mOut.close();
+			}
+			finally
+			{
+				if(mIndex != null)
+				{
+					if(mBytes > 0)
+						mIndex.setEnd(mLastTime);
+					mIndex.close();
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Gets the number of bytes of the blocks written so far, not including the header.
+	 */
+	@Override
+	public long getBytesWritten()
+	{
+		return mBytes;
+	}
+	
+	/**
+	 * Rounds a value to two decimals, the same as formatting and parsing it again.
+	 */
+	private static float quantize(float value)
+	{
+		final double hundredths = (double)value * 100;
+		// Larger values have no decimals as float anyway, also true for NaN
+		if(!(Math.abs(hundredths) < MAX_QUANTIZE))
+			return value;
+		
+		final double rounded = ARFFRowEncoder.roundHalfUp(Math.abs(hundredths)) / 100.0;
+		return (float)(hundredths < 0 || (hundredths == 0 && 1 / hundredths < 0) ? -rounded : rounded);
+	}
+	
+	/**
+	 * Converts a value to hundredths.
+	 * 
+	 * @return {@code true} if the value fits in a {@code short}, {@code false} otherwise.
+	 */
+	private static boolean toHundredths(float value, short[] out, int index)
+	{
+		final double hundredths = (double)value * 100;
+		// Also false for NaN
+		if(!(Math.abs(hundredths) < Short.MAX_VALUE))
+			return false;
+		
+		final boolean negative = hundredths < 0 || (hundredths == 0 && 1 / hundredths < 0);
+		final int rounded = (int)ARFFRowEncoder.roundHalfUp(Math.abs(hundredths));
+		if(negative)
+			out[index] = rounded == 0 ? NEGATIVE_ZERO : (short)-rounded;
+		else
+			out[index] = (short)rounded;
+		return true;
+	}
+	
+	/**
+	 * Writes the current block, if it has any samples.
+	 */
+	private void writeBlock() throws IOException
+	{
+		if(mSize == 0)
+			return;
+		if(mIndex != null)
+			mIndex.add(mTimes[0], mHeaderBytes + mBytes);
+		
+		// Leave room for the length, which is only known at the end
+		final byte[] b = mBlock;
+		int pos = 5;
+		b[pos++] = (byte)(mFitsHundredths ? ENCODING_HUNDREDTHS : ENCODING_FLOAT);
+		pos = putVarint(mSize, b, pos);
+		long last = 0;
+		for(int j = 0; j < mSize; j++)
+		{
+			final long delta = mTimes[j] - last;
+			pos = putVarint((delta << 1) ^ (delta >> 63), b, pos);
+			last = mTimes[j];
+		}
+		mLastTime = last;
+		if(mFitsHundredths)
+		{
+			pos = putShorts(mHundredthsX, b, pos);
+			pos = putShorts(mHundredthsY, b, pos);
+			pos = putShorts(mHundredthsZ, b, pos);
+		}
+		else
+		{
+			pos = putFloats(mX, b, pos);
+			pos = putFloats(mY, b, pos);
+			pos = putFloats(mZ, b, pos);
+		}
+		
+		// Put the length right before the block
+		final int length = pos - 5;
+		final int start = 5 - getVarintLength(length);
+		putVarint(length, b, start);
+		mOut.write(b, start, pos - start);
+		
+		mBytes += pos - start;
+		mSize = 0;
+		mFitsHundredths = true;
+	}
+	
+	private int putShorts(short[] values, byte[] b, int pos)
+	{
+		for(int j = 0; j < mSize; j++)
+		{
+			b[pos++] = (byte)(values[j] >> 8);
+			b[pos++] = (byte)values[j];
+		}
+		return pos;
+	}
+	
+	private int putFloats(float[] values, byte[] b, int pos)
+	{
+		for(int j = 0; j < mSize; j++)
+		{
+			final int bits = Float.floatToRawIntBits(values[j]);
+			b[pos++] = (byte)(bits >> 24);
+			b[pos++] = (byte)(bits >> 16);
+			b[pos++] = (byte)(bits >> 8);
+			b[pos++] = (byte)bits;
+		}
+		return pos;
+	}
+	
+	/**
+	 * Gets the number of bytes of an unsigned varint.
+	 */
+	static int getVarintLength(long value)
+	{
+		int length = 1;
+		while((value & ~0x7FL) != 0)
+		{
+			length++;
+			value >>>= 7;
+		}
+		return length;
+	}
+	
+	/**
+	 * Puts an unsigned varint, seven bits per byte with the lowest bits first and the high bit set on all but
+	 * the last byte.
+	 * 
+	 * @return the position after the varint.
+	 */
+	static int putVarint(long value, byte[] b, int pos)
+	{
+		while((value & ~0x7FL) != 0)
+		{
+			b[pos++] = (byte)((value & 0x7F) | 0x80);
+			value >>>= 7;
+		}
+		b[pos++] = (byte)value;
+		return pos;
+	}
+}
@@ -0,0 +1,485 @@
+package at.jku.pci.lazybird.features;
+
+import at.jku.pci.lazybird.util.ARFFRowEncoder;
+import weka.core.Attribute;
+import weka.core.FastVector;
+import weka.core.Instance;
+import weka.core.Instances;
+import java.io.BufferedInputStream;
+import java.io.BufferedWriter;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A {@link SampleReader} for recordings in the binary format written by {@link BinarySampleEncoder}. The
+ * header is read when the reader is created, the samples are read one block at a time as {@link #next()} is
+ * called.
+ * <p>
+ * The structure has the same attributes as a recorded ARFF file, and the values are the same as if the ARFF
+ * file had been read, see {@link #exportArff(Writer)}. An incomplete block at the end of the file, e.g. if
+ * recording was interrupted, is ignored.
+ * <p>
+ * Every block starts its timestamps over, so the reader can be seeked to the offsets stored in the
+ * {@link at.jku.pci.lazybird.util.TimeIndex TimeIndex} of the recording.
+ * 
+ * @author Peter
+ */
+public class BinarySampleReader implements SeekableSampleReader
+{
+	/**
+	 * Property key for the recording date as written to the comment of an ARFF file.
+	 */
+	public static final String PROPERTY_DATE = "date";
+	/**
+	 * Property key for the time used in the relation name of an ARFF file in ms.
+	 */
+	public static final String PROPERTY_RELATION = "relation";
+	/**
+	 * Property key for the name of the sensor.
+	 */
+	public static final String PROPERTY_SENSOR = "sensor";
+	/**
+	 * Property key for the vendor of the sensor.
+	 */
+	public static final String PROPERTY_VENDOR = "vendor";
+	/**
+	 * Property key for the resolution of the sensor in m/s^2.
+	 */
+	public static final String PROPERTY_RESOLUTION = "resolution";
+	/**
+	 * Property key for the maximum range of the sensor in m/s^2.
+	 */
+	public static final String PROPERTY_RANGE = "maximumRange";
+	/**
+	 * Property key for the minimum delay between two samples of the sensor in microseconds.
+	 */
+	public static final String PROPERTY_MIN_DELAY = "minDelay";
+	/**
+	 * Property key for the id of the {@link RecordingSession} the recording is a segment of.
+	 */
+	public static final String PROPERTY_SESSION = "session";
+	/**
+	 * Property key for the number of the segment within its session, starting at {@code 0}.
+	 */
+	public static final String PROPERTY_SEGMENT = "segment";
+	/**
+	 * Property key for the rate in Hz the samples were decimated to, see {@link Decimator}. Missing if the
+	 * samples were recorded at the rate of the sensor.
+	 */
+	public static final String PROPERTY_RATE = "rate";
+	
+	private final FileInputStream mFileIn;
+	private DataInputStream mIn;
+	private final Instances mStructure;
+	private final String[] mClasses;
+	private final double mClass;
+	private final Map<String, String> mProperties;
+	
+	private final byte[] mBlock = new byte[BinarySampleEncoder.BLOCK_SIZE * 22 + 6];
+	private final long[] mTimes = new long[BinarySampleEncoder.BLOCK_SIZE];
+	private final float[] mX = new float[BinarySampleEncoder.BLOCK_SIZE];
+	private final float[] mY = new float[BinarySampleEncoder.BLOCK_SIZE];
+	private final float[] mZ = new float[BinarySampleEncoder.BLOCK_SIZE];
+	private int mSize = 0;
+	private int mIndex = 0;
+	
+	/**
+	 * Initializes a new instance of the {@link BinarySampleReader} class and reads the header of the specified
+	 * file.
+	 * 
+	 * @param file the binary recording to read.
+	 * @exception FileNotFoundException if {@code file} does not exist.
+	 * @exception IOException if an error occurred reading the header, or the file is not a binary recording.
+	 */
+	public BinarySampleReader(File file) throws IOException
+	{
+		mFileIn = new FileInputStream(file);
+		mIn = new DataInputStream(new BufferedInputStream(mFileIn));
+		boolean success = false;
+		
+		try
+		{
+			if(mIn.readInt() != BinarySampleEncoder.MAGIC)
+				throw new IOException("Not a binary recording: " + file);
+			final int version = mIn.readUnsignedByte();
+			if(version != BinarySampleEncoder.VERSION)
+				throw new IOException("Unsupported version " + version + ": " + file);
+			
+			final int numClasses = mIn.readUnsignedShort();
+			final String[] classes = new String[numClasses];
+			for(int j = 0; j < numClasses; j++)
+				classes[j] = mIn.readUTF();
+			final int clazz = mIn.readShort();
+			
+			final int numProperties = mIn.readUnsignedShort();
+			final LinkedHashMap<String, String> properties = new LinkedHashMap<String, String>(numProperties);
+			for(int j = 0; j < numProperties; j++)
+				properties.put(mIn.readUTF(), mIn.readUTF());
+			mProperties = Collections.unmodifiableMap(properties);
+			
+			final FastVector attributes = new FastVector(5);
+			attributes.addElement(new Attribute("timestamp"));
+			attributes.addElement(new Attribute("accelerationx"));
+			attributes.addElement(new Attribute("accelerationy"));
+			attributes.addElement(new Attribute("accelerationz"));
+			if(numClasses > 0 && clazz >= 0 && clazz < numClasses)
+			{
+				final FastVector values = new FastVector(numClasses);
+				for(String c : classes)
+					values.addElement(c);
+				attributes.addElement(new Attribute("class", values));
+				mClasses = classes;
+				mClass = clazz;
+			}
+			else
+			{
+				mClasses = null;
+				mClass = Instance.missingValue();
+			}
+			
+			mStructure = new Instances("lazybird-" + getProperty(PROPERTY_RELATION, "0"), attributes, 0);
+			if(mClasses != null)
+				mStructure.setClassIndex(mStructure.numAttributes() - 1);
+			success = true;
+		}
+		finally
+		{
+			if(!success)
+				mIn.close();
+		}
+	}
+	
+	@Override
+	public Instances getStructure()
+	{
+		return mStructure;
+	}
+	
+	/**
+	 * Gets a value indicating whether the recording has a class.
+	 */
+	public boolean hasClass()
+	{
+		return mClasses != null;
+	}
+	
+	/**
+	 * Gets the properties stored in the header, e.g. the sensor the samples were recorded with.
+	 */
+	public Map<String, String> getProperties()
+	{
+		return mProperties;
+	}
+	
+	/**
+	 * Gets a property stored in the header.
+	 * 
+	 * @param key the key of the property.
+	 * @param defaultValue the value to return if the property doesn't exist.
+	 * @return the value of the property, or {@code defaultValue}.
+	 */
+	public String getProperty(String key, String defaultValue)
+	{
+		final String value = mProperties.get(key);
+		return value != null ? value : defaultValue;
+	}
+	
+	/**
+	 * Gets the rate the samples were decimated to in Hz.
+	 * 
+	 * @return the rate stored in {@link #PROPERTY_RATE}, or {@code 0} if the samples were recorded at the rate
+	 *         of the sensor.
+	 */
+	public int getRate()
+	{
+		try
+		{
+			return Integer.parseInt(getProperty(PROPERTY_RATE, "0"));
+		}
+		catch(NumberFormatException ex)
+		{
+			return 0;
+		}
+	}
+	
+	@Override
+	public boolean next() throws IOException
+	{
+		if(++mIndex < mSize)
+			return true;
+		
+		mIndex = 0;
+		mSize = 0;
+		return readBlock();
+	}
+	
+	@Override
+	public void seek(long offset) throws IOException
+	{
+		mFileIn.getChannel().position(offset);
+		mIn = new DataInputStream(new BufferedInputStream(mFileIn));
+		mIndex = 0;
+		mSize = 0;
+	}
+	
+	/**
+	 * Reads the next block.
+	 * 
+	 * @return {@code true} if a block was read, {@code false} if the end of the file was reached.
+	 * @exception IOException if an I/O error occurs or the block is corrupt.
+	 */
+	private boolean readBlock() throws IOException
+	{
+		final byte[] b = mBlock;
+		final int length;
+		try
+		{
+			length = (int)readVarint();
+			if(length < 0)
+				return false;
+			if(length > b.length)
+				throw new IOException("Invalid block length " + length + ".");
+			mIn.readFully(b, 0, length);
+		}
+		catch(EOFException ex)
+		{
+			// Incomplete last block
+			return false;
+		}
+		
+		// Only bytes of this block may be read, the rest of the buffer is left over from the previous one
+		if(length < 1)
+			throw new IOException("Invalid block length " + length + ".");
+		final int encoding = b[0];
+		final int width;
+		if(encoding == BinarySampleEncoder.ENCODING_HUNDREDTHS)
+			width = 2;
+		else if(encoding == BinarySampleEncoder.ENCODING_FLOAT)
+			width = 4;
+		else
+			throw new IOException("Unknown block encoding " + encoding + ".");
+		
+		int pos = 1;
+		int size = 0;
+		for(int shift = 0;; shift += 7)
+		{
+			if(pos >= length || shift > 28)
+				throw new IOException("Invalid block size.");
+			size |= (b[pos] & 0x7F) << shift;
+			if((b[pos++] & 0x80) == 0)
+				break;
+		}
+		if(size < 1 || size > BinarySampleEncoder.BLOCK_SIZE)
+			throw new IOException("Invalid block size " + size + ".");
+		
+		// Timestamps start over from 0 in every block
+		long time = 0;
+		for(int j = 0; j < size; j++)
+		{
+			long zigzag = 0;
+			for(int shift = 0;; shift += 7)
+			{
+				if(pos >= length || shift > 63)
+					throw new IOException("Invalid timestamp in block.");
+				zigzag |= (long)(b[pos] & 0x7F) << shift;
+				if((b[pos++] & 0x80) == 0)
+					break;
+			}
+			time += (zigzag >>> 1) ^ -(zigzag & 1);
+			mTimes[j] = time;
+		}
+		
+		// The values of the three axes fill the rest of the block
+		if(pos + 3 * size * width != length)
+			throw new IOException("Invalid block length " + length + ".");
+		if(width == 2)
+		{
+			pos = getHundredths(b, pos, mX, size);
+			pos = getHundredths(b, pos, mY, size);
+			pos = getHundredths(b, pos, mZ, size);
+		}
+		else
+		{
+			pos = getFloats(b, pos, mX, size);
+			pos = getFloats(b, pos, mY, size);
+			pos = getFloats(b, pos, mZ, size);
+		}
+		
+		mSize = size;
+		return true;
+	}
+	
+	/**
+	 * Reads the length of a block.
+	 * 
+	 * @return the length, or {@code -1} if the end of the file is reached before.
+	 */
+	private long readVarint() throws IOException
+	{
+		long value = 0;
+		for(int shift = 0;; shift += 7)
+		{
+			final int b = mIn.read();
+			if(b < 0)
+			{
+				if(shift == 0)
+					return -1;
+				throw new EOFException();
+			}
+			value |= (long)(b & 0x7F) << shift;
+			if((b & 0x80) == 0)
+				return value;
+		}
+	}
+	
+	private static int getHundredths(byte[] b, int pos, float[] out, int size)
+	{
+		for(int j = 0; j < size; j++)
+		{
+			final short h = (short)((b[pos] << 8) | (b[pos + 1] & 0xFF));
+			pos += 2;
+			// The same as parsing the value with two decimals from an ARFF file
+			if(h == BinarySampleEncoder.NEGATIVE_ZERO)
+				out[j] = -0.0f;
+			else
+				out[j] = (float)(h / 100.0);
+		}
+		return pos;
+	}
+	
+	private static int getFloats(byte[] b, int pos, float[] out, int size)
+	{
+		for(int j = 0; j < size; j++)
+		{
+			final int bits = (b[pos] << 24) | ((b[pos + 1] & 0xFF) << 16) | ((b[pos + 2] & 0xFF) << 8) |
+					(b[pos + 3] & 0xFF);
+			pos += 4;
+			out[j] = Float.intBitsToFloat(bits);
+		}
+		return pos;
+	}
+	
+	@Override
+	public long getTime()
+	{
+		return mTimes[mIndex];
+	}
+	
+	@Override
+	public float getX()
+	{
+		return mX[mIndex];
+	}
+	
+	@Override
+	public float getY()
+	{
+		return mY[mIndex];
+	}
+	
+	@Override
+	public float getZ()
+	{
+		return mZ[mIndex];
+	}
+	
+	@Override
+	public double getClassValue()
+	{
+		return mClass;
+	}
+	
+	/**
+	 * Writes the header and the remaining samples of this recording in the ARFF layout written by the
+	 * recorder. If all samples are remaining, the output is the same as if the samples had been recorded to
+	 * ARFF.
+	 * 
+	 * @param out the writer to write to.
+	 * @return the number of samples written.
+	 * @exception IOException if an error occurred reading or writing.
+	 */
+	public long exportArff(Writer out) throws IOException
+	{
+		final long relation;
+		try
+		{
+			relation = Long.parseLong(getProperty(PROPERTY_RELATION, "0"));
+		}
+		catch(NumberFormatException ex)
+		{
+			throw new IOException("Invalid relation property.");
+		}
+		ARFFRowEncoder.writeHeader(out, getProperty(PROPERTY_DATE, ""), relation, mClasses, getRate());
+		
+		final ARFFRowEncoder encoder =
+				new ARFFRowEncoder(out, mClasses != null ? mClasses[(int)mClass] : null);
+		long count = 0;
+		while(next())
+		{
+			encoder.write(getTime(), getX(), getY(), getZ());
+			count++;
+		}
+		encoder.flush();
+		return count;
+	}
+	
+	@Override
+	public void close() throws IOException
+	{
+		mIn.close();
+	}
+	
+	/**
+	 * Exports binary recordings to ARFF files.
+	 * 
+	 * @param args the binary recordings, every one is exported to a file with the same name and the ARFF
+	 *        extension.
+	 */
+	public static void main(String[] args)
+	{
+		if(args.length == 0)
+		{
+			System.err.println("Usage: BinarySampleReader <recording" + BinarySampleEncoder.EXTENSION +
+					">...\n\nExports binary recordings to ARFF files next to them.");
+			System.exit(1);
+		}
+		
+		try
+		{
+			for(String arg : args)
+			{
+				final File in = new File(arg);
+				String name = in.getName();
+				if(name.endsWith(BinarySampleEncoder.EXTENSION))
+					name = name.substring(0, name.length() - BinarySampleEncoder.EXTENSION.length());
+				final File out = new File(in.getParentFile(), name + ".arff");
+				
+				final BinarySampleReader reader = new BinarySampleReader(in);
+				final Writer writer = new BufferedWriter(new FileWriter(out));
+				try
+				{
+					System.out.println(in + " -> " + out + ": " + reader.exportArff(writer) + " samples");
+				}
+				finally
+				{
+					writer.close();
+					reader.close();
+				}
+			}
+		}
+		catch(Exception ex)
+		{
+			ex.printStackTrace();
+			System.exit(1);
+		}
+	}
+}
@@ -0,0 +1,129 @@
+package at.jku.pci.lazybird.features;
+
+/**
+ * A {@link SampleSink} that lowers the sample rate before passing samples on to another sink. The samples are
+ * low-pass filtered, so frequencies above half the target rate don't alias into the lower rate, and only the
+ * first sample of every period of the target rate is passed on, with its filtered values and original
+ * timestamp.
+ * <p>
+ * The filter consists of two cascaded first-order low-pass IIR stages per axis, each with a cutoff frequency
+ * of {@link #CUTOFF} times the target rate. Since the sensor doesn't deliver samples at a fixed rate, the
+ * coefficient of the stages is computed from a running average of the interval between samples. After a gap
+ * of more than {@link #MAX_GAP} ms, the filter starts over at the next sample.
+ * <p>
+ * Samples are processed without allocating anything. Instances are not thread-safe, which is fine for the
+ * single sensor thread.
+ * 
+ * @author Peter
+ */
+public class Decimator implements SampleSink
+{
+	/**
+	 * The cutoff frequency of each filter stage as fraction of the target rate. Below half the rate, since
+	 * first-order stages roll off slowly.
+	 */
+	public static final double CUTOFF = 0.25;
+	/**
+	 * The longest interval between two samples in ms, after which the filter starts over.
+	 */
+	public static final long MAX_GAP = 1000;
+	
+	// Weight of a new interval in the running average
+	private static final double INTERVAL_WEIGHT = 0.05;
+	
+	private final SampleSink mSink;
+	private final int mRate;
+	private final double mPeriod;
+	private final double mTimeConstant;
+	
+	private boolean mStarted = false;
+	private long mLastTime;
+	private double mInterval;
+	private double mNext;
+	private double mX1;
+	private double mY1;
+	private double mZ1;
+	private double mX2;
+	private double mY2;
+	private double mZ2;
+	
+	/**
+	 * Initializes a new instance of the {@link Decimator} class.
+	 * 
+	 * @param sink the sink to pass the decimated samples to.
+	 * @param rate the target rate in Hz.
+	 * @exception IllegalArgumentException if {@code rate} is less than {@code 1}.
+	 */
+	public Decimator(SampleSink sink, int rate)
+	{
+		if(sink == null)
+			throw new NullPointerException("sink");
+		if(rate < 1)
+			throw new IllegalArgumentException("rate must be at least 1.");
+		
+		mSink = sink;
+		mRate = rate;
+		mPeriod = 1000.0 / rate;
+		mTimeConstant = 1000.0 / (2 * Math.PI * CUTOFF * rate);
+	}
+	
+	/**
+	 * Gets the sink the decimated samples are passed to.
+	 */
+	public SampleSink getSink()
+	{
+		return mSink;
+	}
+	
+	/**
+	 * Gets the target rate in Hz.
+	 */
+	public int getRate()
+	{
+		return mRate;
+	}
+	
+	/**
+	 * Filters the sample and passes it on if it is the first one of a period of the target rate.
+	 */
+	@Override
+	public void onSample(long time, float x, float y, float z)
+	{
+		final long interval = time - mLastTime;
+		if(!mStarted || interval < 0 || interval > MAX_GAP)
+		{
+			// Start at the first sample rather than at zero, so the filter doesn't need time to settle
+			mX1 = mX2 = x;
+			mY1 = mY2 = y;
+			mZ1 = mZ2 = z;
+			mInterval = -1;
+			mNext = time;
+			mStarted = true;
+		}
+		else
+		{
+			if(mInterval < 0)
+				mInterval = interval;
+			else
+				mInterval += INTERVAL_WEIGHT * (interval - mInterval);
+			
+			final double alpha = mInterval / (mTimeConstant + mInterval);
+			mX1 += alpha * (x - mX1);
+			mY1 += alpha * (y - mY1);
+			mZ1 += alpha * (z - mZ1);
+			mX2 += alpha * (mX1 - mX2);
+			mY2 += alpha * (mY1 - mY2);
+			mZ2 += alpha * (mZ1 - mZ2);
+		}
+		mLastTime = time;
+		
+		if(time >= mNext)
+		{
+			// Keep the periods aligned, but don't try to catch up on missed ones
+			mNext += mPeriod;
+			if(mNext <= time)
+				mNext = time + mPeriod;
+			mSink.onSample(time, (float)mX2, (float)mY2, (float)mZ2);
+		}
+	}
+}
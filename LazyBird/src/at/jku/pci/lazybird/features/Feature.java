@@ -8,7 +8,9 @@ import java.util.Map;
  * <p>
  * Note that these only work if the file has a timestamp and exactly three numeric values for the axes. The
  * optional class attribute and the timestamp are copied without change.<br>
- * Also, a sliding window is always applied to the data point values.
+ * Also, a sliding window is always applied to the data point values. Features of the gravity and the body
+ * acceleration are calculated from the output of a {@link GravityFilter} over the whole stream of samples, see
+ * {@link FeatureExtractor#SEPARATED_FEATURES}.
  * 
  * @author Peter
  */
@@ -63,7 +65,34 @@ public enum Feature
 	/**
 	 * The variance of the magnitude of all three axes. That is, the variance of {@link #MAGNITUDE}.
 	 */
-	VARIANCE_OF_MAGNITUDE("Variance of the Magnitude", "varmag", 0x80);
+	VARIANCE_OF_MAGNITUDE("Variance of the Magnitude", "varmag", 0x80),
+	
+	/**
+	 * The mean of the X-axis of the gravity, see {@link GravityFilter}.
+	 */
+	GRAVITY_X("Gravity X", "x-grav", 0x100),
+	
+	/**
+	 * The mean of the Y-axis of the gravity, see {@link GravityFilter}.
+	 */
+	GRAVITY_Y("Gravity Y", "y-grav", 0x200),
+	
+	/**
+	 * The mean of the Z-axis of the gravity, see {@link GravityFilter}.
+	 */
+	GRAVITY_Z("Gravity Z", "z-grav", 0x400),
+	
+	/**
+	 * The mean of the magnitude of the body acceleration, that is the acceleration without gravity. Unlike
+	 * the other features, this does not depend on the orientation of the device.
+	 */
+	BODY_MAGNITUDE("Body Magnitude", "bodymag", 0x800),
+	
+	/**
+	 * The variance of the magnitude of the body acceleration. That is, the variance of
+	 * {@link #BODY_MAGNITUDE}.
+	 */
+	VARIANCE_OF_BODY_MAGNITUDE("Variance of the Body Magnitude", "bodyvarmag", 0x1000);
 	
 	// Add new features below and DO NOT change existing features
 	
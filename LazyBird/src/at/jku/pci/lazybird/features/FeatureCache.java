@@ -0,0 +1,344 @@
+package at.jku.pci.lazybird.features;
+
+import at.jku.pci.lazybird.features.FeatureExtractor.FileFeatures;
+import weka.core.Attribute;
+import weka.core.FastVector;
+import weka.core.Instances;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileFilter;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * Represents a persistent cache of the features extracted from single files, so that files don't need to be
+ * read and slid again when the same features are extracted repeatedly, e.g. when training different
+ * classifiers.
+ * <p>
+ * Every cache entry is stored in a separate file in the cache directory. Entries are identified by the path,
+ * size and modification time of the source file, window and jump size, the feature mask and the trimmed
+ * times, see {@link FeatureExtractor#setTrim(long, long)}. If the source file changes, its entry is simply
+ * not found anymore and replaced eventually.<br>
+ * When the total size of the entries exceeds the maximum size, the least recently used entries are deleted
+ * by {@link #trim()}.
+ * <p>
+ * This class is thread safe, different files may be read and written concurrently.
+ * 
+ * @see FeatureExtractor#setCache(FeatureCache)
+ * @author Peter
+ */
+public class FeatureCache
+{
+	/**
+	 * The file extension of cache entries.
+	 */
+	public static final String EXTENSION = ".features";
+	
+	// Identifies cache files and their format, needs to be changed when the format or extraction changes
+	private static final int MAGIC = 0x4C424643;
+	private static final int VERSION = 2;
+	
+	private static final FileFilter sEntryFilter = new FileFilter() {
+		@Override
+		public boolean accept(File f)
+		{
+			return f.isFile() && f.getName().endsWith(EXTENSION);
+		}
+	};
+	
+	private final File mDir;
+	private final long mMaxSize;
+	
+	/**
+	 * Initializes a new instance of the {@link FeatureCache} class with the specified directory and maximum
+	 * size. The directory is created when the first entry is added.
+	 * 
+	 * @param dir the directory to store cache entries in, should not be used for anything else.
+	 * @param maxSize the maximum total size of all entries in bytes.
+	 * @exception IllegalArgumentException if {@code maxSize} is negative.
+	 */
+	public FeatureCache(File dir, long maxSize)
+	{
+		if(dir == null)
+			throw new NullPointerException();
+		if(maxSize < 0)
+			throw new IllegalArgumentException("maxSize cannot be negative.");
+		
+		mDir = dir;
+		mMaxSize = maxSize;
+	}
+	
+	/**
+	 * Gets the directory of this cache.
+	 */
+	public File getDirectory()
+	{
+		return mDir;
+	}
+	
+	/**
+	 * Gets the maximum total size of the entries of this cache in bytes.
+	 */
+	public long getMaxSize()
+	{
+		return mMaxSize;
+	}
+	
+	/**
+	 * Gets the cached features for the specified file and parameters.
+	 * 
+	 * @return the cached features, or {@code null} if there is no valid entry.
+	 */
+	FileFeatures get(File file, int windowSize, int jumpSize, int flags, long trimStart, long trimEnd)
+	{
+		final File entry = getEntry(file, windowSize, jumpSize, flags, trimStart, trimEnd);
+		if(!entry.isFile())
+			return null;
+		
+		try
+		{
+			final DataInputStream in =
+					new DataInputStream(new BufferedInputStream(new FileInputStream(entry)));
+			try
+			{
+				final FileFeatures out = read(in, file, windowSize, jumpSize, flags, trimStart, trimEnd);
+				if(out != null)
+					entry.setLastModified(System.currentTimeMillis());
+				return out;
+			}
+			finally
+			{
+				in.close();
+			}
+		}
+		catch(IOException ex)
+		{
+			// Corrupt or truncated entries are just deleted
+			entry.delete();
+			return null;
+		}
+	}
+	
+	/**
+	 * Stores the specified features for the specified file and parameters. Errors are ignored, the features
+	 * are just not cached then.
+	 * 
+	 * @return {@code true} if the entry was written, {@code false} otherwise.
+	 */
+	boolean put(File file, int windowSize, int jumpSize, int flags, long trimStart, long trimEnd,
+			FileFeatures features)
+	{
+		if(!mDir.isDirectory() && !mDir.mkdirs())
+			return false;
+		
+		// Write to a temporary file first, so no partial entries are ever read
+		final File entry = getEntry(file, windowSize, jumpSize, flags, trimStart, trimEnd);
+		final File temp = new File(mDir, entry.getName() + "." + Thread.currentThread().getId() + ".tmp");
+		
+		try
+		{
+			final DataOutputStream out =
+					new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)));
+			try
+			{
+				write(out, file, windowSize, jumpSize, flags, trimStart, trimEnd, features);
+			}
+			finally
+			{
+				out.close();
+			}
+			
+			if(temp.renameTo(entry))
+				return true;
+		}
+		catch(IOException ex)
+		{
+			// Fall through to delete the temporary file
+		}
+		
+		temp.delete();
+		return false;
+	}
+	
+	/**
+	 * Deletes the least recently used entries until the total size of all entries does not exceed the maximum
+	 * size of this cache.
+	 */
+	public synchronized void trim()
+	{
+		final File[] entries = mDir.listFiles(sEntryFilter);
+		if(entries == null)
+			return;
+		
+		long size = 0;
+		final long[] lastUsed = new long[entries.length];
+		for(int j = 0; j < entries.length; j++)
+		{
+			size += entries[j].length();
+			lastUsed[j] = entries[j].lastModified();
+		}
+		if(size <= mMaxSize)
+			return;
+		
+		// Sort by the times taken before, so the order does not change while sorting
+		final Integer[] order = new Integer[entries.length];
+		for(int j = 0; j < order.length; j++)
+			order[j] = j;
+		Arrays.sort(order, new Comparator<Integer>() {
+			@Override
+			public int compare(Integer lhs, Integer rhs)
+			{
+				final long l = lastUsed[lhs];
+				final long r = lastUsed[rhs];
+				return l < r ? -1 : (l == r ? 0 : 1);
+			}
+		});
+		
+		for(int j = 0; j < order.length && size > mMaxSize; j++)
+		{
+			final File f = entries[order[j]];
+			final long length = f.length();
+			if(f.delete())
+				size -= length;
+		}
+	}
+	
+	/**
+	 * Deletes all entries of this cache.
+	 */
+	public synchronized void clear()
+	{
+		final File[] entries = mDir.listFiles(sEntryFilter);
+		if(entries == null)
+			return;
+		
+		for(File f : entries)
+			f.delete();
+	}
+	
+	/**
+	 * Gets the entry file for the specified file and parameters. Different keys can map to the same entry, so
+	 * the key is also stored in the entry and checked when reading.
+	 */
+	private File getEntry(File file, int windowSize, int jumpSize, int flags, long trimStart, long trimEnd)
+	{
+		final String path = file.getAbsolutePath();
+		final String name = String.format("%08X-%X-%X-%X-%X-%X%s", path.hashCode(), windowSize, jumpSize, flags,
+				trimStart, trimEnd, EXTENSION);
+		return new File(mDir, name);
+	}
+	
+	/**
+	 * Gets the length of a recording, for a session the total length of its segments, since the manifest
+	 * doesn't change when the last segment grows.
+	 */
+	private static long getLength(File file) throws IOException
+	{
+		if(!RecordingSession.isSession(file))
+			return file.length();
+		
+		long length = file.length();
+		for(File segment : RecordingSession.read(file).getSegments())
+			length += segment.length();
+		return length;
+	}
+	
+	/**
+	 * Gets the last modification time of a recording, for a session the latest of the manifest and its
+	 * segments.
+	 */
+	private static long getLastModified(File file) throws IOException
+	{
+		if(!RecordingSession.isSession(file))
+			return file.lastModified();
+		
+		long lastModified = file.lastModified();
+		for(File segment : RecordingSession.read(file).getSegments())
+			lastModified = Math.max(lastModified, segment.lastModified());
+		return lastModified;
+	}
+	
+	/**
+	 * Writes a cache entry to the specified stream.
+	 */
+	private static void write(DataOutputStream out, File file, int windowSize, int jumpSize, int flags,
+			long trimStart, long trimEnd, FileFeatures features) throws IOException
+	{
+		out.writeInt(MAGIC);
+		out.writeInt(VERSION);
+		out.writeUTF(file.getAbsolutePath());
+		out.writeLong(getLength(file));
+		out.writeLong(getLastModified(file));
+		out.writeInt(windowSize);
+		out.writeInt(jumpSize);
+		out.writeInt(flags);
+		out.writeLong(trimStart);
+		out.writeLong(trimEnd);
+		
+		// The class attribute is needed for the output header
+		final Attribute classAttribute = features.header.classAttribute();
+		out.writeInt(classAttribute.numValues());
+		for(int j = 0; j < classAttribute.numValues(); j++)
+			out.writeUTF(classAttribute.value(j));
+		
+		out.writeInt(features.numInstances);
+		out.writeInt(features.values.size());
+		for(double[] values : features.values)
+		{
+			for(double d : values)
+				out.writeDouble(d);
+		}
+	}
+	
+	/**
+	 * Reads a cache entry from the specified stream.
+	 * 
+	 * @return the features, or {@code null} if the entry is for a different key.
+	 */
+	private static FileFeatures read(DataInputStream in, File file, int windowSize, int jumpSize, int flags,
+			long trimStart, long trimEnd) throws IOException
+	{
+		if(in.readInt() != MAGIC || in.readInt() != VERSION)
+			return null;
+		if(!in.readUTF().equals(file.getAbsolutePath()))
+			return null;
+		if(in.readLong() != getLength(file) || in.readLong() != getLastModified(file))
+			return null;
+		if(in.readInt() != windowSize || in.readInt() != jumpSize || in.readInt() != flags)
+			return null;
+		if(in.readLong() != trimStart || in.readLong() != trimEnd)
+			return null;
+		
+		final FileFeatures out = new FileFeatures();
+		final int numClassValues = in.readInt();
+		final FastVector classValues = new FastVector(numClassValues);
+		for(int j = 0; j < numClassValues; j++)
+			classValues.addElement(in.readUTF());
+		
+		final FastVector attributes = new FastVector(1);
+		attributes.addElement(new Attribute("class", classValues));
+		out.header = new Instances(file.getName(), attributes, 0);
+		out.header.setClassIndex(0);
+		
+		// Features and class in every row
+		final int numValues = FeatureLayout.get(flags).size() + 1;
+		out.numInstances = in.readInt();
+		final int numRows = in.readInt();
+		out.values.ensureCapacity(numRows);
+		for(int j = 0; j < numRows; j++)
+		{
+			final double[] values = new double[numValues];
+			for(int k = 0; k < numValues; k++)
+				values[k] = in.readDouble();
+			out.values.add(values);
+		}
+		
+		return out;
+	}
+}
@@ -1,7 +1,9 @@
 package at.jku.pci.lazybird.features;
 
 import android.os.AsyncTask;
+import at.jku.pci.lazybird.features.AccelerationWindow.AccelerationListener;
 import at.jku.pci.lazybird.features.SlidingWindow.WindowListener;
+import at.jku.pci.lazybird.util.TimeIndex;
 import weka.core.Attribute;
 import weka.core.FastVector;
 import weka.core.Instance;
@@ -13,22 +15,28 @@ import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.FileReader;
 import java.io.IOException;
-import java.util.EnumMap;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Enumeration;
 import java.util.HashSet;
 import java.util.Iterator;
-import java.util.LinkedList;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 /**
  * Represents a task that takes an array of {@link File} and {@link Feature} objects and creates an
  * {@link Instances} data set. Static methods are provided to extract features from a set of {@link Instance}
  * objects.
  * <p>
- * The {@code File} objects need to point to ARFF Files, the {@code Feature} objects need to be a subset of
- * the {@link Feature} enumeration. This class can be used to asynchronously calculate the features of ARFF
- * Files containing acceleration vectors (in 3D space) by transporting both the source filenames and the
- * requested features as well as the resulting data set.
+ * The {@code File} objects need to point to ARFF Files or binary recordings (see {@link BinarySampleEncoder}),
+ * the {@code Feature} objects need to be a subset of the {@link Feature} enumeration. This class can be used
+ * to asynchronously calculate the features of ARFF Files containing acceleration vectors (in 3D space) by
+ * transporting both the source filenames and the requested features as well as the resulting data set.
  * <p>
  * A sliding window is applied to the input data, see the {@link SlidingWindow} class for more information.<br>
  * The input ARFF files or {@link Instance} objects need to have the following attributes:
@@ -41,8 +49,9 @@ import java.util.Map;
  * <li>The data only contains one class value per file (this is not checked for performance reasons, but it
  * leads to undefined behavior if there is more than one class).
  * </ul>
- * If multiple files are specified, the output data set will contain the features of every file, extracted
- * separately and then joined in no particular order.
+ * If multiple files are specified, the features of every file are extracted separately in parallel, using up
+ * to one thread per processor. The output data set contains the features of every file in the order of the
+ * files.
  * <p>
  * If the only feature specified is {@link Feature#RAW}, then no feature extraction is performed on the input
  * files, but all files are merged into one single feature file, if all of them contain the same features. If
@@ -63,7 +72,16 @@ public class FeatureExtractor
 	 * @see Feature#getMask(Feature[])
 	 * @see Feature#getBit()
 	 */
-	public static final int IMPLEMENTED_FEATURES = 0xFF;
+	public static final int IMPLEMENTED_FEATURES = 0x1FFF;
+	
+	/**
+	 * A mask with bits set for all features of the gravity or body acceleration. These are only calculated
+	 * from an {@link AccelerationWindow} that separates the gravity, since the {@link GravityFilter} needs to
+	 * see every sample before the window.
+	 * 
+	 * @see AccelerationWindow#getSeparatedStatistics()
+	 */
+	public static final int SEPARATED_FEATURES = 0x1F00;
 	
 	static final String LOGTAG = "FeatureExtractor";
 	
@@ -73,6 +91,9 @@ public class FeatureExtractor
 	private final int mJumpSize;
 	private int mInputInstances;
 	private int mOutputFeatures;
+	private FeatureCache mCache = null;
+	private long mTrimStart = 0;
+	private long mTrimEnd = 0;
 	Instances mOutput = null;
 	private boolean mCalculated = false;
 	
@@ -174,6 +195,60 @@ public class FeatureExtractor
 		return mJumpSize;
 	}
 	
+	/**
+	 * Gets the cache used for the features of single files, or {@code null} if there is none.
+	 */
+	public FeatureCache getCache()
+	{
+		return mCache;
+	}
+	
+	/**
+	 * Sets the cache to use for the features of single files. Files with cached features are not read when
+	 * extracting, features extracted from other files are added to the cache.<br>
+	 * The cache is not used when merging already extracted features, see {@link Feature#RAW}.
+	 * 
+	 * @param cache the {@link FeatureCache} to use, or {@code null} to always read all files.
+	 */
+	public void setCache(FeatureCache cache)
+	{
+		mCache = cache;
+	}
+	
+	/**
+	 * Gets the time skipped at the start of every file in ms.
+	 */
+	public long getTrimStart()
+	{
+		return mTrimStart;
+	}
+	
+	/**
+	 * Gets the time skipped at the end of every file in ms.
+	 */
+	public long getTrimEnd()
+	{
+		return mTrimEnd;
+	}
+	
+	/**
+	 * Sets the time to skip at the start and the end of every file, e.g. while the device is put away after
+	 * starting to record. Only the samples in between are used, see
+	 * {@link #openTrimmedReader(File, long, long)}.<br>
+	 * Trimming is not applied when merging already extracted features, see {@link Feature#RAW}.
+	 * 
+	 * @param start the time to skip at the start in ms.
+	 * @param end the time to skip at the end in ms.
+	 * @exception IllegalArgumentException if {@code start} or {@code end} is negative.
+	 */
+	public void setTrim(long start, long end)
+	{
+		if(start < 0 || end < 0)
+			throw new IllegalArgumentException("The trimmed times must not be negative.");
+		mTrimStart = start;
+		mTrimEnd = end;
+	}
+	
 	/**
 	 * Determines whether {@link #extract()} has been called and returned.<br>
 	 * Note that this class is not thread safe and {@code extract} may be running when this method is called.
@@ -190,9 +265,13 @@ public class FeatureExtractor
 	 * Starts the feature extraction by reading files and extracting features. This method can block the
 	 * calling thread a long time and should not be run on the UI thread.<br>
 	 * Note that calls to this method are not synchronized and multiple calls my lead to undefined behavior.
+	 * <p>
+	 * Files are processed on a thread pool, the calling thread waits for the results. If it is interrupted
+	 * while waiting, the remaining files are abandoned.
 	 * 
 	 * @exception IllegalStateException if {@link #extract()} was called before.
 	 * @exception FileNotFoundException if a file from the specified list does not exist.
+	 * @exception InterruptedIOException if the calling thread was interrupted.
 	 * @exception IOException if another file related error occurred.
 	 * @exception UnsupportedAttributeTypeException if the attributes in one of the input files are of the
 	 *            wrong format, see the {@link FeatureExtractor class documentation}.
@@ -210,59 +289,335 @@ public class FeatureExtractor
 			return;
 		}
 		
-		// WindowListener to add extracted features to the output Instances
-		final WindowListener<Instance> windowListener = new WindowListener<Instance>() {
-			@Override
-			public void onWindowChanged(Iterable<Instance> window)
+		// Extract features from the files in parallel, every task returns the feature vectors of one file
+		final int numThreads = Math.min(mFiles.length, Runtime.getRuntime().availableProcessors());
+		final ExecutorService executor = Executors.newFixedThreadPool(numThreads);
+		final ArrayList<Future<FileFeatures>> results = new ArrayList<Future<FileFeatures>>(mFiles.length);
+		
+		try
+		{
+			final FeatureLayout layout = FeatureLayout.get(mOutputFeatures);
+			for(File f : mFiles)
+				results.add(executor.submit(new ExtractionTask(f, layout)));
+			
+			// Merge in file order, so the output is the same as if the files were processed one by one
+			final FileFeatures[] features = new FileFeatures[mFiles.length];
+			int capacity = 0;
+			for(int j = 0; j < mFiles.length; j++)
 			{
-				final Instance raw = extractFeatures(window);
-				final Instance features = new Instance(mOutput.numAttributes());
-				features.setDataset(mOutput);
-				features.setClassValue(raw.value(raw.numValues() - 1));
-				
-				for(int j = 0; j < mOutput.numAttributes() - 1; j++)
-					features.setValue(j, raw.value(j + 1));
-				
-				mOutput.add(features);
+				features[j] = FeatureExtractor.getResult(results.get(j));
+				capacity += features[j].values.size();
 			}
-		};
+			
+			mOutput = initOutput(features[0].header, capacity);
+			for(int j = 0; j < features.length; j++)
+			{
+				for(double[] values : features[j].values)
+					mOutput.add(new Instance(1.0, values));
+				mInputInstances += features[j].numInstances;
+				features[j] = null;
+			}
+		}
+		finally
+		{
+			// Only does something if an exception was thrown
+			executor.shutdownNow();
+		}
 		
-		for(File f : mFiles)
+		if(mCache != null)
+			mCache.trim();
+		mCalculated = true;
+	}
+	
+	/**
+	 * Waits for the specified extraction task and gets its result, rethrowing any exception it threw.
+	 */
+	private static FileFeatures getResult(Future<FileFeatures> result) throws IOException,
+			UnsupportedAttributeTypeException
+	{
+		try
 		{
-			final BufferedReader reader = new BufferedReader(new FileReader(f));
-			final ArffReader arff = new ArffReader(reader);
-			final Instances input = arff.getData();
-			
-			// For static feature extraction, files need to have timestamp, class and coordinates
-			if(input.numAttributes() == 5)
+			return result.get();
+		}
+		catch(InterruptedException ex)
+		{
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException();
+		}
+		catch(ExecutionException ex)
+		{
+			final Throwable cause = ex.getCause();
+			if(cause instanceof IOException)
+				throw (IOException)cause;
+			if(cause instanceof UnsupportedAttributeTypeException)
+				throw (UnsupportedAttributeTypeException)cause;
+			if(cause instanceof RuntimeException)
+				throw (RuntimeException)cause;
+			if(cause instanceof Error)
+				throw (Error)cause;
+			throw new RuntimeException(cause);
+		}
+	}
+	
+	/**
+	 * Opens a recording with the reader for its format, a {@link SessionReader} for the manifest of a
+	 * {@link RecordingSession}, a {@link BinarySampleReader} for files with the
+	 * {@link BinarySampleEncoder#EXTENSION} extension, a {@link RecordingArffReader} for ARFF files written by
+	 * the recorder and an {@link ArffSampleReader} otherwise.
+	 * 
+	 * @param file the recording to read.
+	 * @return a new {@link SampleReader} positioned before the first sample.
+	 * @exception FileNotFoundException if {@code file} does not exist.
+	 * @exception IOException if an error occurred reading the header.
+	 * @exception UnsupportedAttributeTypeException if the attributes of an ARFF file are not valid.
+	 */
+	public static SampleReader openReader(File file) throws IOException, UnsupportedAttributeTypeException
+	{
+		if(RecordingSession.isSession(file))
+			return new SessionReader(RecordingSession.read(file));
+		if(file.getName().endsWith(BinarySampleEncoder.EXTENSION))
+			return new BinarySampleReader(file);
+		
+		final SampleReader reader = RecordingArffReader.open(file);
+		if(reader != null)
+			return reader;
+		return new ArffSampleReader(file);
+	}
+	
+	/**
+	 * Opens the samples of a recording within a time range. If the recording has a {@link TimeIndex} and its
+	 * reader is a {@link SeekableSampleReader}, the reader seeks to the start of the range, so the time taken
+	 * is proportional to the length of the range. Otherwise the samples before the range are skipped. For a
+	 * session, the segments before the range are skipped and the first one is opened the same way.
+	 * 
+	 * @param file the recording to read.
+	 * @param start the first timestamp of the range in ms, inclusive.
+	 * @param end the last timestamp of the range in ms, exclusive.
+	 * @return a new {@link TimeRangeReader} positioned before the first sample of the range.
+	 * @exception FileNotFoundException if {@code file} does not exist.
+	 * @exception IOException if an error occurred reading the header.
+	 * @exception UnsupportedAttributeTypeException if the attributes of an ARFF file are not valid.
+	 */
+	public static TimeRangeReader openReader(File file, long start, long end) throws IOException,
+			UnsupportedAttributeTypeException
+	{
+		if(RecordingSession.isSession(file))
+			return new TimeRangeReader(new SessionReader(RecordingSession.read(file), start), start, end);
+		return openReader(file, start, end, readIndex(file));
+	}
+	
+	private static TimeRangeReader openReader(File file, long start, long end, TimeIndex index)
+			throws IOException, UnsupportedAttributeTypeException
+	{
+		final SampleReader reader = openReader(file);
+		try
+		{
+			if(index != null && reader instanceof SeekableSampleReader)
 			{
-				input.setClassIndex(input.numAttributes() - 1);
+				final int entry = index.find(start);
+				if(entry >= 0)
+					((SeekableSampleReader)reader).seek(index.getOffset(entry));
 			}
-			else
+			return new TimeRangeReader(reader, start, end);
+		}
+		catch(IOException ex)
+		{
+			reader.close();
+			throw ex;
+		}
+	}
+	
+	/**
+	 * Opens the samples of a recording without the specified time at the start and the end. The first and
+	 * last timestamp are taken from the {@link TimeIndex} of the recording if it is complete, otherwise the
+	 * recording has to be read once to find them. A session is trimmed as a whole, using the indexes of its first
+	 * and last segment.
+	 * 
+	 * @param file the recording to read.
+	 * @param trimStart the time to skip at the start in ms.
+	 * @param trimEnd the time to skip at the end in ms.
+	 * @return a new {@link SampleReader} positioned before the first sample that is not skipped.
+	 * @exception FileNotFoundException if {@code file} does not exist.
+	 * @exception IOException if an error occurred reading the header.
+	 * @exception UnsupportedAttributeTypeException if the attributes of an ARFF file are not valid.
+	 * @see #openReader(File, long, long)
+	 */
+	public static SampleReader openTrimmedReader(File file, long trimStart, long trimEnd) throws IOException,
+			UnsupportedAttributeTypeException
+	{
+		if(trimStart <= 0 && trimEnd <= 0)
+			return openReader(file);
+		
+		final boolean session = RecordingSession.isSession(file);
+		final TimeIndex index = session ? null : readIndex(file);
+		final long[] range = session ? getSessionRange(file) : null;
+		long first;
+		long last;
+		if(index != null && index.isComplete())
+		{
+			first = index.getFirstTime();
+			last = index.getLastTime();
+		}
+		else if(range != null)
+		{
+			first = range[0];
+			last = range[1];
+		}
+		else
+		{
+			// The last timestamp is only needed when trimming the end
+			final SampleReader reader = openReader(file);
+			try
+			{
+				if(!reader.next())
+					return reader;
+				first = reader.getTime();
+				last = first;
+				while(trimEnd > 0 && reader.next())
+					last = reader.getTime();
+			}
+			catch(IOException ex)
 			{
 				reader.close();
-				throw new UnsupportedAttributeTypeException(f.toString());
+				throw ex;
+			}
+			reader.close();
+		}
+		
+		final long end = trimEnd > 0 ? last - trimEnd + 1 : Long.MAX_VALUE;
+		if(session)
+			return openReader(file, first + trimStart, end);
+		return openReader(file, first + trimStart, end, index);
+	}
+	
+	/**
+	 * Gets the first and last timestamp of a session from the indexes of its first and last segment.
+	 * 
+	 * @return the first and last timestamp, or {@code null} if the segments have no complete index.
+	 */
+	private static long[] getSessionRange(File file) throws IOException
+	{
+		final File[] segments = RecordingSession.read(file).getSegments();
+		if(segments.length == 0)
+			return null;
+		
+		final TimeIndex first = readIndex(segments[0]);
+		final TimeIndex last = readIndex(segments[segments.length - 1]);
+		if(first == null || last == null || !last.isComplete())
+			return null;
+		return new long[] { first.getFirstTime(), last.getLastTime() };
+	}
+	
+	/**
+	 * Reads the {@link TimeIndex} of a recording, ignoring errors since the index is optional.
+	 * 
+	 * @return the index, or {@code null} if there is no valid index.
+	 */
+	private static TimeIndex readIndex(File file)
+	{
+		try
+		{
+			return TimeIndex.read(file);
+		}
+		catch(IOException ex)
+		{
+			return null;
+		}
+	}
+	
+	/**
+	 * Holds the features extracted from a single file.
+	 * 
+	 * @author Peter
+	 */
+	static class FileFeatures
+	{
+		/**
+		 * The header of the input file, for the class attribute.
+		 */
+		public Instances header;
+		/**
+		 * The feature vectors with the class as last value, in the order of the windows.
+		 */
+		public final ArrayList<double[]> values = new ArrayList<double[]>();
+		public int numInstances;
+	}
+	
+	/**
+	 * Reads a single file and extracts the features of every window, so that multiple files can be processed
+	 * in parallel. The file is streamed into an {@link AccelerationWindow}, so only the samples of the current
+	 * window are kept in memory.
+	 * 
+	 * @author Peter
+	 */
+	private class ExtractionTask implements Callable<FileFeatures>, AccelerationListener
+	{
+		private final File mFile;
+		private final FeatureLayout mLayout;
+		private final FileFeatures mResult = new FileFeatures();
+		private double mClass;
+		
+		public ExtractionTask(File file, FeatureLayout layout)
+		{
+			mFile = file;
+			mLayout = layout;
+		}
+		
+		@Override
+		public FileFeatures call() throws IOException, UnsupportedAttributeTypeException
+		{
+			if(mCache != null)
+			{
+				final FileFeatures cached =
+						mCache.get(mFile, mWindowSize, mJumpSize, mLayout.getFlags(), mTrimStart, mTrimEnd);
+				if(cached != null)
+					return cached;
 			}
 			
-			// Initialize output Instances object from data of the first file
-			if(mOutput == null)
-				mOutput = initOutput(input);
-			
+			final SampleReader reader = openTrimmedReader(mFile, mTrimStart, mTrimEnd);
 			try
 			{
-				SlidingWindow.slide(input, mWindowSize, mJumpSize, windowListener);
-				mInputInstances += input.numInstances();
+				// For static feature extraction, files need to have timestamp, class and coordinates
+				if(reader.getStructure().classIndex() < 0)
+					throw new UnsupportedAttributeTypeException(mFile.toString());
+				
+				final AccelerationWindow window =
+						new AccelerationWindow(mWindowSize, mJumpSize, true, mLayout.isSeparated());
+				window.setWindowListener(this);
+				int numInstances = 0;
+				while(reader.next())
+				{
+					// The current sample is the last one in the window, if the window changes
+					mClass = reader.getClassValue();
+					window.add(reader.getTime(), reader.getX(), reader.getY(), reader.getZ());
+					numInstances++;
+					
+					if(Thread.interrupted())
+						throw new InterruptedIOException();
+				}
+				
+				mResult.header = reader.getStructure();
+				mResult.numInstances = numInstances;
+				if(mCache != null)
+					mCache.put(mFile, mWindowSize, mJumpSize, mLayout.getFlags(), mTrimStart, mTrimEnd, mResult);
+				
+				return mResult;
 			}
-			catch(UnsupportedAttributeTypeException ex)
+			finally
 			{
 				reader.close();
-				throw new UnsupportedAttributeTypeException(f.toString());
 			}
-			
-			reader.close();
 		}
 		
-		mCalculated = true;
+		@Override
+		public void onWindowChanged(AccelerationWindow window)
+		{
+			// Features first, class last
+			final double[] values = new double[mLayout.size() + 1];
+			FeatureExtractor.extractFeatures(window, mLayout, values, 0);
+			values[values.length - 1] = mClass;
+			mResult.values.add(values);
+		}
 	}
 	
 	/**
@@ -275,16 +630,16 @@ public class FeatureExtractor
 		
 		for(File f : mFiles)
 		{
-			// Read the next input file
+			// Read the header of the next input file, the data are added one by one
 			final BufferedReader reader = new BufferedReader(new FileReader(f));
-			final ArffReader arff = new ArffReader(reader);
-			final Instances input = arff.getData();
+			final ArffReader arff = new ArffReader(reader, 0);
+			final Instances input = arff.getStructure();
 			input.setClassIndex(input.numAttributes() - 1);
 			
 			if(mOutput == null)
 			{
 				// Initialize output and fill our HashSet with the feature names
-				mOutput = initOutput(input);
+				mOutput = initOutput(input, 0);
 				for(Feature f2 : Feature.getFeatures(mOutputFeatures))
 					inFeatures.add(f2.getAttribute());
 			}
@@ -307,29 +662,32 @@ public class FeatureExtractor
 			}
 			
 			// Simply add all instances to the output
-			@SuppressWarnings("unchecked")
-			Enumeration<Instance> instances = input.enumerateInstances();
-			while(instances.hasMoreElements())
+			try
 			{
-				final Instance i = new Instance(instances.nextElement());
-				i.setDataset(mOutput);
-				mOutput.add(i);
+				Instance i;
+				while((i = arff.readInstance(input)) != null)
+				{
+					i.setDataset(mOutput);
+					mOutput.add(i);
+					mInputInstances++;
+				}
+			}
+			finally
+			{
+				reader.close();
 			}
-			
-			mInputInstances += input.numInstances();
-			reader.close();
 		}
 		
 		mCalculated = true;
 	}
 	
 	/**
-	 * Initializes an output set from the specified instances and sets {@link #mOutputFeatures} if necessary.
+	 * Initializes an output set with the specified capacity from the specified instances and sets
+	 * {@link #mOutputFeatures} if necessary.
 	 */
-	private Instances initOutput(Instances input) throws UnsupportedAttributeTypeException
+	private Instances initOutput(Instances input, int capacity) throws UnsupportedAttributeTypeException
 	{
 		final FastVector attributes = new FastVector(mFeatures.length + 1);
-		double cap = mFiles.length;
 		
 		if(mOutputFeatures != 0)
 		{
@@ -338,9 +696,6 @@ public class FeatureExtractor
 				attributes.addElement(new Attribute(f.getAttribute()));
 			
 			attributes.addElement(new Attribute("class", FeatureExtractor.getValueVector(input.classAttribute())));
-			
-			// Make an educated guess for the needed capacity of the output set
-			cap *= (input.lastInstance().value(0) - input.firstInstance().value(0)) / mJumpSize;
 		}
 		else
 		{
@@ -374,12 +729,9 @@ public class FeatureExtractor
 				else
 					throw new UnsupportedAttributeTypeException();
 			}
-			
-			// Guess some more
-			cap *= input.numInstances();
 		}
 		
-		Instances out = new Instances("lazybird-train-" + System.currentTimeMillis(), attributes, (int)cap);
+		Instances out = new Instances("lazybird-train-" + System.currentTimeMillis(), attributes, capacity);
 		out.setClassIndex(out.numAttributes() - 1);
 		
 		return out;
@@ -420,79 +772,112 @@ public class FeatureExtractor
 	 * @return an {@link Instance} with the specified features. The features are in the same order that
 	 *         {@link Feature#getFeatures(int)} returns.
 	 * @exception IllegalArgumentException if {@code instances} is empty or {@code flags} is {@code 0}.
+	 * @see #extractFeatures(Iterable, FeatureLayout, double[], int)
 	 */
 	public static <T extends Instance> Instance extractFeatures(Iterable<T> instances, int flags)
 	{
-		if(flags == 0)
-			throw new IllegalArgumentException("flags cannot be 0.");
+		final FeatureLayout layout = FeatureLayout.get(flags);
+		final double[] values = new double[layout.size() + 2];
+		final T last = FeatureExtractor.extractFeatures(instances, layout, values, 1);
 		
-		// The output features need to be in the right order, which depends on the definition of the Feature
-		// class. To be independent, put all features in a map and get them in the right order.
-		final EnumMap<Feature, Double> values = new EnumMap<Feature, Double>(Feature.class);
+		// Put the timestamp and class of the last instance around the features
+		values[0] = last.value(0);
+		if(last.numValues() == 5)
+		{
+			values[values.length - 1] = last.value(4);
+			return new Instance(1.0, values);
+		}
 		
+		return new Instance(1.0, Arrays.copyOf(values, values.length - 1));
+	}
+	
+	/**
+	 * Extracts the features of the specified layout from the specified instances into the specified array.
+	 * <p>
+	 * For more information on the expected instance format see the {@link FeatureExtractor class
+	 * documentation}. In the case of this method however, the class attribute is optional.
+	 * <p>
+	 * All features are calculated in a single pass over the instances. To keep the variance numerically
+	 * stable, the sums are calculated from values shifted by those of the first instance. The results are
+	 * within a relative error of {@code 1e-12} of a two-pass calculation over the same values, like those of
+	 * {@link RunningStatistics}.
+	 * <p>
+	 * Features of {@link #SEPARATED_FEATURES} are not supported, since the instances of a single window are
+	 * not enough to separate the gravity.
+	 * 
+	 * @param instances the instances to extract features from.
+	 * @param layout the layout of the features to extract.
+	 * @param out the array to write the features to, in the order of {@code layout}.
+	 * @param offset the index in {@code out} to write the first feature to.
+	 * @return the last instance of {@code instances}, for its timestamp and class.
+	 * @exception IllegalArgumentException if {@code instances} is empty or {@code layout} contains features
+	 *            of {@link #SEPARATED_FEATURES}.
+	 * @exception ArrayIndexOutOfBoundsException if {@code out} is too small.
+	 */
+	public static <T extends Instance> T extractFeatures(Iterable<T> instances, FeatureLayout layout,
+			double[] out, int offset)
+	{
 		// Check for empty input set
 		final Iterator<T> it = instances.iterator();
 		if(!it.hasNext())
 			throw new IllegalArgumentException("instances cannot be empty.");
-		
-		// All means are extracted at once, so if any one is needed, do it
-		if((flags & 0x07) != 0)
-		{
-			final Instance mean = FeatureExtractor.mean(instances);
-			if(Feature.X.isSet(flags))
-				values.put(Feature.X, mean.value(1));
-			if(Feature.Y.isSet(flags))
-				values.put(Feature.Y, mean.value(2));
-			if(Feature.Z.isSet(flags))
-				values.put(Feature.Z, mean.value(3));
-		}
+		if(layout.isSeparated())
+			throw new IllegalArgumentException("Separated features need an AccelerationWindow.");
 		
 		// Magnitude and Variance of the Magnitude both need the magnitude
-		if(Feature.MAGNITUDE.isSet(flags) || Feature.VARIANCE_OF_MAGNITUDE.isSet(flags))
+		final int flags = layout.getFlags();
+		final boolean needMagnitude = Feature.MAGNITUDE.isSet(flags) || Feature.VARIANCE_OF_MAGNITUDE.isSet(flags);
+		
+		// Shift values by the first instance, we need the last instance for the timestamp and class
+		T last = it.next();
+		final double kx = last.value(1);
+		final double ky = last.value(2);
+		final double kz = last.value(3);
+		final double km = needMagnitude ? FeatureExtractor.magnitude(kx, ky, kz) : 0.0;
+		double sx = 0.0, sy = 0.0, sz = 0.0, sm = 0.0;
+		double qx = 0.0, qy = 0.0, qz = 0.0, qm = 0.0;
+		int num = 1;
+		
+		while(it.hasNext())
 		{
-			final Iterable<Instance> mag = FeatureExtractor.magnitude(instances);
+			last = it.next();
+			num++;
 			
-			if(Feature.MAGNITUDE.isSet(flags))
+			final double x = last.value(1);
+			final double y = last.value(2);
+			final double z = last.value(3);
+			final double dx = x - kx;
+			final double dy = y - ky;
+			final double dz = z - kz;
+			sx += dx;
+			sy += dy;
+			sz += dz;
+			qx += dx * dx;
+			qy += dy * dy;
+			qz += dz * dz;
+			
+			if(needMagnitude)
 			{
-				double sum = 0.0;
-				int num = 0;
-				for(Instance i : mag)
-				{
-					num++;
-					sum += i.value(1);
-				}
-				values.put(Feature.MAGNITUDE, sum / num);
+				final double dm = FeatureExtractor.magnitude(x, y, z) - km;
+				sm += dm;
+				qm += dm * dm;
 			}
-			
-			if(Feature.VARIANCE_OF_MAGNITUDE.isSet(flags))
-				values.put(Feature.VARIANCE_OF_MAGNITUDE, FeatureExtractor.variance(mag, 1).value(1));
 		}
 		
-		// Extract variance features
-		if(Feature.VARIANCE_X.isSet(flags))
-			values.put(Feature.VARIANCE_X, FeatureExtractor.variance(instances, 1).value(1));
-		if(Feature.VARIANCE_Y.isSet(flags))
-			values.put(Feature.VARIANCE_Y, FeatureExtractor.variance(instances, 2).value(1));
-		if(Feature.VARIANCE_Z.isSet(flags))
-			values.put(Feature.VARIANCE_Z, FeatureExtractor.variance(instances, 3).value(1));
-		
-		// We need the last instance for the timestamp
-		Instance last = null;
-		while(it.hasNext())
-			last = it.next();
-		
-		// Put all features in an Instance and return it
-		final boolean hasClass = (last.numValues() == 5);
-		final Feature[] features = Feature.getFeatures(flags);
-		final Instance out = new Instance(features.length + (hasClass ? 2 : 1));
-		out.setValue(0, last.value(0));
-		
-		for(int j = 0; j < features.length; j++)
-			out.setValue(j + 1, values.get(features[j]));
-		if(hasClass)
-			out.setValue(features.length + 1, last.value(4));
+		for(int j = 0; j < layout.size(); j++)
+		{
+			final int stat = layout.getStatistic(j);
+			final double sum = FeatureExtractor.select(stat, sx, sy, sz, sm);
+			if(layout.isVariance(j))
+			{
+				final double sumSq = FeatureExtractor.select(stat, qx, qy, qz, qm);
+				out[offset + j] = FeatureExtractor.variance(sum, sumSq, num);
+			}
+			else
+				out[offset + j] = FeatureExtractor.select(stat, kx, ky, kz, km) + sum / num;
+		}
 		
-		return out;
+		return last;
 	}
 	
 	/**
@@ -515,115 +900,97 @@ public class FeatureExtractor
 	}
 	
 	/**
-	 * Calculates the variance of the attribute with the specified index.
+	 * Extracts the features specified in the bit mask from the samples in the specified window.
 	 * 
-	 * @param instances the set of instances to calculate the variance for.
-	 * @param idx the index of the needed attribute.
-	 * @return an {@link Instance} with the timestamp of the last input instance and the variance of the
-	 *         specified index. The class is retained, if present.
+	 * @param window the window to extract features from.
+	 * @param flags a bit mask, as returned by {@link Feature#getMask(Feature[])}.
+	 * @return an {@link Instance} with the timestamp of the last sample and the specified features. The
+	 *         features are in the same order that {@link Feature#getFeatures(int)} returns.
+	 * @exception IllegalArgumentException if {@code window} is empty or {@code flags} is {@code 0}.
+	 * @see #extractFeatures(AccelerationWindow, FeatureLayout, double[], int)
 	 */
-	private static <T extends Instance> Instance variance(Iterable<T> instances, int idx)
+	public static Instance extractFeatures(AccelerationWindow window, int flags)
 	{
-		Iterator<T> it = instances.iterator();
-		Instance last = null;
-		
-		double sum = 0.0;
-		int num = 0;
-		
-		while(it.hasNext())
-		{
-			last = it.next();
-			sum += last.value(idx);
-			num++;
-		}
-		
-		final double mean = sum / num;
-		double var = 0.0;
-		
-		it = instances.iterator();
-		while(it.hasNext())
-		{
-			last = it.next();
-			var += (last.value(idx) - mean) * (last.value(idx) - mean);
-		}
-		
-		// Input instances can have a number of attributes:
-		// * 3: timestamp, coordinate and class
-		// * 4: timestamp and 3 coordinates
-		// * 5: timestamp, 3 coordinates and a class
-		final boolean hasClass = (last.numValues() == 5) || (last.numValues() == 3);
-		final Instance out = new Instance(hasClass ? 3 : 2);
-		out.setValue(0, last.value(0));
-		if(hasClass)
-			out.setValue(2, last.value(last.numValues() == 3 ? 2 : 4));
+		final FeatureLayout layout = FeatureLayout.get(flags);
+		final double[] values = new double[layout.size() + 1];
+		FeatureExtractor.extractFeatures(window, layout, values, 1);
+		values[0] = window.getLastTime();
 		
-		out.setValue(1, var / num);
-		
-		return out;
+		return new Instance(1.0, values);
 	}
 	
 	/**
-	 * Calculates the magnitude of the specified instances.
+	 * Extracts the features of the specified layout from the samples in the specified window into the
+	 * specified array. This method does not allocate anything.
+	 * <p>
+	 * Unlike {@link #extractFeatures(Iterable, int)}, this does not iterate over the samples but takes all
+	 * features from the {@link RunningStatistics} of the window, so the cost does not depend on the window
+	 * size. The tolerance documented for {@code RunningStatistics} applies to the values stored in the window.
+	 * These are {@code float}, so compared with features calculated from the {@code double} values of an
+	 * {@link Instance}, every value is also rounded to {@code float}. Means then differ by up to {@code 1e-6}
+	 * relative, and variances that are small compared to the mean by more.
 	 * 
-	 * @param instances the set of instances to calculate the magnitude for.
-	 * @return an {@link Instance} with the timestamp of the last input instance and the magnitude. The class
-	 *         is retained, if present.
+	 * @param window the window to extract features from.
+	 * @param layout the layout of the features to extract.
+	 * @param out the array to write the features to, in the order of {@code layout}.
+	 * @param offset the index in {@code out} to write the first feature to.
+	 * @exception IllegalArgumentException if {@code window} is empty, or {@code layout} contains features of
+	 *            {@link #SEPARATED_FEATURES} and {@code window} doesn't separate the gravity.
+	 * @exception ArrayIndexOutOfBoundsException if {@code out} is too small.
 	 */
-	private static <T extends Instance> Iterable<Instance> magnitude(Iterable<T> instances)
+	public static void extractFeatures(AccelerationWindow window, FeatureLayout layout, double[] out,
+			int offset)
 	{
-		final LinkedList<Instance> out = new LinkedList<Instance>();
-		
-		for(Instance i : instances)
+		if(window.size() == 0)
+			throw new IllegalArgumentException("window cannot be empty.");
+		if(layout.isSeparated() && !window.isSeparated())
+			throw new IllegalArgumentException("window doesn't separate the gravity.");
+		
+		final RunningStatistics raw = window.getStatistics();
+		final RunningStatistics separated = window.getSeparatedStatistics();
+		for(int j = 0; j < layout.size(); j++)
 		{
-			final Instance mag = new Instance(i.numValues() - 2);
-			mag.setValue(0, i.value(0));
-			if(mag.numValues() > 2)
-				mag.setValue(2, i.value(4));
-			
-			final double tmp = i.value(1) * i.value(1) + i.value(2) * i.value(2);
-			mag.setValue(1, Math.sqrt(tmp + i.value(3) * i.value(3)));
-			out.add(mag);
+			final RunningStatistics stats = layout.isSeparated(j) ? separated : raw;
+			if(layout.isVariance(j))
+				out[offset + j] = stats.getVariance(layout.getStatistic(j));
+			else
+				out[offset + j] = stats.getMean(layout.getStatistic(j));
 		}
-		
-		return out;
 	}
 	
 	/**
-	 * Calculates the average of the specified instances.<br>
-	 * For the required attributes of an {@code Instance}, see
-	 * {@link SlidingWindow#slide(Instances, int, int, WindowListener)}. If the instances contain a class, it
-	 * is also set in the output instance, the timestamp is that of the last instance in the set.
-	 * 
-	 * @param instances a set of {@link Instance} objects.
-	 * @return an averaged {@code Instance}, or {@code null} if {@code instances} is empty.
+	 * Calculates the population variance from the sum and sum of squares of shifted values.
 	 */
-	private static <T extends Instance> Instance mean(Iterable<T> instances)
+	private static double variance(double sum, double sumSq, int num)
 	{
-		final Iterator<T> it = instances.iterator();
-		Instance last = null;
-		double x = 0.0, y = 0.0, z = 0.0;
-		int num = 0;
-		
-		if(!it.hasNext())
-			return null;
-		
-		while(it.hasNext())
+		final double var = (sumSq - sum * sum / num) / num;
+		// Rounding can make a variance of 0 slightly negative
+		return var < 0.0 ? 0.0 : var;
+	}
+	
+	/**
+	 * Selects the value corresponding to the specified {@link RunningStatistics} index.
+	 */
+	private static double select(int stat, double x, double y, double z, double magnitude)
+	{
+		switch(stat)
 		{
-			last = it.next();
-			num++;
-			x += last.value(1);
-			y += last.value(2);
-			z += last.value(3);
+			case RunningStatistics.X:
+				return x;
+			case RunningStatistics.Y:
+				return y;
+			case RunningStatistics.Z:
+				return z;
+			default:
+				return magnitude;
 		}
-		
-		final Instance out = new Instance(last.numValues());
-		out.setValue(0, last.value(0));
-		if(out.numValues() == 5)
-			out.setValue(4, last.value(4));
-		out.setValue(1, x / num);
-		out.setValue(2, y / num);
-		out.setValue(3, z / num);
-		
-		return out;
+	}
+	
+	/**
+	 * Calculates the magnitude of the specified acceleration vector.
+	 */
+	private static double magnitude(double x, double y, double z)
+	{
+		return Math.sqrt(x * x + y * y + z * z);
 	}
 }
@@ -0,0 +1,151 @@
+package at.jku.pci.lazybird.features;
+
+/**
+ * Represents the layout of a feature vector for a feature bit mask, that is the {@link Feature} stored at
+ * every position of the vector. The features are always in the canonical order of the {@link Feature}
+ * enumeration, the same order that {@link Feature#getFeatures(int)} returns.
+ * <p>
+ * Layouts are immutable. The layout of a mask is built once when it is first used and then cached, so getting
+ * it again does not allocate anything. This is used to extract features into a caller supplied {@code double}
+ * array, see
+ * {@link FeatureExtractor#extractFeatures(AccelerationWindow, FeatureLayout, double[], int)}.
+ * 
+ * @author Peter
+ */
+public final class FeatureLayout
+{
+	private static final FeatureLayout[] sLayouts = new FeatureLayout[FeatureExtractor.IMPLEMENTED_FEATURES + 1];
+	
+	private final int mFlags;
+	private final Feature[] mFeatures;
+	private final int[] mStatistics;
+	private final boolean[] mVariance;
+	private final boolean[] mSeparated;
+	
+	private FeatureLayout(int flags)
+	{
+		mFlags = flags;
+		mFeatures = Feature.getFeatures(flags);
+		mStatistics = new int[mFeatures.length];
+		mVariance = new boolean[mFeatures.length];
+		mSeparated = new boolean[mFeatures.length];
+		
+		for(int j = 0; j < mFeatures.length; j++)
+		{
+			switch(mFeatures[j])
+			{
+				case X:
+				case VARIANCE_X:
+				case GRAVITY_X:
+					mStatistics[j] = RunningStatistics.X;
+					break;
+				case Y:
+				case VARIANCE_Y:
+				case GRAVITY_Y:
+					mStatistics[j] = RunningStatistics.Y;
+					break;
+				case Z:
+				case VARIANCE_Z:
+				case GRAVITY_Z:
+					mStatistics[j] = RunningStatistics.Z;
+					break;
+				default:
+					mStatistics[j] = RunningStatistics.MAGNITUDE;
+					break;
+			}
+			
+			mVariance[j] = mFeatures[j] == Feature.VARIANCE_X || mFeatures[j] == Feature.VARIANCE_Y ||
+					mFeatures[j] == Feature.VARIANCE_Z || mFeatures[j] == Feature.VARIANCE_OF_MAGNITUDE ||
+					mFeatures[j] == Feature.VARIANCE_OF_BODY_MAGNITUDE;
+			mSeparated[j] = mFeatures[j].isSet(FeatureExtractor.SEPARATED_FEATURES);
+		}
+	}
+	
+	/**
+	 * Gets the layout for the specified feature bit mask.
+	 * 
+	 * @param flags a bit mask, as returned by {@link Feature#getMask(Feature[])}.
+	 * @return the {@link FeatureLayout} for {@code flags}.
+	 * @exception IllegalArgumentException if {@code flags} is {@code 0} or contains bits of features that
+	 *            are not implemented, see {@link FeatureExtractor#IMPLEMENTED_FEATURES}.
+	 */
+	public static FeatureLayout get(int flags)
+	{
+		if(flags == 0)
+			throw new IllegalArgumentException("flags cannot be 0.");
+		if((flags & ~FeatureExtractor.IMPLEMENTED_FEATURES) != 0)
+			throw new IllegalArgumentException("flags contains features that are not implemented.");
+		
+		synchronized(sLayouts)
+		{
+			if(sLayouts[flags] == null)
+				sLayouts[flags] = new FeatureLayout(flags);
+			return sLayouts[flags];
+		}
+	}
+	
+	/**
+	 * Gets the bit mask of the features in this layout.
+	 */
+	public int getFlags()
+	{
+		return mFlags;
+	}
+	
+	/**
+	 * Determines whether this layout contains features of {@link FeatureExtractor#SEPARATED_FEATURES}, that
+	 * need an {@link AccelerationWindow} separating the gravity.
+	 */
+	public boolean isSeparated()
+	{
+		return (mFlags & FeatureExtractor.SEPARATED_FEATURES) != 0;
+	}
+	
+	/**
+	 * Gets the number of features in this layout.
+	 */
+	public int size()
+	{
+		return mFeatures.length;
+	}
+	
+	/**
+	 * Gets the feature at the specified position in this layout.
+	 * 
+	 * @param index the position in the feature vector.
+	 * @exception ArrayIndexOutOfBoundsException if {@code index} is negative or not less than {@link #size()}.
+	 */
+	public Feature getFeature(int index)
+	{
+		return mFeatures[index];
+	}
+	
+	/**
+	 * Gets the {@link RunningStatistics} value the feature at the specified position is calculated from.
+	 * 
+	 * @return one of {@link RunningStatistics#X}, {@link RunningStatistics#Y}, {@link RunningStatistics#Z}
+	 *         or {@link RunningStatistics#MAGNITUDE}.
+	 * @see #isSeparated(int)
+	 */
+	int getStatistic(int index)
+	{
+		return mStatistics[index];
+	}
+	
+	/**
+	 * Determines whether the feature at the specified position is calculated from the
+	 * {@link AccelerationWindow#getSeparatedStatistics() separated statistics} rather than the raw ones.
+	 */
+	boolean isSeparated(int index)
+	{
+		return mSeparated[index];
+	}
+	
+	/**
+	 * Determines whether the feature at the specified position is a variance rather than a mean.
+	 */
+	boolean isVariance(int index)
+	{
+		return mVariance[index];
+	}
+}
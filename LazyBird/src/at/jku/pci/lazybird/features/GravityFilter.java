@@ -0,0 +1,96 @@
+package at.jku.pci.lazybird.features;
+
+/**
+ * Separates the gravity from the body acceleration of a stream of acceleration samples. The gravity is the
+ * output of a first-order low-pass IIR filter per axis with a cutoff frequency of {@link #CUTOFF} Hz, the body
+ * acceleration is what remains of the sample. Since the gravity only depends on how the device is held, the
+ * body acceleration is mostly independent of the orientation of the device.
+ * <p>
+ * The sensor doesn't deliver samples at a fixed rate, so the coefficient of the filter is computed from the
+ * actual interval between two samples. The filter starts at the first sample rather than at zero, and starts
+ * over after a gap of more than {@link #MAX_GAP} ms, e.g. between two files or two segments of a session.
+ * <p>
+ * Samples are processed without allocating anything. Instances are not thread-safe.
+ * 
+ * @see AccelerationWindow
+ * @author Peter
+ */
+public class GravityFilter
+{
+	/**
+	 * The cutoff frequency of the filter in Hz. Movements of the body are above this frequency, while the
+	 * orientation of the device changes more slowly.
+	 */
+	public static final double CUTOFF = 0.3;
+	/**
+	 * The longest interval between two samples in ms, after which the filter starts over.
+	 */
+	public static final long MAX_GAP = 1000;
+	
+	private static final double TIME_CONSTANT = 1000.0 / (2 * Math.PI * CUTOFF);
+	
+	private boolean mStarted = false;
+	private long mLastTime;
+	private double mGravityX;
+	private double mGravityY;
+	private double mGravityZ;
+	
+	/**
+	 * Filters the specified sample, updating the gravity.
+	 * 
+	 * @param time the timestamp of the sample in ms.
+	 * @param x the X-axis value.
+	 * @param y the Y-axis value.
+	 * @param z the Z-axis value.
+	 */
+	public void add(long time, float x, float y, float z)
+	{
+		final long interval = time - mLastTime;
+		mLastTime = time;
+		if(!mStarted || interval < 0 || interval > MAX_GAP)
+		{
+			mGravityX = x;
+			mGravityY = y;
+			mGravityZ = z;
+			mStarted = true;
+			return;
+		}
+		
+		final double alpha = interval / (TIME_CONSTANT + interval);
+		mGravityX += alpha * (x - mGravityX);
+		mGravityY += alpha * (y - mGravityY);
+		mGravityZ += alpha * (z - mGravityZ);
+	}
+	
+	/**
+	 * Makes the filter start over at the next sample.
+	 */
+	public void reset()
+	{
+		mStarted = false;
+	}
+	
+	/**
+	 * Gets the X-axis value of the gravity after the last sample.
+	 */
+	public double getGravityX()
+	{
+		return mGravityX;
+	}
+	
+	/**
+	 * Gets the Y-axis value of the gravity after the last sample.
+	 */
+	public double getGravityY()
+	{
+		return mGravityY;
+	}
+	
+	/**
+	 * Gets the Z-axis value of the gravity after the last sample.
+	 */
+	public double getGravityZ()
+	{
+		return mGravityZ;
+	}
+}
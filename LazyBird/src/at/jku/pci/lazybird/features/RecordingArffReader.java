@@ -0,0 +1,522 @@
+package at.jku.pci.lazybird.features;
+
+import at.jku.pci.lazybird.util.ARFFRowEncoder;
+import weka.core.Attribute;
+import weka.core.FastVector;
+import weka.core.Instance;
+import weka.core.Instances;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.util.Locale;
+
+/**
+ * A fast {@link SampleReader} for ARFF files written by the recorder, which always have the layout of
+ * {@link ARFFRowEncoder#ATTRIBUTE_STRING}: four numeric attributes and optionally a nominal class. Use
+ * {@link #open(File)} to open a file, which returns {@code null} for any other header, so the file can be read
+ * by an {@link ArffSampleReader} instead.
+ * <p>
+ * The rows of the {@code @DATA} section are parsed directly from the bytes of the file, without the
+ * tokenizer of {@link weka.core.converters.ArffLoader.ArffReader ArffReader} and without creating an
+ * {@link Instance} per row. The values are the same as an {@code ArffSampleReader} would return: numbers with
+ * up to 15 digits are converted exactly like {@link Double#parseDouble(String)} does, anything else, e.g.
+ * numbers with an exponent or values with spaces around them, is parsed the slow way.
+ * <p>
+ * The reader can be seeked to the offsets stored in the {@link at.jku.pci.lazybird.util.TimeIndex TimeIndex}
+ * of the file.
+ * 
+ * @author Peter
+ */
+public class RecordingArffReader implements SeekableSampleReader
+{
+	// The number of numeric attributes written by the recorder, see ARFFRowEncoder.ATTRIBUTE_STRING
+	private static final int NUM_NUMERIC = 4;
+	
+	// Numbers with more digits than this may not be exact as long or double and are parsed the slow way
+	private static final int MAX_DIGITS = 15;
+	// Powers of ten up to 10^MAX_DIGITS, all of them exact as double
+	private static final double[] POWERS_OF_TEN = new double[MAX_DIGITS + 1];
+	
+	static
+	{
+		POWERS_OF_TEN[0] = 1;
+		for(int j = 1; j < POWERS_OF_TEN.length; j++)
+			POWERS_OF_TEN[j] = POWERS_OF_TEN[j - 1] * 10;
+	}
+	
+	private final File mFile;
+	private final FileInputStream mIn;
+	private Instances mStructure;
+	private byte[][] mClasses;
+	
+	private byte[] mBuffer = new byte[64 * 1024];
+	private int mPos = 0;
+	private int mLimit = 0;
+	private boolean mEof = false;
+	private int mLine = 0;
+	
+	// The end of the last number parsed by parseNumber
+	private int mEnd;
+	private double mValue;
+	
+	private long mTime;
+	private float mX;
+	private float mY;
+	private float mZ;
+	private double mClass = Instance.missingValue();
+	
+	private RecordingArffReader(File file) throws FileNotFoundException
+	{
+		mFile = file;
+		mIn = new FileInputStream(file);
+	}
+	
+	/**
+	 * Opens the specified file and reads the header, if it was written by the recorder.
+	 * 
+	 * @param file the ARFF file to read.
+	 * @return a new {@link RecordingArffReader} positioned before the first sample, or {@code null} if the
+	 *         header is not the one written by the recorder.
+	 * @exception FileNotFoundException if {@code file} does not exist.
+	 * @exception IOException if an error occurred reading the header.
+	 */
+	public static RecordingArffReader open(File file) throws IOException
+	{
+		final RecordingArffReader reader = new RecordingArffReader(file);
+		boolean success = false;
+		
+		try
+		{
+			success = reader.readHeader();
+			return success ? reader : null;
+		}
+		finally
+		{
+			if(!success)
+				reader.close();
+		}
+	}
+	
+	/**
+	 * Reads the header up to and including the {@code @DATA} line.
+	 * 
+	 * @return {@code true} if the header has the layout written by the recorder, {@code false} otherwise.
+	 */
+	private boolean readHeader() throws IOException
+	{
+		String relation = null;
+		final FastVector attributes = new FastVector(NUM_NUMERIC + 1);
+		String line;
+		
+		while((line = readHeaderLine()) != null)
+		{
+			final String[] tokens = line.split("\\s+", 3);
+			final String keyword = tokens[0].toLowerCase(Locale.US);
+			
+			if(relation == null)
+			{
+				// The relation comes first, Weka unquotes names, which is left to it
+				if(!keyword.equals("@relation") || tokens.length != 2 || !isPlainName(tokens[1]))
+					return false;
+				relation = tokens[1];
+			}
+			else if(keyword.equals("@data"))
+			{
+				if(tokens.length != 1 || attributes.size() < NUM_NUMERIC)
+					return false;
+				
+				mStructure = new Instances(relation, attributes, 0);
+				if(mClasses != null)
+					mStructure.setClassIndex(mStructure.numAttributes() - 1);
+				return true;
+			}
+			else if(!keyword.equals("@attribute") || tokens.length != 3 || !isPlainName(tokens[1]) ||
+					mClasses != null)
+				return false;
+			else if(attributes.size() < NUM_NUMERIC)
+			{
+				final String type = tokens[2].toLowerCase(Locale.US);
+				if(!(type.equals("numeric") || type.equals("real") || type.equals("integer")))
+					return false;
+				attributes.addElement(new Attribute(tokens[1]));
+			}
+			else
+			{
+				final Attribute clazz = parseNominal(tokens[1], tokens[2]);
+				if(clazz == null)
+					return false;
+				attributes.addElement(clazz);
+				
+				mClasses = new byte[clazz.numValues()][];
+				for(int j = 0; j < mClasses.length; j++)
+					mClasses[j] = clazz.value(j).getBytes("UTF-8");
+			}
+		}
+		
+		return false;
+	}
+	
+	/**
+	 * Reads the next line of the header that is not empty or a comment.
+	 * 
+	 * @return the trimmed line, or {@code null} if the end of the file was reached.
+	 */
+	private String readHeaderLine() throws IOException
+	{
+		int end;
+		while((end = findLineEnd()) >= 0)
+		{
+			final String line = new String(mBuffer, mPos, end - mPos, "UTF-8").trim();
+			mPos = end + 1;
+			mLine++;
+			if(line.length() > 0 && line.charAt(0) != '%')
+				return line;
+		}
+		return null;
+	}
+	
+	/**
+	 * Parses the type of a nominal class attribute.
+	 * 
+	 * @param name the name of the attribute.
+	 * @param type the type in the form of <code>{ c0, c1, ... }</code>.
+	 * @return the class attribute, or {@code null} if {@code type} is not a list of plain values.
+	 */
+	private static Attribute parseNominal(String name, String type)
+	{
+		if(!type.startsWith("{") || !type.endsWith("}"))
+			return null;
+		
+		final String[] values = type.substring(1, type.length() - 1).split(",", -1);
+		final FastVector vector = new FastVector(values.length);
+		for(String v : values)
+		{
+			v = v.trim();
+			if(!isPlainName(v) || vector.contains(v))
+				return null;
+			vector.addElement(v);
+		}
+		return new Attribute(name, vector);
+	}
+	
+	/**
+	 * Determines if a name can be used as is, without quoting or escaping.
+	 */
+	private static boolean isPlainName(String name)
+	{
+		if(name.length() == 0 || name.equals("?"))
+			return false;
+		
+		for(int j = 0; j < name.length(); j++)
+		{
+			final char c = name.charAt(j);
+			if(c <= ' ' || c == '\'' || c == '"' || c == '\\' || c == ',' || c == '{' || c == '}' || c == '%')
+				return false;
+		}
+		return true;
+	}
+	
+	@Override
+	public Instances getStructure()
+	{
+		return mStructure;
+	}
+	
+	/**
+	 * Gets a value indicating whether the file has a class attribute.
+	 */
+	public boolean hasClass()
+	{
+		return mClasses != null;
+	}
+	
+	@Override
+	public boolean next() throws IOException
+	{
+		int end;
+		while((end = findLineEnd()) >= 0)
+		{
+			final int start = mPos;
+			mPos = end + 1;
+			mLine++;
+			
+			if(end > start && mBuffer[end - 1] == '\r')
+				end--;
+			if(end == start || mBuffer[start] == '%')
+				continue;
+			
+			if(parseRow(start, end) || parseRowSlow(new String(mBuffer, start, end - start, "UTF-8")))
+				return true;
+		}
+		return false;
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 * <p>
+	 * Line numbers in error messages count from the offset.
+	 */
+	@Override
+	public void seek(long offset) throws IOException
+	{
+		mIn.getChannel().position(offset);
+		mPos = 0;
+		mLimit = 0;
+		mEof = false;
+		mLine = 0;
+	}
+	
+	/**
+	 * Parses a row in the form written by the recorder.
+	 * 
+	 * @return {@code true} if the row was parsed, {@code false} if it has to be parsed by
+	 *         {@link #parseRowSlow(String)}.
+	 */
+	private boolean parseRow(int start, int end) throws IOException
+	{
+		final byte[] b = mBuffer;
+		
+		if(!parseNumber(start, end) || mEnd == end || b[mEnd] != ',')
+			return false;
+		final double time = mValue;
+		if(!parseNumber(mEnd + 1, end) || mEnd == end || b[mEnd] != ',')
+			return false;
+		final double x = mValue;
+		if(!parseNumber(mEnd + 1, end) || mEnd == end || b[mEnd] != ',')
+			return false;
+		final double y = mValue;
+		if(!parseNumber(mEnd + 1, end))
+			return false;
+		final double z = mValue;
+		
+		double clazz = Instance.missingValue();
+		if(mClasses != null)
+		{
+			if(mEnd == end || b[mEnd] != ',')
+				return false;
+			clazz = findClass(mEnd + 1, end);
+			if(clazz < 0)
+				return false;
+		}
+		else if(mEnd != end)
+			return false;
+		
+		mTime = (long)time;
+		mX = (float)x;
+		mY = (float)y;
+		mZ = (float)z;
+		mClass = clazz;
+		return true;
+	}
+	
+	/**
+	 * Parses a number with an optional sign, up to {@link #MAX_DIGITS} digits and an optional decimal point
+	 * into {@code mValue} and sets {@code mEnd} to the position after it.
+	 * 
+	 * @return {@code true} if a number was parsed, {@code false} if it has to be parsed the slow way.
+	 */
+	private boolean parseNumber(int pos, int end)
+	{
+		final byte[] b = mBuffer;
+		final boolean negative = pos < end && b[pos] == '-';
+		if(negative)
+			pos++;
+		
+		long mantissa = 0;
+		int digits = 0;
+		int decimals = -1;
+		for(; pos < end; pos++)
+		{
+			final int c = b[pos];
+			if(c >= '0' && c <= '9')
+			{
+				mantissa = mantissa * 10 + (c - '0');
+				digits++;
+				if(decimals >= 0)
+					decimals++;
+			}
+			else if(c == '.' && decimals < 0)
+				decimals = 0;
+			else
+				break;
+		}
+		if(digits == 0 || digits > MAX_DIGITS)
+			return false;
+		
+		// Both the mantissa and the power of ten are exact, so the quotient is rounded exactly once, the same
+		// way Double.parseDouble rounds the decimal value
+		double value = decimals > 0 ? mantissa / POWERS_OF_TEN[decimals] : mantissa;
+		if(negative)
+			value = -value;
+		mValue = value;
+		mEnd = pos;
+		return true;
+	}
+	
+	/**
+	 * Finds the class value between {@code start} and {@code end}.
+	 * 
+	 * @return the index of the class value, {@link Instance#missingValue()} for {@code ?}, or {@code -1} if
+	 *         the value is not a class value.
+	 */
+	private double findClass(int start, int end)
+	{
+		final byte[] b = mBuffer;
+		final int length = end - start;
+		if(length == 1 && b[start] == '?')
+			return Instance.missingValue();
+		
+		outer: for(int j = 0; j < mClasses.length; j++)
+		{
+			final byte[] c = mClasses[j];
+			if(c.length != length)
+				continue;
+			for(int k = 0; k < length; k++)
+			{
+				if(c[k] != b[start + k])
+					continue outer;
+			}
+			return j;
+		}
+		return -1;
+	}
+	
+	/**
+	 * Parses a row that {@link #parseRow(int, int)} can't handle, by splitting it into values and parsing
+	 * them with {@link Double#parseDouble(String)}.
+	 * 
+	 * @return {@code true} if the row was parsed, {@code false} if it is empty.
+	 * @exception IOException if the row is not valid.
+	 */
+	private boolean parseRowSlow(String line) throws IOException
+	{
+		line = line.trim();
+		if(line.length() == 0 || line.charAt(0) == '%')
+			return false;
+		
+		final String[] values = line.split(",", -1);
+		if(values.length != mStructure.numAttributes())
+			throw error("wrong number of values");
+		
+		final double time = parseValue(values[0]);
+		mX = (float)parseValue(values[1]);
+		mY = (float)parseValue(values[2]);
+		mZ = (float)parseValue(values[3]);
+		mTime = (long)time;
+		
+		if(mClasses != null)
+		{
+			final String value = values[4].trim();
+			if(value.equals("?"))
+				mClass = Instance.missingValue();
+			else
+			{
+				final int index = mStructure.classAttribute().indexOfValue(value);
+				if(index < 0)
+					throw error("nominal value not declared in header");
+				mClass = index;
+			}
+		}
+		return true;
+	}
+	
+	private double parseValue(String value) throws IOException
+	{
+		value = value.trim();
+		if(value.equals("?"))
+			return Instance.missingValue();
+		
+		try
+		{
+			return Double.parseDouble(value);
+		}
+		catch(NumberFormatException ex)
+		{
+			throw error("number expected");
+		}
+	}
+	
+	private IOException error(String message)
+	{
+		return new IOException(message + " in line " + mLine + " of " + mFile + ".");
+	}
+	
+	/**
+	 * Finds the end of the line starting at {@code mPos}, reading more of the file if needed.
+	 * 
+	 * @return the position of the line break, or {@code mLimit} if the last line has none, or {@code -1} if
+	 *         the end of the file was reached.
+	 */
+	private int findLineEnd() throws IOException
+	{
+		int pos = mPos;
+		while(true)
+		{
+			for(; pos < mLimit; pos++)
+			{
+				if(mBuffer[pos] == '\n')
+					return pos;
+			}
+			
+			if(mEof)
+				return mPos < mLimit ? mLimit : -1;
+			
+			// Move the start of the line to the front, or grow the buffer if the line fills all of it
+			final int length = mLimit - mPos;
+			if(mPos > 0)
+				System.arraycopy(mBuffer, mPos, mBuffer, 0, length);
+			else if(length == mBuffer.length)
+			{
+				final byte[] buffer = new byte[mBuffer.length * 2];
+				System.arraycopy(mBuffer, 0, buffer, 0, length);
+				mBuffer = buffer;
+			}
+			pos -= mPos;
+			mPos = 0;
+			mLimit = length;
+			
+			final int read = mIn.read(mBuffer, mLimit, mBuffer.length - mLimit);
+			if(read < 0)
+				mEof = true;
+			else
+				mLimit += read;
+		}
+	}
+	
+	@Override
+	public long getTime()
+	{
+		return mTime;
+	}
+	
+	@Override
+	public float getX()
+	{
+		return mX;
+	}
+	
+	@Override
+	public float getY()
+	{
+		return mY;
+	}
+	
+	@Override
+	public float getZ()
+	{
+		return mZ;
+	}
+	
+	@Override
+	public double getClassValue()
+	{
+		return mClass;
+	}
+	
+	@Override
+	public void close() throws IOException
+	{
+		mIn.close();
+	}
+}
@@ -0,0 +1,247 @@
+package at.jku.pci.lazybird.features;
+
+import at.jku.pci.lazybird.util.TimeIndex;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.util.ArrayList;
+import java.util.Locale;
+
+/**
+ * The manifest of a recording that was split into segments, see
+ * {@link at.jku.pci.lazybird.util.SegmentedEncoder}. The segments are consecutive parts of one continuous
+ * recording and are read as one by a {@link SessionReader}. They are stored in a directory next to the
+ * manifest and share the session id, which is also the relation time of every segment.
+ * <p>
+ * The manifest is a text file with the {@link #EXTENSION} extension. It starts with comment lines like the
+ * header of an ARFF file, including the session id, followed by the paths of the segments relative to the
+ * manifest, one per line and in order. It is rewritten every time a segment is added, so it always lists the
+ * segments written so far.
+ * 
+ * @author Peter
+ */
+public class RecordingSession
+{
+	/**
+	 * Extension of a session manifest.
+	 * <p> {@value}
+	 */
+	public static final String EXTENSION = ".session";
+	/**
+	 * Suffix appended to the name of the manifest without extension for the directory of the segments.
+	 * <p> {@value}
+	 */
+	public static final String SEGMENTS_SUFFIX = "-segments";
+	
+	private static final String COMMENT = "%";
+	private static final String SESSION_COMMENT = "% Session: ";
+	
+	private final File mFile;
+	private final long mId;
+	private final ArrayList<String> mSegments;
+	
+	/**
+	 * Initializes a new instance of the {@link RecordingSession} class for a new session without segments.
+	 * The manifest is written when the first segment is added.
+	 * 
+	 * @param file the manifest file.
+	 * @param id the session id.
+	 * @see #addSegment(File)
+	 */
+	public RecordingSession(File file, long id)
+	{
+		this(file, id, new ArrayList<String>());
+	}
+	
+	private RecordingSession(File file, long id, ArrayList<String> segments)
+	{
+		if(file == null)
+			throw new NullPointerException("file");
+		
+		mFile = file;
+		mId = id;
+		mSegments = segments;
+	}
+	
+	/**
+	 * Gets a value indicating whether the specified file is a session manifest, judging by its extension.
+	 */
+	public static boolean isSession(File file)
+	{
+		return file.getName().endsWith(EXTENSION);
+	}
+	
+	/**
+	 * Reads a session manifest.
+	 * 
+	 * @param file the manifest to read.
+	 * @return the session.
+	 * @exception FileNotFoundException if {@code file} does not exist.
+	 * @exception IOException if an error occurred reading the manifest or it has no session id.
+	 */
+	public static RecordingSession read(File file) throws IOException
+	{
+		final BufferedReader in =
+				new BufferedReader(new InputStreamReader(new FileInputStream(file), "UTF-8"));
+		try
+		{
+			final ArrayList<String> segments = new ArrayList<String>();
+			Long id = null;
+			int lineNumber = 0;
+			String line;
+			while((line = in.readLine()) != null)
+			{
+				lineNumber++;
+				if(line.startsWith(SESSION_COMMENT))
+				{
+					try
+					{
+						id = Long.parseLong(line.substring(SESSION_COMMENT.length()).trim());
+					}
+					catch(NumberFormatException ex)
+					{
+						throw new IOException("Invalid session id in line " + lineNumber + " of " + file + ".");
+					}
+				}
+				else if(!line.startsWith(COMMENT) && line.trim().length() > 0)
+					segments.add(line.trim());
+			}
+			
+			if(id == null)
+				throw new IOException("Missing session id in " + file + ".");
+			return new RecordingSession(file, id, segments);
+		}
+		finally
+		{
+			in.close();
+		}
+	}
+	
+	/**
+	 * Gets the manifest file.
+	 */
+	public File getFile()
+	{
+		return mFile;
+	}
+	
+	/**
+	 * Gets the session id.
+	 */
+	public long getId()
+	{
+		return mId;
+	}
+	
+	/**
+	 * Gets the number of segments.
+	 */
+	public int size()
+	{
+		return mSegments.size();
+	}
+	
+	/**
+	 * Gets the segment files in order.
+	 */
+	public File[] getSegments()
+	{
+		final File parent = mFile.getAbsoluteFile().getParentFile();
+		final File[] segments = new File[mSegments.size()];
+		for(int j = 0; j < segments.length; j++)
+			segments[j] = new File(parent, mSegments.get(j));
+		return segments;
+	}
+	
+	/**
+	 * Gets the directory the segments of a new session are written to.
+	 */
+	public File getSegmentDirectory()
+	{
+		String name = mFile.getName();
+		if(name.endsWith(EXTENSION))
+			name = name.substring(0, name.length() - EXTENSION.length());
+		return new File(mFile.getAbsoluteFile().getParentFile(), name + SEGMENTS_SUFFIX);
+	}
+	
+	/**
+	 * Gets the file for the next segment in the segment directory, named like the manifest with the number
+	 * of the segment and the specified extension. The segment is not added to the manifest.
+	 * 
+	 * @param extension the extension of the segment, including the dot.
+	 * @return the file of the next segment.
+	 * @see #addSegment(File)
+	 */
+	public File newSegment(String extension)
+	{
+		final File directory = getSegmentDirectory();
+		String name = directory.getName();
+		name = name.substring(0, name.length() - SEGMENTS_SUFFIX.length());
+		return new File(directory,
+				String.format(Locale.US, "%s-%03d%s", name, mSegments.size() + 1, extension));
+	}
+	
+	/**
+	 * Adds a segment file in the segment directory to the session and rewrites the manifest.
+	 * 
+	 * @param segment the segment to add, usually from {@link #newSegment(String)}.
+	 * @exception IOException if an error occurred writing the manifest.
+	 */
+	public void addSegment(File segment) throws IOException
+	{
+		mSegments.add(getSegmentDirectory().getName() + "/" + segment.getName());
+		write();
+	}
+	
+	/**
+	 * Writes the manifest to a temporary file first and renames it, so a complete manifest is left if
+	 * recording is interrupted.
+	 * 
+	 * @exception IOException if an error occurred writing the manifest.
+	 */
+	private void write() throws IOException
+	{
+		final File temp = new File(mFile.getPath() + ".tmp");
+		final BufferedWriter out =
+				new BufferedWriter(new OutputStreamWriter(new FileOutputStream(temp, false), "UTF-8"));
+		try
+		{
+			out.write("% LazyBird recording session\n");
+			out.write(SESSION_COMMENT + mId + "\n\n");
+			for(String segment : mSegments)
+				out.write(segment + "\n");
+		}
+		finally
+		{
+			out.close();
+		}
+		
+		if(!temp.renameTo(mFile))
+		{
+			temp.delete();
+			throw new IOException("Could not write " + mFile + ".");
+		}
+	}
+	
+	/**
+	 * Deletes the manifest, the segments, their indexes and the segment directory, if empty.
+	 * 
+	 * @return {@code true} if the manifest was deleted, {@code false} otherwise.
+	 */
+	public boolean delete()
+	{
+		for(File segment : getSegments())
+		{
+			segment.delete();
+			TimeIndex.getFile(segment).delete();
+		}
+		getSegmentDirectory().delete();
+		return mFile.delete();
+	}
+}
@@ -0,0 +1,217 @@
+package at.jku.pci.lazybird.features;
+
+/**
+ * Maintains running sums and sums of squares for the three acceleration axes and the magnitude of a set of
+ * samples, so that mean and variance can be calculated in constant time while samples are added and
+ * removed. This is used by {@link AccelerationWindow} to keep the statistics of the samples in the window.
+ * <p>
+ * To avoid catastrophic cancellation when calculating the variance from the sums, all values are shifted by
+ * the first value added after the statistics were empty. Since acceleration values don't change much
+ * within a window, the shifted values and their squares stay small.<br>
+ * Optionally, the sums are compensated using Kahan-Babuska summation. Without compensation, rounding errors
+ * from adding and removing values accumulate over time, which is a problem when a window is running for
+ * hours. With compensation, means and variances stay within a relative error of {@code 1e-12} of a
+ * two-pass calculation over the same values.
+ * 
+ * @see AccelerationWindow#getStatistics()
+ * @author Peter
+ */
+public class RunningStatistics
+{
+	/**
+	 * Index of the X-axis statistics.
+	 */
+	public static final int X = 0;
+	
+	/**
+	 * Index of the Y-axis statistics.
+	 */
+	public static final int Y = 1;
+	
+	/**
+	 * Index of the Z-axis statistics.
+	 */
+	public static final int Z = 2;
+	
+	/**
+	 * Index of the magnitude statistics.
+	 */
+	public static final int MAGNITUDE = 3;
+	
+	private static final int NUM_VALUES = 4;
+	
+	private final boolean mCompensated;
+	private int mCount = 0;
+	private final double[] mShift = new double[NUM_VALUES];
+	private final double[] mSum = new double[NUM_VALUES];
+	private final double[] mSumComp = new double[NUM_VALUES];
+	private final double[] mSumSq = new double[NUM_VALUES];
+	private final double[] mSumSqComp = new double[NUM_VALUES];
+	
+	/**
+	 * Initializes a new instance of the {@link RunningStatistics} class with compensated summation.
+	 */
+	public RunningStatistics()
+	{
+		this(true);
+	}
+	
+	/**
+	 * Initializes a new instance of the {@link RunningStatistics} class.
+	 * 
+	 * @param compensated {@code true} to use compensated summation, {@code false} to use plain running sums.
+	 */
+	public RunningStatistics(boolean compensated)
+	{
+		mCompensated = compensated;
+	}
+	
+	/**
+	 * Gets a value indicating whether compensated summation is used.
+	 */
+	public boolean isCompensated()
+	{
+		return mCompensated;
+	}
+	
+	/**
+	 * Gets the number of samples currently accounted for.
+	 */
+	public int getCount()
+	{
+		return mCount;
+	}
+	
+	/**
+	 * Resets the statistics to contain no samples.
+	 */
+	public void clear()
+	{
+		mCount = 0;
+		for(int j = 0; j < NUM_VALUES; j++)
+		{
+			mSum[j] = 0.0;
+			mSumComp[j] = 0.0;
+			mSumSq[j] = 0.0;
+			mSumSqComp[j] = 0.0;
+		}
+	}
+	
+	/**
+	 * Adds a sample to the statistics.
+	 * 
+	 * @param x the X-axis value.
+	 * @param y the Y-axis value.
+	 * @param z the Z-axis value.
+	 * @param magnitude the magnitude of the sample. This should be calculated the same way every time, so
+	 *        that the same value is removed later.
+	 */
+	public void add(double x, double y, double z, double magnitude)
+	{
+		if(mCount == 0)
+		{
+			mShift[X] = x;
+			mShift[Y] = y;
+			mShift[Z] = z;
+			mShift[MAGNITUDE] = magnitude;
+		}
+		
+		mCount++;
+		accumulate(X, x, 1.0);
+		accumulate(Y, y, 1.0);
+		accumulate(Z, z, 1.0);
+		accumulate(MAGNITUDE, magnitude, 1.0);
+	}
+	
+	/**
+	 * Removes a sample that was previously added from the statistics.
+	 * 
+	 * @param x the X-axis value.
+	 * @param y the Y-axis value.
+	 * @param z the Z-axis value.
+	 * @param magnitude the magnitude of the sample.
+	 * @exception IllegalStateException if there are no samples.
+	 */
+	public void remove(double x, double y, double z, double magnitude)
+	{
+		if(mCount == 0)
+			throw new IllegalStateException();
+		
+		// Start over when empty, so no error is carried over
+		if(--mCount == 0)
+		{
+			clear();
+			return;
+		}
+		
+		accumulate(X, x, -1.0);
+		accumulate(Y, y, -1.0);
+		accumulate(Z, z, -1.0);
+		accumulate(MAGNITUDE, magnitude, -1.0);
+	}
+	
+	/**
+	 * Gets the mean of the specified value.
+	 * 
+	 * @param which one of {@link #X}, {@link #Y}, {@link #Z} or {@link #MAGNITUDE}.
+	 * @return the mean of the specified value, or {@code NaN} if there are no samples.
+	 */
+	public double getMean(int which)
+	{
+		if(mCount == 0)
+			return Double.NaN;
+		return mShift[which] + (mSum[which] + mSumComp[which]) / mCount;
+	}
+	
+	/**
+	 * Gets the population variance of the specified value.
+	 * 
+	 * @param which one of {@link #X}, {@link #Y}, {@link #Z} or {@link #MAGNITUDE}.
+	 * @return the variance of the specified value, or {@code NaN} if there are no samples.
+	 */
+	public double getVariance(int which)
+	{
+		if(mCount == 0)
+			return Double.NaN;
+		
+		final double sum = mSum[which] + mSumComp[which];
+		final double sumSq = mSumSq[which] + mSumSqComp[which];
+		final double var = (sumSq - sum * sum / mCount) / mCount;
+		
+		// Rounding can make a variance of 0 slightly negative
+		return var < 0.0 ? 0.0 : var;
+	}
+	
+	/**
+	 * Adds the shifted value and its square to the sums with the specified sign.
+	 */
+	private void accumulate(int which, double value, double sign)
+	{
+		final double d = value - mShift[which];
+		final double sq = d * d;
+		
+		if(mCompensated)
+		{
+			mSumComp[which] += compensation(mSum[which], sign * d);
+			mSum[which] += sign * d;
+			mSumSqComp[which] += compensation(mSumSq[which], sign * sq);
+			mSumSq[which] += sign * sq;
+		}
+		else
+		{
+			mSum[which] += sign * d;
+			mSumSq[which] += sign * sq;
+		}
+	}
+	
+	/**
+	 * Calculates the rounding error of {@code sum + value} (Kahan-Babuska summation).
+	 */
+	private static double compensation(double sum, double value)
+	{
+		final double t = sum + value;
+		if(Math.abs(sum) >= Math.abs(value))
+			return (sum - t) + value;
+		return (value - t) + sum;
+	}
+}
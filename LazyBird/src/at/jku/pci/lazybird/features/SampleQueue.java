@@ -0,0 +1,259 @@
+package at.jku.pci.lazybird.features;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Represents a bounded queue of acceleration samples for passing samples from one producer thread to one
+ * consumer thread, e.g. from the sensor callback to a processing thread. Samples are stored in parallel
+ * primitive arrays of a ring buffer, so neither adding nor removing samples allocates anything, and no locks
+ * are used.
+ * <p>
+ * When the queue is full, a sample is dropped according to the {@link OverflowPolicy} of the queue, and the
+ * number of dropped samples is counted. A queue can also be used directly as a {@link SampleSink}.
+ * <p>
+ * Only one thread may call {@link #offer(long, float, float, float)} and only one thread may call
+ * {@link #poll()} or {@link #take()} and read the sample afterwards. Other methods may be called from any
+ * thread.
+ * 
+ * @author Peter
+ */
+public class SampleQueue implements Timestamped, SampleSink
+{
+	/**
+	 * Specifies which sample is dropped when a sample is added to a full {@link SampleQueue}.
+	 * 
+	 * @author Peter
+	 */
+	public enum OverflowPolicy
+	{
+		/**
+		 * The new sample is dropped, the queue is not changed.
+		 */
+		DROP_NEWEST,
+		/**
+		 * The oldest sample in the queue is dropped to make room for the new sample.
+		 */
+		DROP_OLDEST
+	}
+	
+	private final int mMask;
+	private final OverflowPolicy mPolicy;
+	private final long[] mTimes;
+	private final float[] mX;
+	private final float[] mY;
+	private final float[] mZ;
+	
+	// Both indices only increase, the slot of an index is index & mMask. The read index is also advanced by
+	// the producer when dropping the oldest sample, so it needs compareAndSet.
+	private volatile long mWrite = 0;
+	private final AtomicLong mRead = new AtomicLong();
+	private volatile long mDropped = 0;
+	
+	// The consumer thread, if it is waiting in take
+	private volatile Thread mWaiting = null;
+	
+	// The last sample taken, only used by the consumer
+	private long mLastTime;
+	private float mLastX;
+	private float mLastY;
+	private float mLastZ;
+	
+	/**
+	 * Initializes a new instance of the {@link SampleQueue} class with the specified capacity and overflow
+	 * policy.
+	 * 
+	 * @param capacity the minimum number of samples the queue can hold, rounded up to a power of two.
+	 * @param policy which sample to drop when the queue is full.
+	 * @exception IllegalArgumentException if {@code capacity} is less than {@code 1} or greater than
+	 *            {@code 2^30}.
+	 */
+	public SampleQueue(int capacity, OverflowPolicy policy)
+	{
+		if(capacity < 1 || capacity > 1 << 30)
+			throw new IllegalArgumentException("capacity must be between 1 and 2^30.");
+		if(policy == null)
+			throw new NullPointerException("policy");
+		
+		int size = 1;
+		while(size < capacity)
+			size <<= 1;
+		
+		mMask = size - 1;
+		mPolicy = policy;
+		mTimes = new long[size];
+		mX = new float[size];
+		mY = new float[size];
+		mZ = new float[size];
+	}
+	
+	/**
+	 * Gets the number of samples this queue can hold.
+	 */
+	public int getCapacity()
+	{
+		return mMask + 1;
+	}
+	
+	/**
+	 * Gets the overflow policy of this queue.
+	 */
+	public OverflowPolicy getPolicy()
+	{
+		return mPolicy;
+	}
+	
+	/**
+	 * Gets the number of samples in this queue. The result may already be outdated when this method returns.
+	 */
+	public int size()
+	{
+		return (int)(mWrite - mRead.get());
+	}
+	
+	/**
+	 * Gets the total number of samples dropped because this queue was full.
+	 */
+	public long getDropped()
+	{
+		return mDropped;
+	}
+	
+	/**
+	 * Adds a sample to this queue. This method may only be called by the producer thread.
+	 * 
+	 * @return {@code true} if the sample was added, {@code false} if it was dropped because the queue is full
+	 *         and the policy is {@link OverflowPolicy#DROP_NEWEST}.
+	 */
+	public boolean offer(long time, float x, float y, float z)
+	{
+		final long w = mWrite;
+		final long r = mRead.get();
+		if(w - r > mMask)
+		{
+			if(mPolicy == OverflowPolicy.DROP_NEWEST)
+			{
+				mDropped++;
+				return false;
+			}
+			
+			// If this fails, the consumer has just taken the oldest sample, so there is room anyway
+			if(mRead.compareAndSet(r, r + 1))
+				mDropped++;
+		}
+		
+		final int index = (int)w & mMask;
+		mTimes[index] = time;
+		mX[index] = x;
+		mY[index] = y;
+		mZ[index] = z;
+		mWrite = w + 1;
+		
+		final Thread waiting = mWaiting;
+		if(waiting != null)
+			LockSupport.unpark(waiting);
+		return true;
+	}
+	
+	/**
+	 * Adds a sample to this queue, the same as {@link #offer(long, float, float, float)}.
+	 */
+	@Override
+	public void onSample(long time, float x, float y, float z)
+	{
+		offer(time, x, y, z);
+	}
+	
+	/**
+	 * Removes the oldest sample from this queue, if there is one. The values of the sample can be read with
+	 * {@link #getTime()}, {@link #getX()}, {@link #getY()} and {@link #getZ()} afterwards. This method may
+	 * only be called by the consumer thread.
+	 * 
+	 * @return {@code true} if a sample was removed, {@code false} if the queue is empty.
+	 */
+	public boolean poll()
+	{
+		while(true)
+		{
+			final long r = mRead.get();
+			if(r >= mWrite)
+				return false;
+			
+			final int index = (int)r & mMask;
+			final long time = mTimes[index];
+			final float x = mX[index];
+			final float y = mY[index];
+			final float z = mZ[index];
+			
+			// If this fails, the producer has dropped the sample and may have overwritten it while reading
+			if(mRead.compareAndSet(r, r + 1))
+			{
+				mLastTime = time;
+				mLastX = x;
+				mLastY = y;
+				mLastZ = z;
+				return true;
+			}
+		}
+	}
+	
+	/**
+	 * Removes the oldest sample from this queue, waiting for one if the queue is empty. This method may only
+	 * be called by the consumer thread.
+	 * 
+	 * @exception InterruptedException if the thread is interrupted while waiting.
+	 * @see #poll()
+	 */
+	public void take() throws InterruptedException
+	{
+		while(!poll())
+		{
+			// Check again after announcing the wait, the producer might have added a sample in between
+			mWaiting = Thread.currentThread();
+			if(!poll())
+				LockSupport.park(this);
+			else
+			{
+				mWaiting = null;
+				return;
+			}
+			mWaiting = null;
+			
+			if(Thread.interrupted())
+				throw new InterruptedException();
+		}
+	}
+	
+	/**
+	 * Gets the timestamp of the last sample removed.
+	 */
+	@Override
+	public long getTime()
+	{
+		return mLastTime;
+	}
+	
+	/**
+	 * Gets the x-axis value of the last sample removed.
+	 */
+	public float getX()
+	{
+		return mLastX;
+	}
+	
+	/**
+	 * Gets the y-axis value of the last sample removed.
+	 */
+	public float getY()
+	{
+		return mLastY;
+	}
+	
+	/**
+	 * Gets the z-axis value of the last sample removed.
+	 */
+	public float getZ()
+	{
+		return mLastZ;
+	}
+}
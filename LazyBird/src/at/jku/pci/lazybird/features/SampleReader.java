@@ -0,0 +1,64 @@
+package at.jku.pci.lazybird.features;
+
+import weka.core.Instance;
+import weka.core.Instances;
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * Defines the interface for reading acceleration samples one at a time from a recording, so that a recording
+ * can be processed without loading all of it into memory.
+ * <p>
+ * A reader is positioned before the first sample when created, {@link #next()} advances to the next sample
+ * and the getters return the values of the current sample. The values are only valid after {@code next()}
+ * returned {@code true}.
+ * 
+ * @see ArffSampleReader
+ * @see RecordingArffReader
+ * @see AccelerationWindow
+ * @author Peter
+ */
+public interface SampleReader extends Timestamped, Closeable
+{
+	/**
+	 * Gets the header of the recording, without any data. The attributes are the timestamp, the three
+	 * coordinates and optionally a nominal class attribute, as described in the {@link FeatureExtractor class
+	 * documentation}.
+	 */
+	public Instances getStructure();
+	
+	/**
+	 * Advances to the next sample.
+	 * 
+	 * @return {@code true} if there is a next sample, {@code false} if the end of the recording was reached.
+	 * @exception IOException if an error occurred reading the sample.
+	 */
+	public boolean next() throws IOException;
+	
+	/**
+	 * Gets the timestamp of the current sample in ms.
+	 */
+	@Override
+	public long getTime();
+	
+	/**
+	 * Gets the X-axis value of the current sample.
+	 */
+	public float getX();
+	
+	/**
+	 * Gets the Y-axis value of the current sample.
+	 */
+	public float getY();
+	
+	/**
+	 * Gets the Z-axis value of the current sample.
+	 */
+	public float getZ();
+	
+	/**
+	 * Gets the class value of the current sample as index into the class attribute of
+	 * {@link #getStructure()}, or {@link Instance#missingValue()} if the recording has no class.
+	 */
+	public double getClassValue();
+}
@@ -0,0 +1,24 @@
+package at.jku.pci.lazybird.features;
+
+/**
+ * Defines the interface for receiving acceleration samples as they are measured, see
+ * {@link at.jku.pci.lazybird.SensorHub SensorHub}.
+ * <p>
+ * Samples are passed on the thread of the sensor callback, one sink after another, so implementations must
+ * not block. They should only buffer the sample, e.g. in a {@link SampleQueue}, with their own policy for
+ * when the buffer is full, and process it on another thread.
+ * 
+ * @author Peter
+ */
+public interface SampleSink
+{
+	/**
+	 * Called for every sample.
+	 * 
+	 * @param time the timestamp of the sample in ms, the same for all sinks.
+	 * @param x the X-axis value.
+	 * @param y the Y-axis value.
+	 * @param z the Z-axis value.
+	 */
+	public void onSample(long time, float x, float y, float z);
+}
@@ -0,0 +1,23 @@
+package at.jku.pci.lazybird.features;
+
+import at.jku.pci.lazybird.util.TimeIndex;
+import java.io.IOException;
+
+/**
+ * A {@link SampleReader} that can jump to a byte offset in the recording, so only part of a recording needs to
+ * be read. The offsets are those stored in the {@link TimeIndex} of a recording.
+ * 
+ * @see FeatureExtractor#openReader(java.io.File, long, long)
+ * @author Peter
+ */
+public interface SeekableSampleReader extends SampleReader
+{
+	/**
+	 * Positions the reader before the sample at the specified offset, so the next call to {@link #next()}
+	 * reads that sample.
+	 * 
+	 * @param offset the offset of a sample in bytes, as stored in the {@link TimeIndex} of the recording.
+	 * @exception IOException if an I/O error occurs, or the recording does not support seeking.
+	 */
+	public void seek(long offset) throws IOException;
+}
@@ -0,0 +1,164 @@
+package at.jku.pci.lazybird.features;
+
+import at.jku.pci.lazybird.util.TimeIndex;
+import weka.core.Instances;
+import weka.core.UnsupportedAttributeTypeException;
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * A {@link SampleReader} that reads the segments of a {@link RecordingSession} as one continuous recording.
+ * The segments are opened one after another with {@link FeatureExtractor#openReader(File)}, so a window
+ * spanning the end of one segment and the start of the next is the same as if the session was recorded to a
+ * single file.
+ * <p>
+ * Reading can start at a point in time, in which case the segments that end before it according to their
+ * {@link TimeIndex} are skipped and the first segment is opened with
+ * {@link FeatureExtractor#openReader(File, long, long)}. Samples before that time may still be returned, wrap
+ * the reader in a {@link TimeRangeReader} to skip them.
+ * 
+ * @see FeatureExtractor#openReader(File)
+ * @author Peter
+ */
+public class SessionReader implements SampleReader
+{
+	private final File[] mSegments;
+	private final Instances mStructure;
+	private SampleReader mReader;
+	private int mSegment;
+	
+	/**
+	 * Initializes a new instance of the {@link SessionReader} class, reading from the start of the session.
+	 * 
+	 * @param session the session to read.
+	 * @exception IOException if the session has no segments or an error occurred opening the first segment.
+	 * @exception UnsupportedAttributeTypeException if the attributes of the first segment are not valid.
+	 */
+	public SessionReader(RecordingSession session) throws IOException, UnsupportedAttributeTypeException
+	{
+		this(session, Long.MIN_VALUE);
+	}
+	
+	/**
+	 * Initializes a new instance of the {@link SessionReader} class, reading from the segment containing the
+	 * specified time.
+	 * 
+	 * @param session the session to read.
+	 * @param start the time to start reading at in ms.
+	 * @exception IOException if the session has no segments or an error occurred opening the first segment.
+	 * @exception UnsupportedAttributeTypeException if the attributes of the first segment are not valid.
+	 */
+	public SessionReader(RecordingSession session, long start) throws IOException,
+			UnsupportedAttributeTypeException
+	{
+		mSegments = session.getSegments();
+		if(mSegments.length == 0)
+			throw new IOException("Session " + session.getFile() + " has no segments.");
+		
+		// Skip whole segments before the start, the last one is always opened to get the structure
+		mSegment = 0;
+		if(start != Long.MIN_VALUE)
+		{
+			while(mSegment < mSegments.length - 1 && endsBefore(mSegments[mSegment], start))
+				mSegment++;
+		}
+		
+		if(start != Long.MIN_VALUE)
+			mReader = FeatureExtractor.openReader(mSegments[mSegment], start, Long.MAX_VALUE);
+		else
+			mReader = FeatureExtractor.openReader(mSegments[mSegment]);
+		mStructure = mReader.getStructure();
+	}
+	
+	/**
+	 * Gets a value indicating whether the segment ends before the specified time according to its complete
+	 * index. Errors reading the index are ignored, since the index is optional.
+	 */
+	private static boolean endsBefore(File segment, long time)
+	{
+		try
+		{
+			final TimeIndex index = TimeIndex.read(segment);
+			return index != null && index.isComplete() && index.getLastTime() < time;
+		}
+		catch(IOException ex)
+		{
+			return false;
+		}
+	}
+	
+	@Override
+	public Instances getStructure()
+	{
+		return mStructure;
+	}
+	
+	/**
+	 * Advances to the next sample, opening the next segment at the end of the current one.
+	 * 
+	 * @exception IOException if an error occurred reading the sample or opening the next segment, or the
+	 *            attributes of the next segment are different from the first one.
+	 */
+	@Override
+	public boolean next() throws IOException
+	{
+		while(!mReader.next())
+		{
+			if(mSegment + 1 >= mSegments.length)
+				return false;
+			
+			// If the next segment can't be opened, the closed reader stays and is closed again by close()
+			mReader.close();
+			mSegment++;
+			try
+			{
+				mReader = FeatureExtractor.openReader(mSegments[mSegment]);
+			}
+			catch(UnsupportedAttributeTypeException ex)
+			{
+				throw new IOException("Invalid attributes in segment " + mSegments[mSegment] + ": " +
+						ex.getMessage());
+			}
+			
+			if(!mReader.getStructure().equalHeaders(mStructure))
+				throw new IOException("Segment " + mSegments[mSegment] + " has different attributes.");
+		}
+		return true;
+	}
+	
+	@Override
+	public long getTime()
+	{
+		return mReader.getTime();
+	}
+	
+	@Override
+	public float getX()
+	{
+		return mReader.getX();
+	}
+	
+	@Override
+	public float getY()
+	{
+		return mReader.getY();
+	}
+	
+	@Override
+	public float getZ()
+	{
+		return mReader.getZ();
+	}
+	
+	@Override
+	public double getClassValue()
+	{
+		return mReader.getClassValue();
+	}
+	
+	@Override
+	public void close() throws IOException
+	{
+		mReader.close();
+	}
+}
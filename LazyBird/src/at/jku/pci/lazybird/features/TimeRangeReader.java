@@ -0,0 +1,111 @@
+package at.jku.pci.lazybird.features;
+
+import weka.core.Instances;
+import java.io.IOException;
+
+/**
+ * A {@link SampleReader} that only returns the samples of another reader within a time range. Samples before
+ * the range are skipped, and reading stops at the first sample after the range, so the rest of the recording
+ * is not read.
+ * 
+ * @see FeatureExtractor#openReader(java.io.File, long, long)
+ * @author Peter
+ */
+public class TimeRangeReader implements SampleReader
+{
+	private final SampleReader mReader;
+	private final long mStart;
+	private final long mEnd;
+	private boolean mDone = false;
+	
+	/**
+	 * Initializes a new instance of the {@link TimeRangeReader} class.
+	 * 
+	 * @param reader the reader to read samples from. It is closed by {@link #close()}.
+	 * @param start the first timestamp of the range in ms, inclusive.
+	 * @param end the last timestamp of the range in ms, exclusive.
+	 */
+	public TimeRangeReader(SampleReader reader, long start, long end)
+	{
+		if(reader == null)
+			throw new NullPointerException("reader");
+		
+		mReader = reader;
+		mStart = start;
+		mEnd = end;
+	}
+	
+	/**
+	 * Gets the first timestamp of the range in ms, inclusive.
+	 */
+	public long getStart()
+	{
+		return mStart;
+	}
+	
+	/**
+	 * Gets the last timestamp of the range in ms, exclusive.
+	 */
+	public long getEnd()
+	{
+		return mEnd;
+	}
+	
+	@Override
+	public Instances getStructure()
+	{
+		return mReader.getStructure();
+	}
+	
+	@Override
+	public boolean next() throws IOException
+	{
+		while(!mDone && mReader.next())
+		{
+			final long time = mReader.getTime();
+			if(time >= mEnd)
+				break;
+			if(time >= mStart)
+				return true;
+		}
+		
+		mDone = true;
+		return false;
+	}
+	
+	@Override
+	public long getTime()
+	{
+		return mReader.getTime();
+	}
+	
+	@Override
+	public float getX()
+	{
+		return mReader.getX();
+	}
+	
+	@Override
+	public float getY()
+	{
+		return mReader.getY();
+	}
+	
+	@Override
+	public float getZ()
+	{
+		return mReader.getZ();
+	}
+	
+	@Override
+	public double getClassValue()
+	{
+		return mReader.getClassValue();
+	}
+	
+	@Override
+	public void close() throws IOException
+	{
+		mReader.close();
+	}
+}
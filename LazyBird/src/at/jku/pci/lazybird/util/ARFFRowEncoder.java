@@ -0,0 +1,385 @@
+package at.jku.pci.lazybird.util;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.util.Locale;
+
+/**
+ * Encodes acceleration samples as rows of the {@code @DATA} section of an ARFF file, without allocating
+ * anything per row. The header can be written with {@link #writeHeader(Writer, String, long, String[])}.
+ * <p>
+ * A row is the timestamp, the three axis values with two decimals and optionally a class, the same as
+ * {@code String.format((Locale)null, "%d,%.2f,%.2f,%.2f", ...)} followed by {@code ",class\n"}. The values are
+ * rounded half up like {@link java.util.Formatter} does, and negative values that round to zero keep their
+ * sign. Rows are encoded into a reusable buffer, the class is encoded once in the constructor.
+ * <p>
+ * If an index is set with {@link #setIndex(TimeIndexWriter, long)}, the timestamp and byte offset of every
+ * {@link #INDEX_INTERVAL}th row are added to it, assuming the file is written in UTF-8.
+ * <p>
+ * Instances are not thread-safe.
+ * 
+ * @author Peter
+ */
+public class ARFFRowEncoder implements SampleEncoder
+{
+	/**
+	 * The format of a row without the class, as used by {@link String#format(Locale, String, Object...)}.
+	 */
+	public static final String FORMAT = "%d,%.2f,%.2f,%.2f";
+	
+	/**
+	 * The number of rows between two entries of the index, the same as the block size of binary recordings.
+	 */
+	public static final int INDEX_INTERVAL = 256;
+	
+	/**
+	 * The start of the comment line holding the sample rate in Hz of a decimated recording.
+	 */
+	public static final String RATE_COMMENT = "% Rate: ";
+	
+	/**
+	 * The attribute specification for recorded ARFF files.<br>
+	 * Note that a class may also be specified, which is not part of this specification.
+	 */
+	public static final String ATTRIBUTE_STRING =
+			"@ATTRIBUTE timestamp        NUMERIC\n" +
+					"@ATTRIBUTE accelerationx    NUMERIC\n" +
+					"@ATTRIBUTE accelerationy    NUMERIC\n" +
+					"@ATTRIBUTE accelerationz    NUMERIC\n";
+	
+	// Values with an absolute value of at least this (in hundredths) or NaN are formatted by String.format
+	private static final double MAX_HUNDREDTHS = 1e17;
+	// Long.MIN_VALUE has 20 characters, a value below MAX_VALUE 19 with the sign and the point
+	private static final int MAX_ROW_LENGTH = 20 + 3 * 20;
+	
+	private final Writer mOut;
+	private final char[] mSuffix;
+	// Only the class can have characters longer than one byte
+	private final int mSuffixBytes;
+	private final char[] mBuffer;
+	private int mLength = 0;
+	private long mBytes = 0;
+	
+	private TimeIndexWriter mIndex = null;
+	private long mIndexOffset;
+	private long mRows = 0;
+	private long mLastTime;
+	
+	/**
+	 * Initializes a new instance of the {@link ARFFRowEncoder} class.
+	 * 
+	 * @param out the writer to write rows to, after the header.
+	 * @param clazz the class to append to every row, or {@code null} to write rows without a class.
+	 */
+	public ARFFRowEncoder(Writer out, String clazz)
+	{
+		if(out == null)
+			throw new NullPointerException("out");
+		
+		mOut = out;
+		final String suffix = clazz != null ? "," + clazz + "\n" : "\n";
+		mSuffix = suffix.toCharArray();
+		mSuffixBytes = suffix.getBytes(Charset.forName("UTF-8")).length;
+		mBuffer = new char[MAX_ROW_LENGTH + mSuffix.length];
+	}
+	
+	/**
+	 * Encodes a row into the buffer, including the class and the line break.
+	 * 
+	 * @param timestamp the timestamp in ms.
+	 * @param x the X-axis value.
+	 * @param y the Y-axis value.
+	 * @param z the Z-axis value.
+	 * @return {@code true} if the row was encoded, {@code false} if a value is not finite or too big and the
+	 *         row has to be formatted with {@link #format(long, float, float, float)} instead.
+	 * @see #getBuffer()
+	 * @see #getLength()
+	 */
+	public boolean encode(long timestamp, float x, float y, float z)
+	{
+		final double hx = (double)x * 100;
+		final double hy = (double)y * 100;
+		final double hz = (double)z * 100;
+		// Also false for NaN
+		if(!(Math.abs(hx) < MAX_HUNDREDTHS && Math.abs(hy) < MAX_HUNDREDTHS && Math.abs(hz) < MAX_HUNDREDTHS))
+		{
+			mLength = 0;
+			return false;
+		}
+		
+		int pos = putLong(timestamp, 0);
+		mBuffer[pos++] = ',';
+		pos = putHundredths(hx, pos);
+		mBuffer[pos++] = ',';
+		pos = putHundredths(hy, pos);
+		mBuffer[pos++] = ',';
+		pos = putHundredths(hz, pos);
+		System.arraycopy(mSuffix, 0, mBuffer, pos, mSuffix.length);
+		mLength = pos + mSuffix.length;
+		return true;
+	}
+	
+	/**
+	 * Formats a row the slow way, for values that {@link #encode(long, float, float, float)} can't handle.
+	 * 
+	 * @param timestamp the timestamp in ms.
+	 * @param x the X-axis value.
+	 * @param y the Y-axis value.
+	 * @param z the Z-axis value.
+	 * @return the row, including the class and the line break.
+	 */
+	public String format(long timestamp, float x, float y, float z)
+	{
+		return String.format((Locale)null, FORMAT, timestamp, x, y, z) + new String(mSuffix);
+	}
+	
+	/**
+	 * Writes a row to the writer, including the class and the line break.
+	 * 
+	 * @param timestamp the timestamp in ms.
+	 * @param x the X-axis value.
+	 * @param y the Y-axis value.
+	 * @param z the Z-axis value.
+	 * @exception IOException if an I/O error occurs.
+	 */
+	@Override
+	public void write(long timestamp, float x, float y, float z) throws IOException
+	{
+		if(mIndex != null && mRows % INDEX_INTERVAL == 0)
+			mIndex.add(timestamp, mIndexOffset + mBytes);
+		mRows++;
+		mLastTime = timestamp;
+		
+		// Everything but the class is ASCII
+		if(encode(timestamp, x, y, z))
+		{
+			mOut.write(mBuffer, 0, mLength);
+			mBytes += mLength - mSuffix.length + mSuffixBytes;
+		}
+		else
+		{
+			final String row = format(timestamp, x, y, z);
+			mOut.write(row);
+			mBytes += row.length() - mSuffix.length + mSuffixBytes;
+		}
+	}
+	
+	/**
+	 * Sets the index to add entries to while writing rows. The index is flushed and closed with the writer.
+	 * 
+	 * @param index the index to write to.
+	 * @param offset the offset of the first row in bytes, i.e. the length of the header.
+	 * @see #writeHeader(Writer, String, long, String[])
+	 */
+	public void setIndex(TimeIndexWriter index, long offset)
+	{
+		mIndex = index;
+		mIndexOffset = offset;
+	}
+	
+	/**
+	 * Flushes the writer and the index, if any.
+	 */
+	@Override
+	public void flush() throws IOException
+	{
+		mOut.flush();
+		if(mIndex != null)
+			mIndex.flush();
+	}
+	
+	/**
+	 * Closes the writer and the index, if any.
+	 */
+	@Override
+	public void close() throws IOException
+	{
+		try
+		{
+			mOut.close();
+		}
+		finally
+		{
+			if(mIndex != null)
+			{
+				if(mRows > 0)
+					mIndex.setEnd(mLastTime);
+				mIndex.close();
+			}
+		}
+	}
+	
+	/**
+	 * Gets the number of bytes of the rows written so far in UTF-8, not including the header.
+	 */
+	@Override
+	public long getBytesWritten()
+	{
+		return mBytes;
+	}
+	
+	/**
+	 * Writes the header of a recorded ARFF file at the rate of the sensor, up to and including the {@code @DATA}
+	 * line.
+	 * 
+	 * @see #writeHeader(Writer, String, long, String[], int)
+	 */
+	public static long writeHeader(Writer out, String date, long relation, String[] classes) throws IOException
+	{
+		return writeHeader(out, date, relation, classes, 0);
+	}
+	
+	/**
+	 * Writes the header of a recorded ARFF file, up to and including the {@code @DATA} line.
+	 * 
+	 * @param out the writer to write to.
+	 * @param date the recording date for the comment.
+	 * @param relation the time used for the relation name in ms.
+	 * @param classes the values of the class attribute, or {@code null} if the file has no class.
+	 * @param rate the rate the samples were decimated to in Hz for the comment, or {@code 0} if they were
+	 *        recorded at the rate of the sensor.
+	 * @return the length of the header in bytes in UTF-8.
+	 * @exception IOException if an I/O error occurs.
+	 * @exception IllegalArgumentException if {@code classes} is empty.
+	 */
+	public static long writeHeader(Writer out, String date, long relation, String[] classes, int rate)
+			throws IOException
+	{
+		final StringBuilder sb = new StringBuilder(256);
+		sb.append("% Group: Feichtinger, Hager\n% Date: ");
+		sb.append(date);
+		if(rate > 0)
+			sb.append("\n" + RATE_COMMENT + rate);
+		sb.append(String.format((Locale)null, "\n\n@RELATION lazybird-%d\n\n", relation));
+		
+		sb.append(ATTRIBUTE_STRING);
+		
+		if(classes != null)
+		{
+			sb.append("@ATTRIBUTE class            ");
+			sb.append(getClassesString(classes) + "\n");
+		}
+		
+		sb.append("\n@DATA\n");
+		
+		final String header = sb.toString();
+		out.write(header);
+		return header.getBytes(Charset.forName("UTF-8")).length;
+	}
+	
+	/**
+	 * Constructs a string representation of the specified array.
+	 * 
+	 * @param c the array to construct the array string from.
+	 * @return a representation of the array in the form of <code>{ c[0], c[1], ... }</code>.
+	 */
+	private static String getClassesString(String[] c)
+	{
+		if(c.length < 1)
+			throw new IllegalArgumentException("classes array has too few entries!");
+		
+		StringBuilder sb = (new StringBuilder()).append("{ ").append(c[0]);
+		for(int j = 1; j < c.length; j++)
+			sb.append(", " + c[j]);
+		
+		return sb.append(" }").toString();
+	}
+	
+	/**
+	 * Gets the buffer containing the last encoded row. The buffer is reused for every row.
+	 */
+	public char[] getBuffer()
+	{
+		return mBuffer;
+	}
+	
+	/**
+	 * Gets the length of the last encoded row, or {@code 0} if it could not be encoded.
+	 */
+	public int getLength()
+	{
+		return mLength;
+	}
+	
+	/**
+	 * Puts the decimal digits of a value into the buffer.
+	 * 
+	 * @return the position after the last digit.
+	 */
+	private int putLong(long value, int pos)
+	{
+		if(value == Long.MIN_VALUE)
+		{
+			final String s = Long.toString(value);
+			s.getChars(0, s.length(), mBuffer, pos);
+			return pos + s.length();
+		}
+		
+		if(value < 0)
+		{
+			mBuffer[pos++] = '-';
+			value = -value;
+		}
+		return putDigits(value, pos);
+	}
+	
+	/**
+	 * Puts a value in hundredths into the buffer with two decimals, rounded half up.
+	 * 
+	 * @param hundredths the value times {@code 100}, less than {@link #MAX_HUNDREDTHS} in magnitude. For a
+	 *        {@code float} value, the product is exact as a {@code double}.
+	 * @return the position after the last digit.
+	 */
+	private int putHundredths(double hundredths, int pos)
+	{
+		// Negative zero and negative values rounding to zero are formatted with a sign as well
+		if(hundredths < 0 || (hundredths == 0 && 1 / hundredths < 0))
+		{
+			mBuffer[pos++] = '-';
+			hundredths = -hundredths;
+		}
+		
+		final long rounded = roundHalfUp(hundredths);
+		pos = putDigits(rounded / 100, pos);
+		mBuffer[pos++] = '.';
+		mBuffer[pos++] = (char)('0' + rounded / 10 % 10);
+		mBuffer[pos++] = (char)('0' + rounded % 10);
+		return pos;
+	}
+	
+	/**
+	 * Rounds a non-negative value half up, the same way {@link java.util.Formatter} does.
+	 * 
+	 * @param value the value to round, less than {@code 2^63}.
+	 * @return the rounded value.
+	 */
+	public static long roundHalfUp(double value)
+	{
+		long rounded = (long)value;
+		// The fraction of a double is always exact, so this rounds the exact value
+		if(value - rounded >= 0.5)
+			rounded++;
+		return rounded;
+	}
+	
+	/**
+	 * Puts the decimal digits of a non-negative value into the buffer.
+	 * 
+	 * @return the position after the last digit.
+	 */
+	private int putDigits(long value, int pos)
+	{
+		int digits = 1;
+		for(long v = value / 10; v != 0; v /= 10)
+			digits++;
+		
+		final int end = pos + digits;
+		for(int j = end - 1; j >= pos; j--)
+		{
+			mBuffer[j] = (char)('0' + value % 10);
+			value /= 10;
+		}
+		return end;
+	}
+}
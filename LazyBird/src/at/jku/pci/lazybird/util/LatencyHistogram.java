@@ -0,0 +1,188 @@
+package at.jku.pci.lazybird.util;
+
+import java.io.Serializable;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Represents a histogram of durations with fixed buckets, for measuring latencies without allocating
+ * anything.
+ * <p>
+ * Durations are counted in microseconds. Every power of two is split into four buckets, so percentiles are
+ * accurate to about 25%, from {@code 1} microsecond up to {@link #MAX_VALUE}. Longer durations are counted in
+ * the last bucket.
+ * <p>
+ * Only one thread may add durations, but {@link #getSummary()} may be called from any thread.
+ * 
+ * @author Peter
+ */
+public class LatencyHistogram
+{
+	/**
+	 * The longest duration in microseconds that has its own bucket, about 67 seconds.
+	 */
+	public static final long MAX_VALUE = (1L << 26) - 1;
+	
+	private static final int BUCKETS = getBucket(MAX_VALUE) + 1;
+	
+	private final AtomicLongArray mCounts = new AtomicLongArray(BUCKETS);
+	// Only written by the recording thread
+	private volatile long mCount = 0;
+	private volatile long mSum = 0;
+	private volatile long mMax = 0;
+	
+	/**
+	 * Gets the index of the bucket for the specified duration, which is the value itself below {@code 4}, and
+	 * then four buckets for every power of two.
+	 */
+	private static int getBucket(long micros)
+	{
+		if(micros < 4)
+			return (int)micros;
+		final int exp = 63 - Long.numberOfLeadingZeros(micros);
+		return (exp - 1) * 4 + (int)((micros >> (exp - 2)) & 3);
+	}
+	
+	/**
+	 * Gets the highest duration that is counted in the specified bucket.
+	 */
+	private static long getBucketMax(int bucket)
+	{
+		if(bucket < 4)
+			return bucket;
+		final int exp = bucket / 4 + 1;
+		return ((5L + bucket % 4) << (exp - 2)) - 1;
+	}
+	
+	/**
+	 * Adds a duration in nanoseconds, e.g. the difference of two values of {@link System#nanoTime()}.
+	 * 
+	 * @param nanos the duration in nanoseconds, negative values are counted as {@code 0}.
+	 */
+	public void addNanos(long nanos)
+	{
+		add(nanos / 1000);
+	}
+	
+	/**
+	 * Adds a duration in milliseconds, e.g. the difference of two values of
+	 * {@link System#currentTimeMillis()}.
+	 * 
+	 * @param millis the duration in milliseconds, negative values are counted as {@code 0}.
+	 */
+	public void addMillis(long millis)
+	{
+		add(millis * 1000);
+	}
+	
+	/**
+	 * Adds a duration in microseconds.
+	 * 
+	 * @param micros the duration in microseconds, negative values are counted as {@code 0}.
+	 */
+	public void add(long micros)
+	{
+		if(micros < 0)
+			micros = 0;
+		
+		mCounts.incrementAndGet(getBucket(Math.min(micros, MAX_VALUE)));
+		mSum += micros;
+		if(micros > mMax)
+			mMax = micros;
+		mCount++;
+	}
+	
+	/**
+	 * Gets the number of durations added.
+	 */
+	public long getCount()
+	{
+		return mCount;
+	}
+	
+	/**
+	 * Gets a summary of the durations added so far. Durations that are added at the same time might only be
+	 * partially included.
+	 */
+	public Summary getSummary()
+	{
+		final long count = mCount;
+		final long sum = mSum;
+		final long max = mMax;
+		
+		final long[] counts = new long[BUCKETS];
+		long total = 0;
+		for(int j = 0; j < BUCKETS; j++)
+		{
+			counts[j] = mCounts.get(j);
+			total += counts[j];
+		}
+		
+		// The upper limit of a bucket may be higher than any duration in it
+		return new Summary(count, count > 0 ? sum / count : 0, Math.min(getPercentile(counts, total, 0.5), max),
+				Math.min(getPercentile(counts, total, 0.95), max), max);
+	}
+	
+	private static long getPercentile(long[] counts, long total, double p)
+	{
+		if(total == 0)
+			return 0;
+		
+		final long rank = (long)Math.ceil(total * p);
+		long seen = 0;
+		for(int j = 0; j < counts.length; j++)
+		{
+			seen += counts[j];
+			if(seen >= rank)
+				return getBucketMax(j);
+		}
+		return getBucketMax(counts.length - 1);
+	}
+	
+	/**
+	 * Represents the statistics of a {@link LatencyHistogram} at one point in time. All durations are in
+	 * microseconds, percentiles are the upper limit of their bucket, but at most the maximum.
+	 * 
+	 * @author Peter
+	 */
+	public static class Summary implements Serializable
+	{
+		private static final long serialVersionUID = 2871446358123465213L;
+		
+		/**
+		 * The number of durations.
+		 */
+		public final long mCount;
+		/**
+		 * The mean duration.
+		 */
+		public final long mMean;
+		/**
+		 * The median duration.
+		 */
+		public final long mMedian;
+		/**
+		 * The 95th percentile of the durations.
+		 */
+		public final long mPercentile95;
+		/**
+		 * The maximum duration.
+		 */
+		public final long mMax;
+		
+		Summary(long count, long mean, long median, long percentile95, long max)
+		{
+			mCount = count;
+			mMean = mean;
+			mMedian = median;
+			mPercentile95 = percentile95;
+			mMax = max;
+		}
+		
+		@Override
+		public String toString()
+		{
+			return "mean " + mMean + " us, median " + mMedian + " us, 95% " + mPercentile95 + " us, max " +
+					mMax + " us, " + mCount + " values";
+		}
+	}
+}
@@ -0,0 +1,200 @@
+package at.jku.pci.lazybird.util;
+
+import java.io.Serializable;
+import java.util.Locale;
+
+/**
+ * Keeps counters and latency histograms of the live classification pipeline, from received samples to
+ * decided activities.
+ * <p>
+ * Recording only increments counters and histogram buckets, so it doesn't allocate anything. Samples are
+ * counted by the thread receiving them, everything else by the thread processing windows. A
+ * {@link Snapshot} can be taken from any thread.
+ * 
+ * @author Peter
+ */
+public class PipelineMetrics
+{
+	private final long mStartTime;
+	
+	// Written by the receiving thread only
+	private volatile long mSamples = 0;
+	// Written by the processing thread only
+	private volatile long mWindows = 0;
+	private volatile long mClassified = 0;
+	
+	private final LatencyHistogram mExtraction = new LatencyHistogram();
+	private final LatencyHistogram mClassification = new LatencyHistogram();
+	private final LatencyHistogram mDecision = new LatencyHistogram();
+	
+	/**
+	 * Initializes a new instance of the {@link PipelineMetrics} class, starting now.
+	 */
+	public PipelineMetrics()
+	{
+		mStartTime = System.currentTimeMillis();
+	}
+	
+	/**
+	 * Counts a received sample. This may only be called by the thread receiving samples.
+	 */
+	public void addSample()
+	{
+		mSamples++;
+	}
+	
+	/**
+	 * Counts a window emitted by the sliding window, whether it is classified or not.
+	 */
+	public void addWindow()
+	{
+		mWindows++;
+	}
+	
+	/**
+	 * Counts a classified window.
+	 * 
+	 * @param extractionNanos the time taken to extract the features in nanoseconds.
+	 * @param classificationNanos the time taken to classify the features in nanoseconds.
+	 * @param decisionMillis the time from receiving the last sample of the window to deciding on the activity
+	 *        in milliseconds.
+	 */
+	public void addClassified(long extractionNanos, long classificationNanos, long decisionMillis)
+	{
+		mExtraction.addNanos(extractionNanos);
+		mClassification.addNanos(classificationNanos);
+		mDecision.addMillis(decisionMillis);
+		mClassified++;
+	}
+	
+	/**
+	 * Gets the feature extraction times.
+	 */
+	public LatencyHistogram getExtraction()
+	{
+		return mExtraction;
+	}
+	
+	/**
+	 * Gets the classification times.
+	 */
+	public LatencyHistogram getClassification()
+	{
+		return mClassification;
+	}
+	
+	/**
+	 * Gets the times from receiving the last sample of a window to deciding on the activity.
+	 */
+	public LatencyHistogram getDecision()
+	{
+		return mDecision;
+	}
+	
+	/**
+	 * Takes a snapshot of the metrics.
+	 * 
+	 * @param dropped the number of samples dropped so far.
+	 * @param queueDepth the number of samples waiting to be processed.
+	 * @param pendingReports the number of activity changes waiting to be reported.
+	 * @return a new {@link Snapshot}.
+	 */
+	public Snapshot getSnapshot(long dropped, int queueDepth, int pendingReports)
+	{
+		return new Snapshot(System.currentTimeMillis() - mStartTime, mSamples, mWindows, mClassified, dropped,
+				queueDepth, pendingReports, mExtraction.getSummary(), mClassification.getSummary(),
+				mDecision.getSummary());
+	}
+	
+	/**
+	 * Represents the state of {@link PipelineMetrics} at one point in time.
+	 * 
+	 * @author Peter
+	 */
+	public static class Snapshot implements Serializable
+	{
+		private static final long serialVersionUID = -4101528713405726830L;
+		
+		/**
+		 * The time since the metrics were started in milliseconds.
+		 */
+		public final long mElapsed;
+		/**
+		 * The number of received samples, including dropped ones.
+		 */
+		public final long mSamples;
+		/**
+		 * The number of windows emitted by the sliding window.
+		 */
+		public final long mWindows;
+		/**
+		 * The number of classified windows.
+		 */
+		public final long mClassified;
+		/**
+		 * The number of dropped samples.
+		 */
+		public final long mDropped;
+		/**
+		 * The number of samples waiting to be processed.
+		 */
+		public final int mQueueDepth;
+		/**
+		 * The number of activity changes waiting to be reported.
+		 */
+		public final int mPendingReports;
+		/**
+		 * The feature extraction times.
+		 */
+		public final LatencyHistogram.Summary mExtraction;
+		/**
+		 * The classification times.
+		 */
+		public final LatencyHistogram.Summary mClassification;
+		/**
+		 * The times from receiving the last sample of a window to deciding on the activity.
+		 */
+		public final LatencyHistogram.Summary mDecision;
+		
+		Snapshot(long elapsed, long samples, long windows, long classified, long dropped, int queueDepth,
+				int pendingReports, LatencyHistogram.Summary extraction, LatencyHistogram.Summary classification,
+				LatencyHistogram.Summary decision)
+		{
+			mElapsed = elapsed;
+			mSamples = samples;
+			mWindows = windows;
+			mClassified = classified;
+			mDropped = dropped;
+			mQueueDepth = queueDepth;
+			mPendingReports = pendingReports;
+			mExtraction = extraction;
+			mClassification = classification;
+			mDecision = decision;
+		}
+		
+		/**
+		 * Gets the mean number of received samples per second.
+		 */
+		public double getSamplesPerSecond()
+		{
+			return mElapsed > 0 ? mSamples * 1000.0 / mElapsed : 0;
+		}
+		
+		/**
+		 * Gets the mean number of emitted windows per second.
+		 */
+		public double getWindowsPerSecond()
+		{
+			return mElapsed > 0 ? mWindows * 1000.0 / mElapsed : 0;
+		}
+		
+		@Override
+		public String toString()
+		{
+			return String.format(Locale.US, "%.1f samples/s, %.2f windows/s, %d classified, %d dropped, " +
+					"queue %d, pending reports %d; extraction: %s; classification: %s; decision: %s",
+					getSamplesPerSecond(), getWindowsPerSecond(), mClassified, mDropped, mQueueDepth,
+					mPendingReports, mExtraction, mClassification, mDecision);
+		}
+	}
+}
@@ -0,0 +1,405 @@
+package at.jku.pci.lazybird.util;
+
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.ArrayDeque;
+import java.util.Locale;
+
+/**
+ * Writes recorded acceleration samples to a file on a background thread, so slow storage doesn't block the
+ * thread receiving the samples.
+ * <p>
+ * Samples are added to a block of primitive arrays. When the block is full or spans more than the flush
+ * interval, it is handed to the writer thread, which encodes and flushes it while the next block is filled.
+ * Normally two blocks are enough, but if storage stalls, more blocks are allocated up to a limit, so samples
+ * are only dropped when all blocks are waiting to be written. Blocks are kept for reuse, so nothing is
+ * allocated once the number of blocks needed is reached.
+ * <p>
+ * Only one thread may call {@link #add(long, float, float, float)} and {@link #close()}, the statistics may be
+ * read from any thread.
+ * 
+ * @author Peter
+ */
+public class RecordingWriter
+{
+	/**
+	 * The default number of samples in a block, about 5 seconds at the fastest sensor rate.
+	 */
+	public static final int DEFAULT_BLOCK_SIZE = 1024;
+	/**
+	 * The default maximum number of blocks, with the default block size about 1.3 MB.
+	 */
+	public static final int DEFAULT_MAX_BLOCKS = 64;
+	/**
+	 * The default time in ms after which a block is written even if it is not full.
+	 */
+	public static final long DEFAULT_FLUSH_INTERVAL = 1000;
+	
+	private final SampleEncoder mEncoder;
+	private final int mBlockSize;
+	private final int mMaxBlocks;
+	private final long mFlushInterval;
+	private final long mStartTime;
+	
+	// All blocks are in one of these queues, in mCurrent or being written. Guarded by mFull.
+	private final ArrayDeque<Block> mFree = new ArrayDeque<Block>();
+	private final ArrayDeque<Block> mFull = new ArrayDeque<Block>();
+	private int mBlocks = 0;
+	private int mPending = 0;
+	private boolean mClosing = false;
+	
+	// The block being filled, only used by the adding thread
+	private Block mCurrent = null;
+	private final WriterThread mThread;
+	private volatile IOException mError = null;
+	
+	private volatile long mAdded = 0;
+	private volatile long mDropped = 0;
+	private volatile long mWritten = 0;
+	private volatile long mBytes = 0;
+	private volatile int mHighWater = 0;
+	private final LatencyHistogram mFlushTimes = new LatencyHistogram();
+	
+	/**
+	 * Initializes a new instance of the {@link RecordingWriter} class with the default block size, maximum
+	 * number of blocks and flush interval.
+	 * 
+	 * @param encoder the encoder writing the samples. It is closed by {@link #close()}.
+	 */
+	public RecordingWriter(SampleEncoder encoder)
+	{
+		this(encoder, DEFAULT_BLOCK_SIZE, DEFAULT_MAX_BLOCKS, DEFAULT_FLUSH_INTERVAL);
+	}
+	
+	/**
+	 * Initializes a new instance of the {@link RecordingWriter} class.
+	 * 
+	 * @param encoder the encoder writing the samples. It is closed by {@link #close()}.
+	 * @param blockSize the number of samples in a block.
+	 * @param maxBlocks the maximum number of blocks, at least {@code 2}.
+	 * @param flushInterval the time in ms after which a block is written even if it is not full, by the
+	 *        timestamps of the samples.
+	 * @exception IllegalArgumentException if {@code blockSize} is less than {@code 1}, {@code maxBlocks} is less
+	 *            than {@code 2} or {@code flushInterval} is negative.
+	 */
+	public RecordingWriter(SampleEncoder encoder, int blockSize, int maxBlocks, long flushInterval)
+	{
+		if(encoder == null)
+			throw new NullPointerException("encoder");
+		if(blockSize < 1)
+			throw new IllegalArgumentException("blockSize must be at least 1.");
+		if(maxBlocks < 2)
+			throw new IllegalArgumentException("maxBlocks must be at least 2.");
+		if(flushInterval < 0)
+			throw new IllegalArgumentException("flushInterval must not be negative.");
+		
+		mEncoder = encoder;
+		mBlockSize = blockSize;
+		mMaxBlocks = maxBlocks;
+		mFlushInterval = flushInterval;
+		mStartTime = System.currentTimeMillis();
+		
+		// Start with two blocks, one to fill and one to write
+		mFree.add(new Block(blockSize));
+		mFree.add(new Block(blockSize));
+		mBlocks = 2;
+		
+		mThread = new WriterThread();
+		mThread.start();
+	}
+	
+	/**
+	 * Adds a sample to be written. Samples are dropped if all blocks are waiting to be written.
+	 * 
+	 * @param time the timestamp of the sample in ms.
+	 * @param x the X-axis value.
+	 * @param y the Y-axis value.
+	 * @param z the Z-axis value.
+	 * @return {@code true} if the sample was added, {@code false} if it was dropped.
+	 * @exception IOException if the writer thread failed to write samples.
+	 * @exception IllegalStateException if this writer was closed.
+	 */
+	public boolean add(long time, float x, float y, float z) throws IOException
+	{
+		if(mError != null)
+			throw mError;
+		
+		if(mCurrent == null)
+		{
+			mCurrent = obtainBlock();
+			if(mCurrent == null)
+			{
+				mDropped++;
+				return false;
+			}
+		}
+		
+		final Block b = mCurrent;
+		final int index = b.mSize;
+		if(index == 0)
+			b.mStart = time;
+		b.mTimes[index] = time;
+		b.mX[index] = x;
+		b.mY[index] = y;
+		b.mZ[index] = z;
+		b.mSize = index + 1;
+		mAdded++;
+		
+		if(b.mSize == mBlockSize || time - b.mStart >= mFlushInterval)
+		{
+			submitBlock(b);
+			mCurrent = null;
+		}
+		return true;
+	}
+	
+	/**
+	 * Gets a free block, allocating a new one if there is none and the maximum is not reached.
+	 * 
+	 * @return an empty block, or {@code null} if all blocks are in use.
+	 */
+	private Block obtainBlock()
+	{
+		synchronized(mFull)
+		{
+			if(mClosing)
+				throw new IllegalStateException("The writer is closed.");
+			
+			if(!mFree.isEmpty())
+				return mFree.poll();
+			if(mBlocks < mMaxBlocks)
+			{
+				mBlocks++;
+				return new Block(mBlockSize);
+			}
+			return null;
+		}
+	}
+	
+	/**
+	 * Hands a block to the writer thread.
+	 */
+	private void submitBlock(Block b)
+	{
+		synchronized(mFull)
+		{
+			mFull.add(b);
+			mPending += b.mSize;
+			if(mPending > mHighWater)
+				mHighWater = mPending;
+			mFull.notifyAll();
+		}
+	}
+	
+	/**
+	 * Writes the remaining samples, waits for the writer thread to finish and closes the encoder.
+	 * 
+	 * @exception IOException if the samples could not be written or the output could not be closed.
+	 */
+	public void close() throws IOException
+	{
+		if(mCurrent != null && mCurrent.mSize > 0)
+			submitBlock(mCurrent);
+		mCurrent = null;
+		
+		synchronized(mFull)
+		{
+			mClosing = true;
+			mFull.notifyAll();
+		}
+		
+		try
+		{
+			mThread.join();
+		}
+		catch(InterruptedException ex)
+		{
+			Thread.currentThread().interrupt();
+		}
+		
+		mEncoder.close();
+		if(mError != null)
+			throw mError;
+	}
+	
+	/**
+	 * Gets the statistics of this writer.
+	 * 
+	 * @return a new {@link Statistics} object.
+	 */
+	public Statistics getStatistics()
+	{
+		final int pending;
+		final int blocks;
+		synchronized(mFull)
+		{
+			pending = mPending;
+			blocks = mBlocks;
+		}
+		
+		return new Statistics(System.currentTimeMillis() - mStartTime, mAdded, mWritten, mDropped, mBytes,
+				pending, mHighWater, blocks, mFlushTimes.getSummary());
+	}
+	
+	/**
+	 * Holds the samples of one block in parallel arrays.
+	 */
+	private static class Block
+	{
+		final long[] mTimes;
+		final float[] mX;
+		final float[] mY;
+		final float[] mZ;
+		int mSize = 0;
+		long mStart;
+		
+		Block(int size)
+		{
+			mTimes = new long[size];
+			mX = new float[size];
+			mY = new float[size];
+			mZ = new float[size];
+		}
+	}
+	
+	/**
+	 * Encodes and writes full blocks until the writer is closed and all blocks are written.
+	 * 
+	 * @author Peter
+	 */
+	private class WriterThread extends Thread
+	{
+		public WriterThread()
+		{
+			super("RecordingWriter");
+		}
+		
+		@Override
+		public void run()
+		{
+			while(true)
+			{
+				Block b;
+				synchronized(mFull)
+				{
+					while(mFull.isEmpty() && !mClosing)
+					{
+						try
+						{
+							mFull.wait();
+						}
+						catch(InterruptedException ex)
+						{
+							// Only close() stops the thread, so no samples are lost
+						}
+					}
+					b = mFull.poll();
+				}
+				if(b == null)
+					return;
+				
+				final long start = System.nanoTime();
+				try
+				{
+					for(int j = 0; j < b.mSize; j++)
+						mEncoder.write(b.mTimes[j], b.mX[j], b.mY[j], b.mZ[j]);
+					mEncoder.flush();
+				}
+				catch(IOException ex)
+				{
+					mError = ex;
+				}
+				mFlushTimes.addNanos(System.nanoTime() - start);
+				
+				mWritten += b.mSize;
+				mBytes = mEncoder.getBytesWritten();
+				synchronized(mFull)
+				{
+					mPending -= b.mSize;
+					b.mSize = 0;
+					mFree.add(b);
+				}
+				
+				if(mError != null)
+					return;
+			}
+		}
+	}
+	
+	/**
+	 * Represents the state of a {@link RecordingWriter} at one point in time.
+	 * 
+	 * @author Peter
+	 */
+	public static class Statistics implements Serializable
+	{
+		private static final long serialVersionUID = 6360842287195411373L;
+		
+		/**
+		 * The time since the writer was created in milliseconds.
+		 */
+		public final long mElapsed;
+		/**
+		 * The number of samples added, not including dropped ones.
+		 */
+		public final long mAdded;
+		/**
+		 * The number of samples written.
+		 */
+		public final long mWritten;
+		/**
+		 * The number of samples dropped because all blocks were waiting to be written.
+		 */
+		public final long mDropped;
+		/**
+		 * The number of bytes of the samples written, not including the header.
+		 */
+		public final long mBytes;
+		/**
+		 * The number of samples waiting to be written.
+		 */
+		public final int mPending;
+		/**
+		 * The highest number of samples that were waiting to be written at once.
+		 */
+		public final int mHighWater;
+		/**
+		 * The number of blocks allocated.
+		 */
+		public final int mBlocks;
+		/**
+		 * The times taken to write and flush a block.
+		 */
+		public final LatencyHistogram.Summary mFlush;
+		
+		Statistics(long elapsed, long added, long written, long dropped, long bytes, int pending, int highWater,
+				int blocks, LatencyHistogram.Summary flush)
+		{
+			mElapsed = elapsed;
+			mAdded = added;
+			mWritten = written;
+			mDropped = dropped;
+			mBytes = bytes;
+			mPending = pending;
+			mHighWater = highWater;
+			mBlocks = blocks;
+			mFlush = flush;
+		}
+		
+		/**
+		 * Gets the mean number of bytes written per second.
+		 */
+		public double getBytesPerSecond()
+		{
+			return mElapsed > 0 ? mBytes * 1000.0 / mElapsed : 0;
+		}
+		
+		@Override
+		public String toString()
+		{
+			return String.format(Locale.US, "%d written, %d dropped, %.1f kB/s, %d pending, high water %d, " +
+					"%d blocks; flush: %s", mWritten, mDropped, getBytesPerSecond() / 1000, mPending, mHighWater,
+					mBlocks, mFlush);
+		}
+	}
+}
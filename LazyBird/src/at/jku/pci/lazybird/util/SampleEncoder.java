@@ -0,0 +1,39 @@
+package at.jku.pci.lazybird.util;
+
+import java.io.Closeable;
+import java.io.Flushable;
+import java.io.IOException;
+
+/**
+ * Defines the interface for writing acceleration samples to a recording in a specific format, see
+ * {@link RecordingWriter}.
+ * 
+ * @see ARFFRowEncoder
+ * @author Peter
+ */
+public interface SampleEncoder extends Closeable, Flushable
+{
+	/**
+	 * Writes a sample. Implementations may buffer samples and write them later.
+	 * 
+	 * @param time the timestamp of the sample in ms.
+	 * @param x the X-axis value.
+	 * @param y the Y-axis value.
+	 * @param z the Z-axis value.
+	 * @exception IOException if an I/O error occurs.
+	 */
+	public void write(long time, float x, float y, float z) throws IOException;
+	
+	/**
+	 * Writes all buffered samples and flushes the output.
+	 * 
+	 * @exception IOException if an I/O error occurs.
+	 */
+	@Override
+	public void flush() throws IOException;
+	
+	/**
+	 * Gets the number of bytes written to the output so far, for text formats the number of characters.
+	 */
+	public long getBytesWritten();
+}
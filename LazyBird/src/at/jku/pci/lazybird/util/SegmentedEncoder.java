@@ -0,0 +1,151 @@
+package at.jku.pci.lazybird.util;
+
+import java.io.IOException;
+
+/**
+ * A {@link SampleEncoder} that splits a recording into segments. Once the current segment reaches a number of
+ * samples, a size or a duration, it is closed and the next segment is opened before the next sample is
+ * written. Since this happens on the thread writing the samples, e.g. the background thread of a
+ * {@link RecordingWriter}, no sample is lost and the segments form one continuous recording.
+ * <p>
+ * The encoders of the segments are opened by a {@link Factory}, the first one in the constructor.
+ * <p>
+ * Instances are not thread-safe.
+ * 
+ * @author Peter
+ */
+public class SegmentedEncoder implements SampleEncoder
+{
+	/**
+	 * Opens the encoders of the segments of a {@link SegmentedEncoder}.
+	 * 
+	 * @author Peter
+	 */
+	public interface Factory
+	{
+		/**
+		 * Opens the encoder for a new segment, with its header already written.
+		 * 
+		 * @param segment the number of the segment, starting at {@code 0}.
+		 * @return the encoder to write the samples of the segment to. It is closed when the segment is full or
+		 *         the {@link SegmentedEncoder} is closed.
+		 * @exception IOException if an I/O error occurs.
+		 */
+		public SampleEncoder openSegment(int segment) throws IOException;
+	}
+	
+	private final Factory mFactory;
+	private final long mMaxSamples;
+	private final long mMaxBytes;
+	private final long mMaxDuration;
+	
+	private SampleEncoder mCurrent;
+	private int mSegments = 0;
+	private long mSamples = 0;
+	private long mStart = 0;
+	private long mClosedBytes = 0;
+	
+	/**
+	 * Initializes a new instance of the {@link SegmentedEncoder} class and opens the first segment.
+	 * 
+	 * @param factory the factory opening the encoders of the segments.
+	 * @param maxSamples the number of samples per segment, or a value less than {@code 1} for no limit.
+	 * @param maxBytes the size of a segment in bytes, not including the header, or a value less than {@code 1}
+	 *        for no limit. Since encoders may buffer samples, segments can be a bit larger.
+	 * @param maxDuration the time between the first sample of a segment and the first sample of the next one
+	 *        in ms, or a value less than {@code 1} for no limit.
+	 * @exception IOException if an error occurred opening the first segment.
+	 */
+	public SegmentedEncoder(Factory factory, long maxSamples, long maxBytes, long maxDuration)
+			throws IOException
+	{
+		if(factory == null)
+			throw new NullPointerException("factory");
+		
+		mFactory = factory;
+		mMaxSamples = maxSamples > 0 ? maxSamples : Long.MAX_VALUE;
+		mMaxBytes = maxBytes > 0 ? maxBytes : Long.MAX_VALUE;
+		mMaxDuration = maxDuration > 0 ? maxDuration : Long.MAX_VALUE;
+		mCurrent = mFactory.openSegment(mSegments++);
+	}
+	
+	/**
+	 * Writes a sample, opening the next segment first if the current one is full.
+	 */
+	@Override
+	public void write(long time, float x, float y, float z) throws IOException
+	{
+		// A segment failed to open or the encoder was closed
+		if(mCurrent == null)
+			throw new IOException("No segment is open.");
+		if(mSamples > 0 && (mSamples >= mMaxSamples || mCurrent.getBytesWritten() >= mMaxBytes ||
+				time - mStart >= mMaxDuration))
+		{
+			nextSegment();
+		}
+		
+		if(mSamples == 0)
+			mStart = time;
+		mCurrent.write(time, x, y, z);
+		mSamples++;
+	}
+	
+	/**
+	 * Closes the current segment and opens the next one.
+	 * 
+	 * @exception IOException if an error occurred closing the current or opening the next segment.
+	 */
+	private void nextSegment() throws IOException
+	{
+		final SampleEncoder current = mCurrent;
+		mCurrent = null;
+		current.close();
+		mClosedBytes += current.getBytesWritten();
+		
+		mCurrent = mFactory.openSegment(mSegments++);
+		mSamples = 0;
+	}
+	
+	/**
+	 * Flushes the current segment.
+	 */
+	@Override
+	public void flush() throws IOException
+	{
+		if(mCurrent != null)
+			mCurrent.flush();
+	}
+	
+	/**
+	 * Closes the current segment.
+	 */
+	@Override
+	public void close() throws IOException
+	{
+		if(mCurrent != null)
+		{
+			final SampleEncoder current = mCurrent;
+			mCurrent = null;
+			current.close();
+			mClosedBytes += current.getBytesWritten();
+		}
+	}
+	
+	/**
+	 * Gets the number of bytes written to all segments so far, not including the headers.
+	 */
+	@Override
+	public long getBytesWritten()
+	{
+		final SampleEncoder current = mCurrent;
+		return mClosedBytes + (current != null ? current.getBytesWritten() : 0);
+	}
+	
+	/**
+	 * Gets the number of segments opened so far.
+	 */
+	public int getSegments()
+	{
+		return mSegments;
+	}
+}
@@ -0,0 +1,213 @@
+package at.jku.pci.lazybird.util;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+
+/**
+ * The sidecar index of a recording, which maps timestamps to byte offsets in the recording every few samples,
+ * so a reader can seek straight to a point in time instead of reading the recording from the start. The index
+ * is stored next to the recording with the name of the recording and {@link #EXTENSION} appended, see
+ * {@link TimeIndexWriter} for the format.
+ * <p>
+ * The timestamps of a recording are expected to be ascending, an index that is not is not used. Entries past
+ * the end of the recording are ignored.
+ * 
+ * @author Peter
+ */
+public class TimeIndex
+{
+	/**
+	 * Extension appended to the name of a recording for its index.
+	 * <p> {@value}
+	 */
+	public static final String EXTENSION = ".idx";
+	/**
+	 * The magic number at the start of every index, {@code "LBI"} and a zero byte.
+	 */
+	public static final int MAGIC = 0x4C424900;
+	/**
+	 * The version of the format written.
+	 */
+	public static final int VERSION = 1;
+	
+	private final long[] mTimes;
+	private final long[] mOffsets;
+	private final int mSize;
+	private final long mEnd;
+	private final boolean mComplete;
+	
+	private TimeIndex(long[] times, long[] offsets, int size, long end, boolean complete)
+	{
+		mTimes = times;
+		mOffsets = offsets;
+		mSize = size;
+		mEnd = end;
+		mComplete = complete;
+	}
+	
+	/**
+	 * Gets the index file of the specified recording.
+	 */
+	public static File getFile(File recording)
+	{
+		return new File(recording.getPath() + EXTENSION);
+	}
+	
+	/**
+	 * Reads the index of the specified recording. An incomplete entry at the end, e.g. if recording was
+	 * interrupted, is ignored.
+	 * 
+	 * @param recording the recording to read the index of.
+	 * @return the index, or {@code null} if the recording has no index, the index is empty or it is not valid
+	 *         for the recording.
+	 * @exception IOException if an error occurred reading the index.
+	 */
+	public static TimeIndex read(File recording) throws IOException
+	{
+		final File file = getFile(recording);
+		if(!file.isFile())
+			return null;
+		
+		final DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+		try
+		{
+			if(in.readInt() != MAGIC || in.readUnsignedByte() > VERSION)
+				return null;
+			
+			final long length = recording.length();
+			int capacity = (int)Math.min(Integer.MAX_VALUE, file.length() / 16 + 1);
+			long[] times = new long[capacity];
+			long[] offsets = new long[capacity];
+			int size = 0;
+			long end = 0;
+			boolean complete = false;
+			
+			try
+			{
+				while(true)
+				{
+					final long time = in.readLong();
+					final long offset = in.readLong();
+					if(offset < 0)
+					{
+						end = time;
+						complete = true;
+						break;
+					}
+					
+					// The index may have been written further than the recording if recording was interrupted
+					if(offset >= length)
+						break;
+					if(size > 0 && (offset <= offsets[size - 1] || time < times[size - 1]))
+						return null;
+					if(size == capacity)
+					{
+						capacity *= 2;
+						final long[] t = new long[capacity];
+						final long[] o = new long[capacity];
+						System.arraycopy(times, 0, t, 0, size);
+						System.arraycopy(offsets, 0, o, 0, size);
+						times = t;
+						offsets = o;
+					}
+					times[size] = time;
+					offsets[size] = offset;
+					size++;
+				}
+			}
+			catch(EOFException ex)
+			{
+				// Incomplete index
+			}
+			
+			if(size == 0 || (complete && end < times[size - 1]))
+				return null;
+			return new TimeIndex(times, offsets, size, end, complete);
+		}
+		catch(EOFException ex)
+		{
+			// Incomplete header
+			return null;
+		}
+		finally
+		{
+			in.close();
+		}
+	}
+	
+	/**
+	 * Gets the number of entries.
+	 */
+	public int size()
+	{
+		return mSize;
+	}
+	
+	/**
+	 * Gets the timestamp of an entry in ms.
+	 */
+	public long getTime(int index)
+	{
+		return mTimes[index];
+	}
+	
+	/**
+	 * Gets the byte offset of an entry.
+	 */
+	public long getOffset(int index)
+	{
+		return mOffsets[index];
+	}
+	
+	/**
+	 * Gets a value indicating whether the index is complete, i.e. the recording was closed properly.
+	 */
+	public boolean isComplete()
+	{
+		return mComplete;
+	}
+	
+	/**
+	 * Gets the timestamp of the first sample of the recording in ms.
+	 */
+	public long getFirstTime()
+	{
+		return mTimes[0];
+	}
+	
+	/**
+	 * Gets the timestamp of the last sample of the recording in ms if the index is complete, otherwise the
+	 * timestamp of the last entry.
+	 */
+	public long getLastTime()
+	{
+		return mComplete ? mEnd : mTimes[mSize - 1];
+	}
+	
+	/**
+	 * Finds the last entry before the specified time, where a reader has to start to read all samples from
+	 * that time on. An entry at exactly that time is not enough, since samples before it may have the same
+	 * timestamp.
+	 * 
+	 * @param time the timestamp in ms.
+	 * @return the index of the entry, or {@code -1} if {@code time} is not after the first entry.
+	 */
+	public int find(long time)
+	{
+		int low = 0;
+		int high = mSize - 1;
+		while(low <= high)
+		{
+			final int mid = (low + high) >>> 1;
+			if(mTimes[mid] < time)
+				low = mid + 1;
+			else
+				high = mid - 1;
+		}
+		return high;
+	}
+}
@@ -0,0 +1,101 @@
+package at.jku.pci.lazybird.util;
+
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Writes the sidecar index of a recording, which maps timestamps to byte offsets in the recording, see
+ * {@link TimeIndex}. Entries are added by the encoder writing the recording, every
+ * {@link ARFFRowEncoder#INDEX_INTERVAL} rows of an ARFF file or at the start of every block of a binary
+ * recording.
+ * <p>
+ * The index starts with the magic number {@link TimeIndex#MAGIC} and the format version as {@code byte},
+ * followed by the entries, each the timestamp of the first sample at an offset and the offset as {@code long}.
+ * When the index is closed, an entry with the timestamp of the last sample and the offset {@code -1} marks it
+ * as complete.
+ * 
+ * @author Peter
+ */
+public class TimeIndexWriter implements Closeable, Flushable
+{
+	private final DataOutputStream mOut;
+	private long mLastOffset = -1;
+	private long mEnd;
+	private boolean mHasEnd = false;
+	
+	/**
+	 * Initializes a new instance of the {@link TimeIndexWriter} class and writes the header.
+	 * 
+	 * @param out the stream to write to, should be buffered.
+	 * @exception IOException if an I/O error occurs.
+	 */
+	public TimeIndexWriter(OutputStream out) throws IOException
+	{
+		if(out == null)
+			throw new NullPointerException("out");
+		
+		mOut = new DataOutputStream(out);
+		mOut.writeInt(TimeIndex.MAGIC);
+		mOut.writeByte(TimeIndex.VERSION);
+	}
+	
+	/**
+	 * Adds an entry. Entries have to be added in the order of the samples in the recording.
+	 * 
+	 * @param time the timestamp of the sample at {@code offset} in ms.
+	 * @param offset the offset of the sample in the recording in bytes.
+	 * @exception IOException if an I/O error occurs.
+	 * @exception IllegalArgumentException if {@code offset} is not greater than the offset of the last entry.
+	 */
+	public void add(long time, long offset) throws IOException
+	{
+		if(offset <= mLastOffset)
+			throw new IllegalArgumentException("offset must be greater than the last offset.");
+		
+		mOut.writeLong(time);
+		mOut.writeLong(offset);
+		mLastOffset = offset;
+	}
+	
+	/**
+	 * Sets the timestamp of the last sample of the recording, which is written when the index is closed.
+	 * 
+	 * @param time the timestamp of the last sample in ms.
+	 */
+	public void setEnd(long time)
+	{
+		mEnd = time;
+		mHasEnd = true;
+	}
+	
+	@Override
+	public void flush() throws IOException
+	{
+		mOut.flush();
+	}
+	
+	/**
+	 * Writes the end of the recording, if it was set, and closes the stream.
+	 * 
+	 * @see #setEnd(long)
+	 */
+	@Override
+	public void close() throws IOException
+	{
+		try
+		{
+			if(mHasEnd)
+			{
+				mOut.writeLong(mEnd);
+				mOut.writeLong(-1);
+			}
+		}
+		finally
+		{
+			mOut.close();
+		}
+	}
+}
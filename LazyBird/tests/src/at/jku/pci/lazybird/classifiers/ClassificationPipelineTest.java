@@ -0,0 +1,75 @@
+package at.jku.pci.lazybird.classifiers;
+
+import at.jku.pci.lazybird.classifiers.ClassificationPipeline.PipelineListener;
+import at.jku.pci.lazybird.features.Feature;
+import junit.framework.TestCase;
+import weka.classifiers.Classifier;
+import weka.core.Instance;
+import weka.core.Instances;
+
+/**
+ * Tests for {@link ClassificationPipeline}.
+ * 
+ * @author Peter
+ */
+public class ClassificationPipelineTest extends TestCase
+{
+	/**
+	 * A classifier that never predicts anything, its distribution is all zeros.
+	 */
+	private static class UndecidedClassifier extends Classifier
+	{
+		private static final long serialVersionUID = 1L;
+		
+		@Override
+		public void buildClassifier(Instances data)
+		{
+		}
+		
+		@Override
+		public double[] distributionForInstance(Instance instance)
+		{
+			return new double[instance.numClasses()];
+		}
+	}
+	
+	/**
+	 * Counts the callbacks of a pipeline.
+	 */
+	private static class CountingListener implements PipelineListener
+	{
+		int changes = 0;
+		int failures = 0;
+		
+		@Override
+		public void onActivityChanged(int activity, long time)
+		{
+			changes++;
+		}
+		
+		@Override
+		public void onClassificationFailed(Exception ex)
+		{
+			failures++;
+		}
+	}
+	
+	/**
+	 * A window with a distribution summing to {@code 0} is not classified, so it must not change the activity.
+	 */
+	public void testZeroDistributionIsNotAPrediction()
+	{
+		final int features = Feature.getMask(new Feature[] { Feature.X, Feature.Y, Feature.Z });
+		final Instances header = ClassificationPipeline.buildHeader(features, new String[] { "a", "b" });
+		final CountingListener listener = new CountingListener();
+		final ClassificationPipeline pipeline = new ClassificationPipeline(new UndecidedClassifier(), null,
+				header, features, 1000, 100, new ExponentialSmoother(2, 0.5), null, listener);
+		
+		for(long time = 0; time < 3000; time += 10)
+			pipeline.add(time, 0.0f, 0.0f, 9.81f);
+		
+		assertTrue(listener.failures > 0);
+		assertEquals(0, listener.changes);
+		assertEquals(-1, pipeline.getActivity());
+	}
+}